@@ -0,0 +1,3 @@
+#!/bin/sh
+# Let the replica of compose.yml stream the WAL of this database
+echo "host replication all all trust" >> "$PGDATA/pg_hba.conf"
@@ -1,12 +1,54 @@
 package fr.axenr.apps;
 
 import com.axelor.app.AxelorModule;
+import fr.axenr.apps.db.repo.ProjectManagementRepository;
+import fr.axenr.apps.db.repo.ProjectRepository;
+import fr.axenr.apps.db.repo.TaskManagementRepository;
+import fr.axenr.apps.db.repo.TaskRepository;
+import fr.axenr.apps.service.ActiveTaskService;
+import fr.axenr.apps.service.CrossProjectLinkService;
+import fr.axenr.apps.service.GanttService;
+import fr.axenr.apps.service.PlanBaselineService;
+import fr.axenr.apps.service.PlanExportService;
+import fr.axenr.apps.service.PlanSnapshotStore;
+import fr.axenr.apps.service.PlanningClusterService;
+import fr.axenr.apps.service.PlanningLockService;
+import fr.axenr.apps.service.PlanningRecomputeQueue;
+import fr.axenr.apps.service.PlanningSchemaService;
+import fr.axenr.apps.service.ProjectGraphRegistry;
+import fr.axenr.apps.service.ProjectSummaryService;
+import fr.axenr.apps.service.ReadReplicaService;
+import fr.axenr.apps.service.ResourceLoadService;
+import fr.axenr.apps.service.SiteMapService;
+import fr.axenr.apps.service.TaskBulkService;
+import fr.axenr.apps.service.TaskImportService;
 import fr.axenr.apps.service.TaskPlanningService;
+import fr.axenr.apps.service.graph.ProjectGraphStore;
 
 public class AxEnrModule extends AxelorModule {
 
   @Override
   protected void configure() {
+    bind(ReadReplicaService.class);
+    bind(PlanningSchemaService.class);
+    bind(ProjectGraphStore.class);
+    bind(ProjectGraphRegistry.class);
+    bind(PlanSnapshotStore.class);
+    bind(PlanningLockService.class);
+    bind(PlanningClusterService.class);
+    bind(ProjectSummaryService.class);
+    bind(PlanBaselineService.class);
+    bind(CrossProjectLinkService.class);
     bind(TaskPlanningService.class);
+    bind(PlanningRecomputeQueue.class);
+    bind(TaskBulkService.class);
+    bind(TaskImportService.class);
+    bind(PlanExportService.class);
+    bind(ResourceLoadService.class);
+    bind(SiteMapService.class);
+    bind(ActiveTaskService.class);
+    bind(GanttService.class);
+    bind(ProjectRepository.class).to(ProjectManagementRepository.class);
+    bind(TaskRepository.class).to(TaskManagementRepository.class);
   }
 }
@@ -0,0 +1,15 @@
+package fr.axenr.apps.db.listener;
+
+import com.axelor.inject.Beans;
+import fr.axenr.apps.db.Project;
+import fr.axenr.apps.service.ProjectGraphRegistry;
+import javax.persistence.PostRemove;
+
+/** Drops the compiled graph of a removed project */
+public class ProjectListener {
+
+  @PostRemove
+  public void onPostRemove(Project project) {
+    Beans.get(ProjectGraphRegistry.class).invalidate(project.getId());
+  }
+}
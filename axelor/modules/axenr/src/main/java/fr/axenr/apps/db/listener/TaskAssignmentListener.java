@@ -0,0 +1,16 @@
+package fr.axenr.apps.db.listener;
+
+import fr.axenr.apps.db.TaskAssignment;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+
+/** Stores each assignment with the project of its task */
+public class TaskAssignmentListener {
+
+  @PrePersist
+  @PreUpdate
+  public void onSave(TaskAssignment assignment) {
+    assignment.setProject(
+        assignment.getTask() != null ? assignment.getTask().getProject() : null);
+  }
+}
@@ -0,0 +1,43 @@
+package fr.axenr.apps.db.listener;
+
+import com.axelor.inject.Beans;
+import fr.axenr.apps.db.Task;
+import fr.axenr.apps.db.TaskDependency;
+import fr.axenr.apps.service.CrossProjectLinkService;
+import fr.axenr.apps.service.ProjectGraphRegistry;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+
+/**
+ * Stores each link with the projects of both its tasks, refusing links that would make projects
+ * wait on each other, and drops the compiled graphs of those projects when a link changes
+ */
+public class TaskDependencyListener {
+
+  @PrePersist
+  @PreUpdate
+  public void onSave(TaskDependency dependency) {
+    Task successor = dependency.getSuccessor();
+    Task predecessor = dependency.getPredecessor();
+    dependency.setProject(successor != null ? successor.getProject() : null);
+    dependency.setPredecessorProject(predecessor != null ? predecessor.getProject() : null);
+    Beans.get(CrossProjectLinkService.class)
+        .checkLink(projectId(predecessor), projectId(successor));
+  }
+
+  @PostPersist
+  @PostUpdate
+  @PostRemove
+  public void onChange(TaskDependency dependency) {
+    ProjectGraphRegistry registry = Beans.get(ProjectGraphRegistry.class);
+    registry.invalidateOnCompletion(projectId(dependency.getSuccessor()));
+    registry.invalidateOnCompletion(projectId(dependency.getPredecessor()));
+  }
+
+  private static Long projectId(Task task) {
+    return task != null && task.getProject() != null ? task.getProject().getId() : null;
+  }
+}
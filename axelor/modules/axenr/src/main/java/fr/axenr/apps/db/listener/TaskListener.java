@@ -0,0 +1,50 @@
+package fr.axenr.apps.db.listener;
+
+import com.axelor.inject.Beans;
+import fr.axenr.apps.db.Task;
+import fr.axenr.apps.service.CrossProjectLinkService;
+import fr.axenr.apps.service.ProjectGraphRegistry;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+/**
+ * Drops the compiled graph of the project when one of its tasks changes, and keeps the links of a
+ * task moved to another project in its new project
+ */
+public class TaskListener {
+
+  @PostPersist
+  public void onPostPersist(Task task) {
+    Beans.get(ProjectGraphRegistry.class).invalidateOnCompletion(projectId(task));
+  }
+
+  @PostUpdate
+  public void onPostUpdate(Task task) {
+    ProjectGraphRegistry registry = Beans.get(ProjectGraphRegistry.class);
+    Long projectId = projectId(task);
+    // Read before the update drops the graphs: without a compiled graph holding the task, its
+    // previous project is unknown and the links are checked anyway
+    Long compiledProjectId = registry.getCompiledProjectId(task.getId());
+    registry.taskUpdated(
+        task.getId(),
+        projectId,
+        task.getDuration(),
+        task.getDelayToStart(),
+        task.getParentTask() != null ? task.getParentTask().getId() : null,
+        task.getStartDate(),
+        task.getEndDate());
+    if (compiledProjectId == null || !compiledProjectId.equals(projectId)) {
+      Beans.get(CrossProjectLinkService.class).taskMoved(task.getId(), projectId);
+    }
+  }
+
+  @PostRemove
+  public void onPostRemove(Task task) {
+    Beans.get(ProjectGraphRegistry.class).taskRemoved(task.getId(), projectId(task));
+  }
+
+  private static Long projectId(Task task) {
+    return task.getProject() != null ? task.getProject().getId() : null;
+  }
+}
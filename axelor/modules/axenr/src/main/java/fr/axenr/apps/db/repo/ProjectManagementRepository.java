@@ -0,0 +1,25 @@
+package fr.axenr.apps.db.repo;
+
+import com.google.inject.Inject;
+import fr.axenr.apps.db.Project;
+import fr.axenr.apps.service.PlanningRecomputeQueue;
+
+public class ProjectManagementRepository extends ProjectRepository {
+
+  private final PlanningRecomputeQueue planningRecomputeQueue;
+
+  @Inject
+  public ProjectManagementRepository(PlanningRecomputeQueue planningRecomputeQueue) {
+    this.planningRecomputeQueue = planningRecomputeQueue;
+  }
+
+  /** Saving a project, its tasks included, schedules a debounced recompute once committed */
+  @Override
+  public Project save(Project project) {
+    project = super.save(project);
+    if (planningRecomputeQueue.isRecomputeOnSave() && project.getId() != null) {
+      planningRecomputeQueue.requestAfterCommit(project.getId());
+    }
+    return project;
+  }
+}
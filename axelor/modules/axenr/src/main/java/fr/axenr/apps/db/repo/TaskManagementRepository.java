@@ -0,0 +1,27 @@
+package fr.axenr.apps.db.repo;
+
+import com.google.inject.Inject;
+import fr.axenr.apps.db.Task;
+import fr.axenr.apps.service.PlanningRecomputeQueue;
+
+public class TaskManagementRepository extends TaskRepository {
+
+  private final PlanningRecomputeQueue planningRecomputeQueue;
+
+  @Inject
+  public TaskManagementRepository(PlanningRecomputeQueue planningRecomputeQueue) {
+    this.planningRecomputeQueue = planningRecomputeQueue;
+  }
+
+  /** Saving a task on its own schedules a debounced recompute of its project once committed */
+  @Override
+  public Task save(Task task) {
+    task = super.save(task);
+    if (planningRecomputeQueue.isRecomputeOnSave()
+        && task.getProject() != null
+        && task.getProject().getId() != null) {
+      planningRecomputeQueue.requestAfterCommit(task.getProject().getId());
+    }
+    return task;
+  }
+}
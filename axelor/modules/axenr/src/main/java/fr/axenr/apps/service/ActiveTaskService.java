@@ -0,0 +1,238 @@
+package fr.axenr.apps.service;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Finds the tasks in progress on a day or during a period, across all projects, through one
+ * {@link TaskIntervalIndex}.
+ *
+ * <p>The index is loaded on first use, then kept in step with the plans: before each search, the
+ * plan stamp of all projects, see {@link ResourceLoadService#getPlanStamp}, is compared with the
+ * one the index was brought up to date with. When it differs, the plan version of each project is
+ * read, and only the projects planned, shifted or removed since have their task ranges replaced.
+ * Dates are written with a new plan version whichever node or service writes them, so no write
+ * needs to notify the index. Versions and ranges are read on the same side, the replica when
+ * there is one.
+ */
+@Singleton
+public class ActiveTaskService {
+
+  /** Projects whose tasks are reloaded by one query */
+  private static final int RELOAD_BATCH_SIZE = 500;
+
+  private final ResourceLoadService resourceLoadService;
+  private final ReadReplicaService readReplicaService;
+
+  private final TaskIntervalIndex index = new TaskIntervalIndex();
+  private final Map<Long, Long> projectVersions = new HashMap<>();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private long[] portfolioStamp;
+
+  @Inject
+  public ActiveTaskService(
+      ResourceLoadService resourceLoadService, ReadReplicaService readReplicaService) {
+    this.resourceLoadService = resourceLoadService;
+    this.readReplicaService = readReplicaService;
+  }
+
+  /** Ids of the tasks in progress during the period, both days included, in start order */
+  public long[] findActiveIds(LocalDate from, LocalDate to) {
+    if (from == null || to == null || to.isBefore(from)) {
+      throw new IllegalArgumentException("Invalid date range");
+    }
+    readReplicaService.read(
+        () -> {
+          synchronize();
+          return null;
+        });
+    List<Long> ids = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      index.search(epochDay(from), epochDay(to), ids::add);
+    } finally {
+      lock.readLock().unlock();
+    }
+    return ids.stream().mapToLong(Long::longValue).toArray();
+  }
+
+  /**
+   * One page of the tasks in progress during the period, in start order.
+   *
+   * @return the number of tasks found, under {@code total}, and the page under {@code tasks}, each
+   *     with its id, name, project and dates
+   */
+  public Map<String, Object> findActive(LocalDate from, LocalDate to, int offset, int limit) {
+    long[] found = findActiveIds(from, to);
+    int first = Math.min(found.length, offset);
+    int last = (int) Math.min(found.length, (long) first + limit);
+    Long[] page = new Long[last - first];
+    for (int i = first; i < last; i++) {
+      page[i - first] = found[i];
+    }
+
+    Map<Long, Map<String, Object>> rows = new HashMap<>();
+    if (page.length > 0) {
+      readReplicaService.jdbcWork(
+          connection -> {
+            Array ids = connection.createArrayOf("bigint", page);
+            try (PreparedStatement statement =
+                connection.prepareStatement(
+                    "SELECT task.id, task.name, project.id, project.name, "
+                        + "task.start_date, task.end_date FROM axenr_task task "
+                        + "JOIN axenr_project project ON project.id = task.project "
+                        + "WHERE task.id = ANY (?)")) {
+              statement.setArray(1, ids);
+              try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                  Map<String, Object> task = new LinkedHashMap<>();
+                  task.put("id", result.getLong(1));
+                  task.put("name", result.getString(2));
+                  task.put("projectId", result.getLong(3));
+                  task.put("project", result.getString(4));
+                  task.put("startDate", toString(result.getDate(5)));
+                  task.put("endDate", toString(result.getDate(6)));
+                  rows.put(result.getLong(1), task);
+                }
+              }
+            } finally {
+              ids.free();
+            }
+          });
+    }
+
+    List<Map<String, Object>> tasks = new ArrayList<>();
+    for (Long id : page) {
+      // Removed since the index was brought up to date
+      if (rows.containsKey(id)) {
+        tasks.add(rows.get(id));
+      }
+    }
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("from", from.toString());
+    body.put("to", to.toString());
+    body.put("total", found.length);
+    body.put("tasks", tasks);
+    return body;
+  }
+
+  /** Number of task ranges currently indexed */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return index.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Bring the index up to date with the plans written since the last search */
+  private void synchronize() {
+    long[] stamp = resourceLoadService.getPlanStamp();
+    lock.readLock().lock();
+    try {
+      if (Arrays.equals(stamp, portfolioStamp)) {
+        return;
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    lock.writeLock().lock();
+    try {
+      if (Arrays.equals(stamp, portfolioStamp)) {
+        return;
+      }
+      Map<Long, Long> versions = loadProjectVersions();
+      List<Long> changed = new ArrayList<>();
+      for (Map.Entry<Long, Long> entry : versions.entrySet()) {
+        if (!entry.getValue().equals(projectVersions.get(entry.getKey()))) {
+          changed.add(entry.getKey());
+        }
+      }
+      for (Long projectId : new ArrayList<>(projectVersions.keySet())) {
+        if (!versions.containsKey(projectId)) {
+          index.removeProject(projectId);
+          projectVersions.remove(projectId);
+        }
+      }
+      for (int i = 0; i < changed.size(); i += RELOAD_BATCH_SIZE) {
+        reload(changed.subList(i, Math.min(changed.size(), i + RELOAD_BATCH_SIZE)));
+      }
+      for (Long projectId : changed) {
+        projectVersions.put(projectId, versions.get(projectId));
+      }
+      portfolioStamp = stamp;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private Map<Long, Long> loadProjectVersions() {
+    Map<Long, Long> versions = new HashMap<>();
+    readReplicaService.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+                  connection.prepareStatement(
+                      "SELECT id, COALESCE(plan_version, 0) FROM axenr_project");
+              ResultSet rows = statement.executeQuery()) {
+            while (rows.next()) {
+              versions.put(rows.getLong(1), rows.getLong(2));
+            }
+          }
+        });
+    return versions;
+  }
+
+  /** Replace the task ranges of the given projects, under the write lock */
+  private void reload(List<Long> projectIds) {
+    projectIds.forEach(index::removeProject);
+    readReplicaService.jdbcWork(connection -> loadRanges(connection, projectIds));
+  }
+
+  private void loadRanges(Connection connection, List<Long> projectIds) throws SQLException {
+    Array ids = connection.createArrayOf("bigint", projectIds.toArray());
+    try (PreparedStatement statement =
+        connection.prepareStatement(
+            "SELECT id, project, start_date, end_date FROM axenr_task "
+                + "WHERE project = ANY (?) "
+                + "AND start_date IS NOT NULL AND end_date IS NOT NULL")) {
+      statement.setArray(1, ids);
+      statement.setFetchSize(10000);
+      try (ResultSet rows = statement.executeQuery()) {
+        while (rows.next()) {
+          index.put(
+              rows.getLong(1),
+              rows.getLong(2),
+              epochDay(rows.getDate(3).toLocalDate()),
+              epochDay(rows.getDate(4).toLocalDate()));
+        }
+      }
+    } finally {
+      ids.free();
+    }
+  }
+
+  private static int epochDay(LocalDate date) {
+    return (int) date.toEpochDay();
+  }
+
+  private static String toString(Date date) {
+    return date == null ? null : date.toLocalDate().toString();
+  }
+}
@@ -0,0 +1,205 @@
+package fr.axenr.apps.service;
+
+import com.axelor.db.JPA;
+import com.google.inject.Singleton;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Global index of the links between tasks of different projects.
+ *
+ * <p>Each link stores the project of both its tasks, and partial indexes hold only the links
+ * crossing projects, by project on either side: finding the projects waiting on a project, or the
+ * projects a project waits on, reads a few index entries whatever the number of links inside the
+ * projects.
+ *
+ * <p>Projects linked this way form a graph of their own, which must stay acyclic: the plan of a
+ * project is then final once the projects it waits on are planned, and a change can be carried
+ * downstream one project at a time, each in its own transaction.
+ */
+@Singleton
+public class CrossProjectLinkService {
+
+  /**
+   * Projects with a link from one of the given tasks of the project.
+   *
+   * @param taskIds tasks of the project that moved, {@code null} for any task
+   */
+  public Set<Long> findDownstream(Long projectId, Collection<Long> taskIds) {
+    Set<Long> projectIds = new LinkedHashSet<>();
+    if (taskIds != null && taskIds.isEmpty()) {
+      return projectIds;
+    }
+    JPA.jdbcWork(
+        connection -> {
+          Array ids =
+              taskIds != null ? connection.createArrayOf("bigint", taskIds.toArray()) : null;
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "SELECT DISTINCT project FROM axenr_task_dependency "
+                      + "WHERE predecessor_project = ? AND predecessor_project <> project"
+                      + (ids != null ? " AND predecessor = ANY (?)" : ""))) {
+            statement.setLong(1, projectId);
+            if (ids != null) {
+              statement.setArray(2, ids);
+            }
+            try (ResultSet rows = statement.executeQuery()) {
+              while (rows.next()) {
+                projectIds.add(rows.getLong(1));
+              }
+            }
+          } finally {
+            if (ids != null) {
+              ids.free();
+            }
+          }
+        });
+    return projectIds;
+  }
+
+  /**
+   * Every project waiting on the project, directly or not, each after all the projects it waits
+   * on among them.
+   *
+   * @throws IllegalStateException if those projects wait on each other in a cycle
+   */
+  public List<Long> downstreamOrder(Long projectId) {
+    Map<Long, Set<Long>> successors = loadDownstreamGraph(projectId);
+
+    // Kahn's algorithm over the projects reached, the project itself being the only root
+    Map<Long, Integer> remaining = new HashMap<>();
+    successors.values().forEach(next -> next.forEach(id -> remaining.merge(id, 1, Integer::sum)));
+    if (remaining.containsKey(projectId)) {
+      throw new IllegalStateException("Circular dependency between projects");
+    }
+    List<Long> order = new ArrayList<>();
+    Deque<Long> ready = new ArrayDeque<>(Collections.singleton(projectId));
+    while (!ready.isEmpty()) {
+      Long current = ready.poll();
+      if (!current.equals(projectId)) {
+        order.add(current);
+      }
+      for (Long next : successors.getOrDefault(current, Collections.emptySet())) {
+        if (remaining.merge(next, -1, Integer::sum) == 0) {
+          ready.add(next);
+        }
+      }
+    }
+    if (order.size() < remaining.size()) {
+      throw new IllegalStateException("Circular dependency between projects");
+    }
+    return order;
+  }
+
+  /**
+   * Check that a link from a task of one project to a task of another keeps the projects
+   * acyclic.
+   *
+   * @throws IllegalStateException if the predecessor project already waits on the successor one
+   */
+  public void checkLink(Long predecessorProjectId, Long projectId) {
+    if (predecessorProjectId == null
+        || projectId == null
+        || predecessorProjectId.equals(projectId)) {
+      return;
+    }
+    boolean reached =
+        loadDownstreamGraph(projectId).values().stream()
+            .anyMatch(next -> next.contains(predecessorProjectId));
+    if (reached) {
+      throw new IllegalStateException(
+          "Circular dependency between projects: the predecessor project already depends on "
+              + "the project of the task");
+    }
+  }
+
+  /** Keep the links and the assignments of a task moved to another project in its new project */
+  public void taskMoved(Long taskId, Long projectId) {
+    if (taskId == null) {
+      return;
+    }
+    JPA.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "UPDATE axenr_task_dependency SET project = ? "
+                      + "WHERE successor = ? AND project IS DISTINCT FROM ?")) {
+            setProject(statement, taskId, projectId);
+            statement.executeUpdate();
+          }
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "UPDATE axenr_task_dependency SET predecessor_project = ? "
+                      + "WHERE predecessor = ? AND predecessor_project IS DISTINCT FROM ?")) {
+            setProject(statement, taskId, projectId);
+            statement.executeUpdate();
+          }
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "UPDATE axenr_task_assignment SET project = ? "
+                      + "WHERE task = ? AND project IS DISTINCT FROM ?")) {
+            setProject(statement, taskId, projectId);
+            statement.executeUpdate();
+          }
+        });
+  }
+
+  private static void setProject(PreparedStatement statement, Long taskId, Long projectId)
+      throws SQLException {
+    statement.setObject(1, projectId, Types.BIGINT);
+    statement.setLong(2, taskId);
+    statement.setObject(3, projectId, Types.BIGINT);
+  }
+
+  /**
+   * Projects reached from the project through links crossing projects, each with the projects
+   * waiting on it directly, one query per level
+   */
+  private Map<Long, Set<Long>> loadDownstreamGraph(Long projectId) {
+    Map<Long, Set<Long>> successors = new HashMap<>();
+    Set<Long> reached = new HashSet<>(Collections.singleton(projectId));
+    List<Long> level = Collections.singletonList(projectId);
+    while (!level.isEmpty()) {
+      List<Long> sources = level;
+      List<Long> next = new ArrayList<>();
+      JPA.jdbcWork(
+          connection -> {
+            Array ids = connection.createArrayOf("bigint", sources.toArray());
+            try (PreparedStatement statement =
+                connection.prepareStatement(
+                    "SELECT DISTINCT predecessor_project, project FROM axenr_task_dependency "
+                        + "WHERE predecessor_project = ANY (?) "
+                        + "AND predecessor_project <> project")) {
+              statement.setArray(1, ids);
+              try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                  long target = rows.getLong(2);
+                  successors.computeIfAbsent(rows.getLong(1), id -> new HashSet<>()).add(target);
+                  if (reached.add(target)) {
+                    next.add(target);
+                  }
+                }
+              }
+            } finally {
+              ids.free();
+            }
+          });
+      level = next;
+    }
+    return successors;
+  }
+}
@@ -0,0 +1,201 @@
+package fr.axenr.apps.service;
+
+import java.util.Arrays;
+
+/**
+ * Rows of the Gantt chart of a project: its tasks in outline order, each parent followed by its
+ * sub-tasks, with their outline level and dates.
+ *
+ * <p>Rows are numbered once, for the whole outline. Showing the outline down to a given level
+ * keeps, in the same order, the rows of that level or above: those views are built on first use
+ * and kept, each with the position of every row in it, so a window of rows is read directly
+ * whatever its position in the outline. Immutable once built, apart from those views.
+ */
+class GanttLayout {
+
+  /** Day of a task without dates */
+  static final int NO_DATE = Integer.MIN_VALUE;
+
+  final long[] stamp;
+
+  /** Task of each row */
+  final long[] ids;
+
+  final String[] names;
+  final int[] level;
+  final boolean[] summary;
+
+  /** First and last day of each row, epoch days */
+  final int[] start;
+
+  final int[] end;
+
+  final int maxLevel;
+  final int firstDay;
+  final int lastDay;
+
+  /** Task ids sorted, with the row of each */
+  private final long[] sortedIds;
+
+  private final int[] sortedRows;
+
+  /** Rows shown down to each outline level, with the position of every row in them */
+  private final LevelView[] views;
+
+  /**
+   * @param ids tasks of the project, sorted by id
+   * @param parentIds parent of each task, {@code null} for top level tasks
+   * @param names name of each task
+   * @param start first day of each task, {@link #NO_DATE} when not planned
+   * @param end last day of each task, {@link #NO_DATE} when not planned
+   */
+  GanttLayout(
+      long[] stamp, long[] ids, Long[] parentIds, String[] names, int[] start, int[] end) {
+    int size = ids.length;
+    this.stamp = stamp;
+
+    // Sub-tasks of each task, in id order, as compressed rows; parents outside the project are
+    // ignored, as when planning
+    int[] parent = new int[size];
+    int[] childOffset = new int[size + 2];
+    for (int i = 0; i < size; i++) {
+      parent[i] = parentIds[i] == null ? -1 : Math.max(-1, Arrays.binarySearch(ids, parentIds[i]));
+      childOffset[parent[i] + 2]++;
+    }
+    for (int i = 0; i <= size; i++) {
+      childOffset[i + 1] += childOffset[i];
+    }
+    int[] children = new int[size];
+    int[] fill = Arrays.copyOf(childOffset, size + 1);
+    for (int i = 0; i < size; i++) {
+      children[fill[parent[i] + 1]++] = i;
+    }
+
+    // Depth first, with an explicit stack; tasks caught in a parent cycle are never reached from
+    // a top level task, and are listed last at the top level
+    int[] order = new int[size];
+    int[] depth = new int[size];
+    boolean[] placed = new boolean[size];
+    int[] stack = new int[size];
+    int count = 0;
+    for (int root = -1; root < size; root++) {
+      if (root >= 0 && placed[root]) {
+        continue;
+      }
+      int top = 0;
+      if (root >= 0) {
+        stack[top++] = root;
+      } else {
+        // Top level tasks, pushed in reverse to come out in id order
+        for (int c = childOffset[1] - 1; c >= childOffset[0]; c--) {
+          stack[top++] = children[c];
+        }
+      }
+      while (top > 0) {
+        int task = stack[--top];
+        if (placed[task]) {
+          continue;
+        }
+        placed[task] = true;
+        order[count++] = task;
+        int p = parent[task];
+        depth[task] = p >= 0 && placed[p] && task != root ? depth[p] + 1 : 1;
+        for (int c = childOffset[task + 2] - 1; c >= childOffset[task + 1]; c--) {
+          stack[top++] = children[c];
+        }
+      }
+    }
+
+    this.ids = new long[size];
+    this.names = new String[size];
+    this.level = new int[size];
+    this.summary = new boolean[size];
+    this.start = new int[size];
+    this.end = new int[size];
+    int deepest = 1;
+    int first = Integer.MAX_VALUE;
+    int last = Integer.MIN_VALUE;
+    for (int row = 0; row < size; row++) {
+      int task = order[row];
+      this.ids[row] = ids[task];
+      this.names[row] = names[task];
+      this.level[row] = depth[task];
+      this.summary[row] = childOffset[task + 2] > childOffset[task + 1];
+      this.start[row] = start[task];
+      this.end[row] = end[task];
+      deepest = Math.max(deepest, depth[task]);
+      if (start[task] != NO_DATE && end[task] != NO_DATE) {
+        first = Math.min(first, start[task]);
+        last = Math.max(last, end[task]);
+      }
+    }
+    this.maxLevel = deepest;
+    this.firstDay = first <= last ? first : NO_DATE;
+    this.lastDay = first <= last ? last : NO_DATE;
+
+    this.sortedIds = ids.clone();
+    this.sortedRows = new int[size];
+    for (int row = 0; row < size; row++) {
+      sortedRows[Arrays.binarySearch(sortedIds, this.ids[row])] = row;
+    }
+    this.views = new LevelView[deepest + 1];
+  }
+
+  int size() {
+    return ids.length;
+  }
+
+  /** Row of the task, -1 if it is not part of the project */
+  int rowOf(long taskId) {
+    int i = Arrays.binarySearch(sortedIds, taskId);
+    return i >= 0 ? sortedRows[i] : -1;
+  }
+
+  /** Whether the row has dates overlapping the days, both included */
+  boolean overlaps(int row, int from, int to) {
+    return start[row] != NO_DATE && end[row] != NO_DATE && start[row] <= to && end[row] >= from;
+  }
+
+  /** Rows shown down to the given outline level, built on first use */
+  LevelView view(int maxLevel) {
+    int depth = Math.max(1, Math.min(this.maxLevel, maxLevel));
+    LevelView view = views[depth];
+    if (view == null) {
+      view = new LevelView(this, depth);
+      // Racing threads build equal views, either one may be kept
+      views[depth] = view;
+    }
+    return view;
+  }
+
+  /** The rows of a layout down to one outline level */
+  static class LevelView {
+
+    /** Row of the layout shown at each position */
+    final int[] rows;
+
+    /** Position of each row of the layout, -1 when it is hidden */
+    final int[] position;
+
+    LevelView(GanttLayout layout, int maxLevel) {
+      int size = layout.size();
+      int[] shown = new int[size];
+      int[] position = new int[size];
+      int count = 0;
+      for (int row = 0; row < size; row++) {
+        if (layout.level[row] <= maxLevel) {
+          position[row] = count;
+          shown[count++] = row;
+        } else {
+          position[row] = -1;
+        }
+      }
+      this.rows = Arrays.copyOf(shown, count);
+      this.position = position;
+    }
+
+    int size() {
+      return rows.length;
+    }
+  }
+}
@@ -0,0 +1,234 @@
+package fr.axenr.apps.service;
+
+import com.axelor.db.JPA;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import fr.axenr.apps.service.graph.ProjectGraphStore;
+import java.sql.Array;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves the Gantt chart of a project by windows: the rows scrolled into view, and the days shown.
+ *
+ * <p>The rows of each project are laid out once in a {@link GanttLayout}, kept until the project
+ * is planned again or one of its tasks or links is edited, which its version stamp reveals. A
+ * window then costs the rows it shows, read directly by position, plus one indexed query for the
+ * links of those rows, whatever the size of the project.
+ */
+@Singleton
+public class GanttService {
+
+  /** Most rows served by one window */
+  public static final int MAX_ROWS = 500;
+
+  /** Longest range of days served by one window, about ten years */
+  public static final int MAX_DAYS = 3660;
+
+  /** Projects whose layout is kept */
+  private static final int MAX_LAYOUTS = 16;
+
+  private final ProjectGraphStore projectGraphStore;
+
+  private final Cache<Long, GanttLayout> layouts =
+      CacheBuilder.newBuilder().maximumSize(MAX_LAYOUTS).build();
+
+  @Inject
+  public GanttService(ProjectGraphStore projectGraphStore) {
+    this.projectGraphStore = projectGraphStore;
+  }
+
+  /**
+   * One window of the chart.
+   *
+   * @param firstRow position of the first row, in the outline shown down to {@code maxLevel}
+   * @param rowCount number of rows
+   * @param from first day shown, the first day of the project when {@code null}
+   * @param to last day shown, about a month after {@code from} when {@code null}
+   * @param maxLevel deepest outline level shown
+   * @return the size of the outline ({@code rowCount}, {@code maxLevel}) and the dates of the
+   *     project ({@code start}, {@code end}); under {@code rows}, each row of the window with its
+   *     task, name and level, plus its dates when they overlap the days shown; under {@code links},
+   *     the links starting or ending on one of those rows, with the position of both ends, when
+   *     both are shown and the link overlaps the days shown
+   */
+  public Map<String, Object> getWindow(
+      Long projectId, int firstRow, int rowCount, LocalDate from, LocalDate to, int maxLevel) {
+    if (firstRow < 0 || rowCount < 1 || rowCount > MAX_ROWS) {
+      throw new IllegalArgumentException("Invalid row range");
+    }
+    GanttLayout layout = getLayout(projectId);
+    GanttLayout.LevelView view = layout.view(maxLevel);
+
+    int first = from != null ? (int) from.toEpochDay() : layout.firstDay;
+    if (first == GanttLayout.NO_DATE) {
+      first = (int) LocalDate.now().toEpochDay();
+    }
+    int last = to != null ? (int) to.toEpochDay() : first + 30;
+    if (last < first || last - first >= MAX_DAYS) {
+      throw new IllegalArgumentException("Invalid date range");
+    }
+
+    List<Map<String, Object>> rows = new ArrayList<>();
+    List<Long> shown = new ArrayList<>();
+    int lastRow = Math.min(view.size(), firstRow + rowCount);
+    for (int position = firstRow; position < lastRow; position++) {
+      int row = view.rows[position];
+      Map<String, Object> task = new LinkedHashMap<>();
+      task.put("row", position);
+      task.put("id", layout.ids[row]);
+      task.put("name", layout.names[row]);
+      task.put("level", layout.level[row]);
+      task.put("summary", layout.summary[row]);
+      if (layout.overlaps(row, first, last)) {
+        task.put("start", toString(layout.start[row]));
+        task.put("end", toString(layout.end[row]));
+      }
+      rows.add(task);
+      shown.add(layout.ids[row]);
+    }
+
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("rowCount", view.size());
+    body.put("maxLevel", layout.maxLevel);
+    body.put("start", toString(layout.firstDay));
+    body.put("end", toString(layout.lastDay));
+    body.put("rows", rows);
+    body.put("links", findLinks(projectId, layout, view, shown, first, last));
+    return body;
+  }
+
+  /** Links with one end on the given tasks, both ends shown, overlapping the days */
+  private List<Map<String, Object>> findLinks(
+      Long projectId,
+      GanttLayout layout,
+      GanttLayout.LevelView view,
+      List<Long> taskIds,
+      int from,
+      int to) {
+    if (taskIds.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Map<String, Object>> links = new ArrayList<>();
+    JPA.jdbcWork(
+        connection -> {
+          Array ids = connection.createArrayOf("bigint", taskIds.toArray());
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "SELECT predecessor, successor, type_select FROM axenr_task_dependency "
+                      + "WHERE project = ? AND (predecessor = ANY (?) OR successor = ANY (?))")) {
+            statement.setLong(1, projectId);
+            statement.setArray(2, ids);
+            statement.setArray(3, ids);
+            try (ResultSet result = statement.executeQuery()) {
+              while (result.next()) {
+                int source = layout.rowOf(result.getLong(1));
+                int target = layout.rowOf(result.getLong(2));
+                if (source < 0
+                    || target < 0
+                    || view.position[source] < 0
+                    || view.position[target] < 0
+                    || !spans(layout, source, target, from, to)) {
+                  continue;
+                }
+                Map<String, Object> link = new LinkedHashMap<>();
+                link.put("from", result.getLong(1));
+                link.put("to", result.getLong(2));
+                link.put("fromRow", view.position[source]);
+                link.put("toRow", view.position[target]);
+                link.put("type", result.getInt(3));
+                link.put("fromStart", toString(layout.start[source]));
+                link.put("fromEnd", toString(layout.end[source]));
+                link.put("toStart", toString(layout.start[target]));
+                link.put("toEnd", toString(layout.end[target]));
+                links.add(link);
+              }
+            }
+          } finally {
+            ids.free();
+          }
+        });
+    return links;
+  }
+
+  /** Whether a link between two planned rows crosses the days shown */
+  private static boolean spans(GanttLayout layout, int source, int target, int from, int to) {
+    if (layout.start[source] == GanttLayout.NO_DATE
+        || layout.start[target] == GanttLayout.NO_DATE) {
+      return false;
+    }
+    int first = Math.min(layout.start[source], layout.start[target]);
+    int last = Math.max(layout.end[source], layout.end[target]);
+    return first <= to && last >= from;
+  }
+
+  /** Layout of the project, laid out again when its stamp changed */
+  private GanttLayout getLayout(Long projectId) {
+    long[] stamp = projectGraphStore.loadStamps(Collections.singleton(projectId)).get(projectId);
+    if (stamp == null) {
+      throw new IllegalArgumentException("Unknown project " + projectId);
+    }
+    GanttLayout layout = layouts.getIfPresent(projectId);
+    if (layout != null && Arrays.equals(layout.stamp, stamp)) {
+      return layout;
+    }
+    layout = load(projectId, stamp);
+    layouts.put(projectId, layout);
+    return layout;
+  }
+
+  private GanttLayout load(Long projectId, long[] stamp) {
+    List<Long> ids = new ArrayList<>();
+    List<Long> parents = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    List<int[]> dates = new ArrayList<>();
+    JPA.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "SELECT id, parent_task, name, start_date, end_date FROM axenr_task "
+                      + "WHERE project = ? ORDER BY id")) {
+            statement.setLong(1, projectId);
+            try (ResultSet rows = statement.executeQuery()) {
+              while (rows.next()) {
+                ids.add(rows.getLong(1));
+                long parent = rows.getLong(2);
+                parents.add(rows.wasNull() ? null : parent);
+                names.add(rows.getString(3));
+                dates.add(new int[] {epochDay(rows.getDate(4)), epochDay(rows.getDate(5))});
+              }
+            }
+          }
+        });
+
+    int size = ids.size();
+    long[] idColumn = new long[size];
+    int[] start = new int[size];
+    int[] end = new int[size];
+    for (int i = 0; i < size; i++) {
+      idColumn[i] = ids.get(i);
+      start[i] = dates.get(i)[0];
+      end[i] = dates.get(i)[1];
+    }
+    return new GanttLayout(
+        stamp, idColumn, parents.toArray(new Long[0]), names.toArray(new String[0]), start, end);
+  }
+
+  private static int epochDay(Date date) {
+    return date == null ? GanttLayout.NO_DATE : (int) date.toLocalDate().toEpochDay();
+  }
+
+  private static String toString(int epochDay) {
+    return epochDay == GanttLayout.NO_DATE ? null : LocalDate.ofEpochDay(epochDay).toString();
+  }
+}
@@ -0,0 +1,326 @@
+package fr.axenr.apps.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.IntPredicate;
+
+/**
+ * Immutable spatial index of located points: a regular grid of cells, a fixed number of degrees
+ * wide, numbered row by row from the south-west corner of the world.
+ *
+ * <p>Only non-empty cells are stored, as a sorted array of cell numbers, with the points of each
+ * cell stored contiguously and the count and mean position of each cell computed once. A
+ * rectangle query binary searches the first cell of each grid row it covers, then reads only the
+ * non-empty cells and their points. Clusters larger than a cell are built from the cell totals,
+ * without reading the points, so the whole world costs no more than its number of non-empty cells.
+ *
+ * <p>The grid does not wrap around the antimeridian.
+ */
+public class GeoGrid {
+
+  /** Length of one degree of latitude, in kilometers */
+  static final double KM_PER_DEGREE = 111.195;
+
+  private final double cellSize;
+  private final int columns;
+  private final int rows;
+
+  private final long[] ids;
+  private final double[] latitude;
+  private final double[] longitude;
+
+  private final int[] cells;
+  private final int[] cellOffset;
+  private final double[] cellLatitude;
+  private final double[] cellLongitude;
+
+  /**
+   * @param ids id of each point
+   * @param latitude latitude of each point, in degrees
+   * @param longitude longitude of each point, in degrees
+   * @param cellSize width of a cell, in degrees
+   */
+  public GeoGrid(long[] ids, double[] latitude, double[] longitude, double cellSize) {
+    int size = ids.length;
+    this.cellSize = cellSize;
+    this.columns = (int) Math.ceil(360 / cellSize);
+    this.rows = (int) Math.ceil(180 / cellSize);
+
+    // Sort the points by cell, the cell number in the high bits and the point in the low ones
+    long[] keys = new long[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = (long) cellOf(latitude[i], longitude[i]) * size + i;
+    }
+    Arrays.sort(keys);
+
+    this.ids = new long[size];
+    this.latitude = new double[size];
+    this.longitude = new double[size];
+    int[] cellBuffer = new int[size];
+    int[] offsetBuffer = new int[size + 1];
+    int cellCount = 0;
+    for (int k = 0; k < size; k++) {
+      int cell = (int) (keys[k] / size);
+      int i = (int) (keys[k] % size);
+      this.ids[k] = ids[i];
+      this.latitude[k] = latitude[i];
+      this.longitude[k] = longitude[i];
+      if (cellCount == 0 || cellBuffer[cellCount - 1] != cell) {
+        cellBuffer[cellCount] = cell;
+        offsetBuffer[cellCount] = k;
+        cellCount++;
+      }
+    }
+    offsetBuffer[cellCount] = size;
+
+    this.cells = Arrays.copyOf(cellBuffer, cellCount);
+    this.cellOffset = Arrays.copyOf(offsetBuffer, cellCount + 1);
+    this.cellLatitude = new double[cellCount];
+    this.cellLongitude = new double[cellCount];
+    for (int c = 0; c < cellCount; c++) {
+      double sumLatitude = 0;
+      double sumLongitude = 0;
+      for (int k = cellOffset[c]; k < cellOffset[c + 1]; k++) {
+        sumLatitude += this.latitude[k];
+        sumLongitude += this.longitude[k];
+      }
+      int count = cellOffset[c + 1] - cellOffset[c];
+      cellLatitude[c] = sumLatitude / count;
+      cellLongitude[c] = sumLongitude / count;
+    }
+  }
+
+  public int size() {
+    return ids.length;
+  }
+
+  public long getId(int index) {
+    return ids[index];
+  }
+
+  public double getLatitude(int index) {
+    return latitude[index];
+  }
+
+  public double getLongitude(int index) {
+    return longitude[index];
+  }
+
+  /**
+   * Group the points of a rectangle into clusters: points falling in the same square of {@code
+   * clusterSize} degrees form one cluster, placed at their mean position.
+   *
+   * @param clusterSize width of a cluster, in degrees; zero or less returns every point alone
+   */
+  public List<Cluster> cluster(
+      double south, double west, double north, double east, double clusterSize) {
+    Map<Long, Cluster> clusters = new HashMap<>();
+    boolean wholeCells = clusterSize >= cellSize;
+    int rowFrom = row(south);
+    int rowTo = row(north);
+    int columnFrom = column(west);
+    int columnTo = column(east);
+
+    for (int row = rowFrom; row <= rowTo; row++) {
+      int last = row * columns + columnTo;
+      for (int c = lowerBound(row * columns + columnFrom); c < cells.length && cells[c] <= last;
+          c++) {
+        int column = cells[c] - row * columns;
+        boolean inside =
+            row > rowFrom && row < rowTo && column > columnFrom && column < columnTo;
+        if (wholeCells && inside) {
+          int count = cellOffset[c + 1] - cellOffset[c];
+          add(clusters, clusterSize, cellLatitude[c], cellLongitude[c], count, cellOffset[c]);
+          continue;
+        }
+        for (int k = cellOffset[c]; k < cellOffset[c + 1]; k++) {
+          if (latitude[k] >= south
+              && latitude[k] <= north
+              && longitude[k] >= west
+              && longitude[k] <= east) {
+            add(clusters, clusterSize, latitude[k], longitude[k], 1, k);
+          }
+        }
+      }
+    }
+
+    List<Cluster> result = new ArrayList<>(clusters.values());
+    result.forEach(Cluster::close);
+    return result;
+  }
+
+  /**
+   * Nearest accepted points, by great-circle distance.
+   *
+   * <p>Cells are read in rings of growing size around the cell of the given position, until the
+   * nearest points found are closer than anything the next ring could hold. When the rings have
+   * read more cells than there are points, the remaining points are simply scanned.
+   *
+   * @param accept tells whether a point, by index, may be returned
+   * @return indexes of at most {@code limit} points, nearest first
+   */
+  public int[] nearest(double lat, double lon, int limit, IntPredicate accept) {
+    // Farthest candidate on top, to be dropped when a nearer one is found
+    PriorityQueue<double[]> found =
+        new PriorityQueue<>(limit + 1, (a, b) -> Double.compare(b[0], a[0]));
+    boolean[] seen = new boolean[ids.length];
+    int row = row(lat);
+    int column = column(lon);
+    int maxRing = Math.max(Math.max(row, rows - 1 - row), Math.max(column, columns - 1 - column));
+    int cellsRead = 0;
+
+    for (int ring = 0; ring <= maxRing && limit > 0; ring++) {
+      if (found.size() == limit && ringDistance(lat, ring) > found.peek()[0]) {
+        break;
+      }
+      if (cellsRead > ids.length) {
+        for (int k = 0; k < ids.length; k++) {
+          offer(found, limit, lat, lon, k, seen, accept);
+        }
+        break;
+      }
+      for (int r = Math.max(0, row - ring); r <= Math.min(rows - 1, row + ring); r++) {
+        boolean edge = r == row - ring || r == row + ring;
+        int step = edge || ring == 0 ? 1 : 2 * ring;
+        for (int col = column - ring; col <= column + ring; col += step) {
+          cellsRead++;
+          if (col < 0 || col >= columns) {
+            continue;
+          }
+          int c = Arrays.binarySearch(cells, r * columns + col);
+          if (c < 0) {
+            continue;
+          }
+          for (int k = cellOffset[c]; k < cellOffset[c + 1]; k++) {
+            offer(found, limit, lat, lon, k, seen, accept);
+          }
+        }
+      }
+    }
+
+    int[] nearest = new int[found.size()];
+    for (int n = nearest.length - 1; n >= 0; n--) {
+      nearest[n] = (int) found.poll()[1];
+    }
+    return nearest;
+  }
+
+  /** Great-circle distance between two positions, in kilometers */
+  public static double distance(double lat1, double lon1, double lat2, double lon2) {
+    double dLat = Math.toRadians(lat2 - lat1);
+    double dLon = Math.toRadians(lon2 - lon1);
+    double a =
+        Math.sin(dLat / 2) * Math.sin(dLat / 2)
+            + Math.cos(Math.toRadians(lat1))
+                * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2)
+                * Math.sin(dLon / 2);
+    return 2 * Math.toDegrees(Math.asin(Math.min(1, Math.sqrt(a)))) * KM_PER_DEGREE;
+  }
+
+  private void offer(
+      PriorityQueue<double[]> found,
+      int limit,
+      double lat,
+      double lon,
+      int k,
+      boolean[] seen,
+      IntPredicate accept) {
+    if (seen[k] || !accept.test(k)) {
+      return;
+    }
+    seen[k] = true;
+    found.add(new double[] {distance(lat, lon, latitude[k], longitude[k]), k});
+    if (found.size() > limit) {
+      found.poll();
+    }
+  }
+
+  /**
+   * Lower bound of the distance to any point of the given ring and beyond: such a point is at
+   * least {@code ring - 1} whole cells away, along a parallel or a meridian. Along a parallel, a
+   * degree shrinks with the latitude, so the bound is taken at the highest latitude of the ring.
+   */
+  private double ringDistance(double lat, int ring) {
+    double highest = Math.min(90, Math.abs(lat) + ring * cellSize);
+    return Math.max(0, ring - 1) * cellSize * KM_PER_DEGREE * Math.cos(Math.toRadians(highest));
+  }
+
+  private void add(
+      Map<Long, Cluster> clusters,
+      double clusterSize,
+      double lat,
+      double lon,
+      int count,
+      int index) {
+    long key =
+        clusterSize <= 0
+            ? index
+            : (long) Math.floor((lat + 90) / clusterSize) << 32
+                | (long) Math.floor((lon + 180) / clusterSize);
+    clusters.computeIfAbsent(key, k -> new Cluster(index)).add(lat, lon, count);
+  }
+
+  private int cellOf(double lat, double lon) {
+    return row(lat) * columns + column(lon);
+  }
+
+  private int row(double lat) {
+    return Math.max(0, Math.min(rows - 1, (int) Math.floor((lat + 90) / cellSize)));
+  }
+
+  private int column(double lon) {
+    return Math.max(0, Math.min(columns - 1, (int) Math.floor((lon + 180) / cellSize)));
+  }
+
+  /** First stored cell whose number is {@code cell} or more */
+  private int lowerBound(int cell) {
+    int c = Arrays.binarySearch(cells, cell);
+    return c >= 0 ? c : -c - 1;
+  }
+
+  /** Points close to each other, shown as one marker */
+  public static class Cluster {
+
+    private final int first;
+    private int count;
+    private double latitude;
+    private double longitude;
+
+    Cluster(int first) {
+      this.first = first;
+    }
+
+    void add(double lat, double lon, int points) {
+      count += points;
+      latitude += lat * points;
+      longitude += lon * points;
+    }
+
+    void close() {
+      latitude /= count;
+      longitude /= count;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    public double getLatitude() {
+      return latitude;
+    }
+
+    public double getLongitude() {
+      return longitude;
+    }
+
+    /** Index of the point when the cluster holds a single one */
+    public int getIndex() {
+      return count == 1 ? first : -1;
+    }
+  }
+}
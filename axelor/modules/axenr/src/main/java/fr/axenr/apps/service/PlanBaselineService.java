@@ -0,0 +1,233 @@
+package fr.axenr.apps.service;
+
+import com.axelor.db.JPA;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import fr.axenr.apps.db.PlanBaseline;
+import fr.axenr.apps.db.Project;
+import fr.axenr.apps.db.repo.PlanBaselineRepository;
+import fr.axenr.apps.service.graph.BaselineSnapshot;
+import fr.axenr.apps.service.graph.PlanSchedule;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Baselines: the task dates of a project frozen at a point in time, typically at contract
+ * signature, to be compared with the current plan.
+ *
+ * <p>A baseline is one row holding a {@link BaselineSnapshot} blob, whatever the number of tasks.
+ * The variance against the reference baseline of the project is stored on each task, so that the
+ * task grid shows it like any other column; it is refreshed whenever the dates are written, along
+ * with the late task count of the project summary.
+ */
+@Singleton
+public class PlanBaselineService {
+
+  private static final int WRITE_BATCH_SIZE = 500;
+
+  private final PlanningLockService planningLockService;
+  private final PlanBaselineRepository planBaselineRepository;
+  private final ProjectSummaryService projectSummaryService;
+
+  @Inject
+  public PlanBaselineService(
+      PlanningLockService planningLockService,
+      PlanBaselineRepository planBaselineRepository,
+      ProjectSummaryService projectSummaryService) {
+    this.planningLockService = planningLockService;
+    this.planBaselineRepository = planBaselineRepository;
+    this.projectSummaryService = projectSummaryService;
+  }
+
+  /** Freeze the current dates of the project and make them its reference baseline */
+  public PlanBaseline takeBaseline(Project project, String name) {
+    if (project == null) {
+      throw new IllegalArgumentException("Project cannot be null");
+    }
+
+    Long projectId = project.getId();
+    return planningLockService.runLocked(
+        projectId,
+        () -> {
+          PlanBaseline[] taken = {null};
+          JPA.runInTransaction(
+              () -> {
+                TaskDates current = loadTaskDates(projectId);
+                BaselineSnapshot snapshot =
+                    new BaselineSnapshot(current.ids, current.start, current.end);
+
+                Project managed = JPA.find(Project.class, projectId);
+                PlanBaseline baseline = new PlanBaseline();
+                baseline.setName(name);
+                baseline.setProject(managed);
+                baseline.setTakenOn(LocalDateTime.now());
+                baseline.setTaskCount(snapshot.size());
+                baseline.setData(snapshot.encode());
+                baseline = planBaselineRepository.save(baseline);
+                managed.setActiveBaseline(baseline);
+
+                writeVariance(current, snapshot);
+                projectSummaryService.refresh(projectId);
+                taken[0] = baseline;
+              });
+          return taken[0];
+        });
+  }
+
+  /** Refresh the variance of the project tasks, after its reference baseline was changed */
+  public int refreshVariance(Long projectId) {
+    return planningLockService.runLocked(
+        projectId,
+        () -> {
+          int[] updated = {0};
+          JPA.runInTransaction(
+              () -> {
+                updated[0] = updateVariance(projectId);
+                projectSummaryService.refresh(projectId);
+              });
+          return updated[0];
+        });
+  }
+
+  /**
+   * Compare the current dates of the project tasks with its reference baseline and store the
+   * variance on the tasks whose variance changed. Runs in the caller's transaction.
+   *
+   * @return number of tasks updated
+   */
+  public int updateVariance(Long projectId) {
+    List<byte[]> data =
+        JPA.em()
+            .createQuery(
+                "SELECT baseline.data FROM Project self JOIN self.activeBaseline baseline "
+                    + "WHERE self.id = :projectId",
+                byte[].class)
+            .setParameter("projectId", projectId)
+            .getResultList();
+
+    TaskDates current = loadTaskDates(projectId);
+    BaselineSnapshot snapshot =
+        data.isEmpty() || data.get(0) == null
+            ? new BaselineSnapshot(new long[0], new int[0], new int[0])
+            : BaselineSnapshot.decode(data.get(0));
+    return writeVariance(current, snapshot);
+  }
+
+  private int writeVariance(TaskDates current, BaselineSnapshot snapshot) {
+    int size = current.ids.length;
+    int[] startVariance = new int[size];
+    int[] finishVariance = new int[size];
+    snapshot.variance(current.ids, current.start, current.end, startVariance, finishVariance);
+
+    int[] updated = {0};
+    JPA.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "UPDATE axenr_task SET start_variance = ?, finish_variance = ? "
+                      + "WHERE id = ? AND project = ?")) {
+            int pending = 0;
+            for (int i = 0; i < size; i++) {
+              if (startVariance[i] == current.startVariance[i]
+                  && finishVariance[i] == current.finishVariance[i]) {
+                continue;
+              }
+              setVariance(statement, 1, startVariance[i]);
+              setVariance(statement, 2, finishVariance[i]);
+              statement.setLong(3, current.ids[i]);
+              statement.setLong(4, current.projectId);
+              statement.addBatch();
+              updated[0]++;
+              if (++pending == WRITE_BATCH_SIZE) {
+                statement.executeBatch();
+                pending = 0;
+              }
+            }
+            if (pending > 0) {
+              statement.executeBatch();
+            }
+          }
+        });
+    return updated[0];
+  }
+
+  /** Dates and stored variance of the project tasks, in ascending id order */
+  private TaskDates loadTaskDates(Long projectId) {
+    TaskDates dates = new TaskDates();
+    dates.projectId = projectId;
+    JPA.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "SELECT id, start_date, end_date, start_variance, finish_variance "
+                      + "FROM axenr_task WHERE project = ? ORDER BY id")) {
+            statement.setLong(1, projectId);
+            try (ResultSet rows = statement.executeQuery()) {
+              int count = 0;
+              while (rows.next()) {
+                dates.ensureCapacity(count + 1);
+                dates.ids[count] = rows.getLong(1);
+                dates.start[count] = toEpochDay(rows.getDate(2));
+                dates.end[count] = toEpochDay(rows.getDate(3));
+                dates.startVariance[count] = toVariance(rows.getInt(4), rows.wasNull());
+                dates.finishVariance[count] = toVariance(rows.getInt(5), rows.wasNull());
+                count++;
+              }
+              dates.trim(count);
+            }
+          }
+        });
+    return dates;
+  }
+
+  private static void setVariance(PreparedStatement statement, int index, int value)
+      throws SQLException {
+    if (value == PlanSchedule.UNSET) {
+      statement.setNull(index, Types.INTEGER);
+    } else {
+      statement.setInt(index, value);
+    }
+  }
+
+  private static int toEpochDay(Date date) {
+    return date == null ? PlanSchedule.UNSET : (int) date.toLocalDate().toEpochDay();
+  }
+
+  private static int toVariance(int value, boolean empty) {
+    return empty ? PlanSchedule.UNSET : value;
+  }
+
+  /** Columns of the task rows, grown as they are read */
+  private static class TaskDates {
+    long projectId;
+    long[] ids = new long[64];
+    int[] start = new int[64];
+    int[] end = new int[64];
+    int[] startVariance = new int[64];
+    int[] finishVariance = new int[64];
+
+    void ensureCapacity(int capacity) {
+      if (capacity > ids.length) {
+        resize(Math.max(capacity, ids.length * 2));
+      }
+    }
+
+    void trim(int size) {
+      resize(size);
+    }
+
+    private void resize(int size) {
+      ids = Arrays.copyOf(ids, size);
+      start = Arrays.copyOf(start, size);
+      end = Arrays.copyOf(end, size);
+      startVariance = Arrays.copyOf(startVariance, size);
+      finishVariance = Arrays.copyOf(finishVariance, size);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package fr.axenr.apps.service;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a computation changed in the plan of a project: its dates, and the tasks whose dates or
+ * float moved, by id. The project form pages its tasks, so it reloads the page shown rather than
+ * receiving the values of every moved task.
+ *
+ * <p>It also carries the date constraints the computed plan misses, as stored on the project.
+ */
+public class PlanDiff {
+
+  private final Long projectId;
+  private final LocalDate startDate;
+  private final LocalDate endDate;
+  private final List<Long> taskIds;
+  private final PlanViolations constraintViolations;
+
+  public PlanDiff(
+      Long projectId,
+      LocalDate startDate,
+      LocalDate endDate,
+      List<Long> taskIds,
+      PlanViolations constraintViolations) {
+    this.projectId = projectId;
+    this.startDate = startDate;
+    this.endDate = endDate;
+    this.taskIds = Collections.unmodifiableList(taskIds);
+    this.constraintViolations = constraintViolations;
+  }
+
+  public Long getProjectId() {
+    return projectId;
+  }
+
+  public LocalDate getStartDate() {
+    return startDate;
+  }
+
+  public LocalDate getEndDate() {
+    return endDate;
+  }
+
+  /** Constraints missed by the plan, {@code null} when all are met */
+  public PlanViolations getConstraintViolations() {
+    return constraintViolations;
+  }
+
+  /** Ids of the moved tasks, in task order */
+  public List<Long> getTaskIds() {
+    return taskIds;
+  }
+
+  public int size() {
+    return taskIds.size();
+  }
+}
@@ -0,0 +1,330 @@
+package fr.axenr.apps.service;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.opencsv.CSVWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes the plan of a project as CSV or MS Project XML, straight from a database cursor.
+ *
+ * <p>Tasks are read in outline order, each parent followed by its sub-tasks, with their computed
+ * dates and their predecessors aggregated on the same row by the database. Rows are fetched a block
+ * at a time and written as they arrive, so memory does not depend on the size of the project and
+ * the first rows leave before the last ones are read.
+ *
+ * <p>The CSV columns are those read by {@link TaskImportService}, plus the computed dates, so that
+ * an export can be imported again. Tasks without an external id are named {@code #<id>}.
+ *
+ * <p>Exports read on the replica when one is configured, see {@link ReadReplicaService}.
+ */
+@Singleton
+public class PlanExportService {
+
+  /** Rows fetched from the cursor at once */
+  private static final int FETCH_SIZE = 1000;
+
+  /** Minutes in a working day of MS Project files, as read by the importer */
+  private static final int MINUTES_PER_DAY = 8 * 60;
+
+  private static final String PROJECT_NAMESPACE = "http://schemas.microsoft.com/project";
+
+  /**
+   * Tasks of the project in outline order. Parents outside the project are ignored, as when
+   * planning; the path guards against a parent cycle not planned yet. Links from tasks of other
+   * projects are left out, the importer only links tasks of the same project.
+   */
+  private static final String TASKS =
+      "WITH RECURSIVE tree (id, level, path) AS ("
+          + "SELECT task.id, 1, ARRAY[task.id] FROM axenr_task task "
+          + "WHERE task.project = ? AND NOT EXISTS (SELECT 1 FROM axenr_task parent "
+          + "WHERE parent.id = task.parent_task AND parent.project = task.project) "
+          + "UNION ALL SELECT child.id, tree.level + 1, tree.path || child.id "
+          + "FROM axenr_task child JOIN tree ON child.parent_task = tree.id "
+          + "WHERE child.project = ? AND NOT child.id = ANY (tree.path)) "
+          + "SELECT task.id, COALESCE(task.external_id, '#' || task.id), task.name, "
+          + "task.duration, task.delay_to_start, task.start_date, task.end_date, "
+          + "task.total_float, tree.level, "
+          + "COALESCE(parent.external_id, '#' || parent.id), "
+          + "EXISTS (SELECT 1 FROM axenr_task child WHERE child.project = task.project "
+          + "AND child.parent_task = task.id), "
+          + "(SELECT string_agg(%s, '|' ORDER BY link.id) FROM axenr_task_dependency link "
+          + "JOIN axenr_task predecessor ON predecessor.id = link.predecessor "
+          + "WHERE link.project = task.project AND link.predecessor_project = link.project "
+          + "AND link.successor = task.id) "
+          + "FROM tree JOIN axenr_task task ON task.id = tree.id "
+          + "LEFT JOIN axenr_task parent ON parent.id = task.parent_task "
+          + "AND parent.project = task.project "
+          + "ORDER BY tree.path";
+
+  /** Predecessors as read by the importer: {@code key:TYPE}, then {@code :lag} when set */
+  private static final String CSV_LINK =
+      "COALESCE(predecessor.external_id, '#' || predecessor.id) || ':' || "
+          + "CASE link.type_select WHEN 1 THEN 'SS' WHEN 2 THEN 'FF' WHEN 3 THEN 'SF' "
+          + "ELSE 'FS' END || COALESCE(':' || link.lag, '')";
+
+  /** Predecessors as {@code id:type:lag}, the lag of the successor applying when not set */
+  private static final String PROJECT_LINK =
+      "predecessor.id || ':' || link.type_select || ':' || "
+          + "COALESCE(link.lag, task.delay_to_start, 0)";
+
+  private static final String[] CSV_HEADER = {
+    "externalId",
+    "name",
+    "duration",
+    "delayToStart",
+    "startDate",
+    "endDate",
+    "totalFloat",
+    "parent",
+    "predecessors"
+  };
+
+  private final ReadReplicaService readReplicaService;
+
+  @Inject
+  public PlanExportService(ReadReplicaService readReplicaService) {
+    this.readReplicaService = readReplicaService;
+  }
+
+  /** Whether the project exists, checked before the response is committed */
+  public boolean exists(Long projectId) {
+    boolean[] exists = {false};
+    readReplicaService.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+              connection.prepareStatement("SELECT 1 FROM axenr_project WHERE id = ?")) {
+            statement.setLong(1, projectId);
+            try (ResultSet rows = statement.executeQuery()) {
+              exists[0] = rows.next();
+            }
+          }
+        });
+    return exists[0];
+  }
+
+  public void writeCsv(Long projectId, OutputStream output) throws IOException {
+    Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+    CSVWriter csv = new CSVWriter(writer);
+    csv.writeNext(CSV_HEADER);
+    csv.flush();
+    stream(
+        projectId,
+        CSV_LINK,
+        rows -> {
+          csv.writeNext(
+              new String[] {
+                rows.getString(2),
+                rows.getString(3),
+                toString(rows.getBigDecimal(4)),
+                toString(rows.getBigDecimal(5)),
+                toString(rows.getDate(6)),
+                toString(rows.getDate(7)),
+                toString(rows.getBigDecimal(8)),
+                rows.getString(10),
+                rows.getString(12)
+              });
+          // The writer swallows errors: stop reading once the client is gone
+          if (csv.checkError()) {
+            throw new UncheckedIOException(new IOException("Export interrupted"));
+          }
+        });
+    csv.flush();
+  }
+
+  public void writeProject(Long projectId, OutputStream output) throws IOException {
+    try {
+      XMLStreamWriter xml =
+          XMLOutputFactory.newInstance().createXMLStreamWriter(output, "UTF-8");
+      xml.writeStartDocument("UTF-8", "1.0");
+      xml.writeStartElement("Project");
+      xml.writeDefaultNamespace(PROJECT_NAMESPACE);
+      writeProjectHeader(xml, projectId);
+      xml.writeStartElement("Tasks");
+      xml.flush();
+      output.flush();
+
+      int[] row = {0};
+      stream(
+          projectId,
+          PROJECT_LINK,
+          rows -> {
+            try {
+              writeProjectTask(xml, rows, ++row[0]);
+            } catch (XMLStreamException e) {
+              throw new UncheckedIOException(new IOException(e));
+            }
+          });
+
+      xml.writeEndElement();
+      xml.writeEndElement();
+      xml.writeEndDocument();
+      xml.flush();
+    } catch (XMLStreamException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void writeProjectHeader(XMLStreamWriter xml, Long projectId)
+      throws XMLStreamException {
+    Object[] project = new Object[3];
+    readReplicaService.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "SELECT name, start_date, end_date FROM axenr_project WHERE id = ?")) {
+            statement.setLong(1, projectId);
+            try (ResultSet rows = statement.executeQuery()) {
+              if (rows.next()) {
+                project[0] = rows.getString(1);
+                project[1] = rows.getDate(2);
+                project[2] = rows.getDate(3);
+              }
+            }
+          }
+        });
+    element(xml, "SaveVersion", "14");
+    element(xml, "Name", (String) project[0]);
+    if (project[1] != null) {
+      element(xml, "StartDate", start((Date) project[1]));
+    }
+    if (project[2] != null) {
+      element(xml, "FinishDate", finish((Date) project[2]));
+    }
+    element(xml, "MinutesPerDay", String.valueOf(MINUTES_PER_DAY));
+  }
+
+  private void writeProjectTask(XMLStreamWriter xml, ResultSet rows, int row)
+      throws SQLException, XMLStreamException {
+    BigDecimal duration = rows.getBigDecimal(4);
+    long minutes =
+        duration == null ? 0 : duration.multiply(BigDecimal.valueOf(MINUTES_PER_DAY)).longValue();
+    Date start = rows.getDate(6);
+    Date end = rows.getDate(7);
+    boolean summary = rows.getBoolean(11);
+
+    xml.writeStartElement("Task");
+    element(xml, "UID", String.valueOf(rows.getLong(1)));
+    element(xml, "ID", String.valueOf(row));
+    element(xml, "Name", rows.getString(3));
+    element(xml, "OutlineLevel", String.valueOf(rows.getInt(9)));
+    if (start != null) {
+      element(xml, "Start", start(start));
+    }
+    if (end != null) {
+      element(xml, "Finish", finish(end));
+    }
+    element(xml, "Duration", "PT" + minutes / 60 + "H" + minutes % 60 + "M0S");
+    element(xml, "DurationFormat", "7");
+    element(xml, "Summary", summary ? "1" : "0");
+    element(xml, "Milestone", !summary && minutes == 0 ? "1" : "0");
+
+    String links = rows.getString(12);
+    if (links != null) {
+      for (String link : links.split("\\|")) {
+        String[] parts = link.split(":");
+        BigDecimal lag = new BigDecimal(parts[2]);
+        xml.writeStartElement("PredecessorLink");
+        element(xml, "PredecessorUID", parts[0]);
+        element(xml, "Type", String.valueOf(toProjectType(Integer.parseInt(parts[1]))));
+        // Tenths of minutes
+        element(
+            xml,
+            "LinkLag",
+            String.valueOf(lag.multiply(BigDecimal.valueOf(MINUTES_PER_DAY * 10L)).longValue()));
+        element(xml, "LagFormat", "7");
+        xml.writeEndElement();
+      }
+    }
+    xml.writeEndElement();
+  }
+
+  /** Run the task query in a read-only transaction, handing each row over as it is fetched */
+  private void stream(Long projectId, String link, RowWriter writer) throws IOException {
+    try {
+      // Run in a transaction on either side: the driver only fetches by blocks inside one
+      readReplicaService.jdbcWork(
+          connection -> {
+            try (PreparedStatement statement = prepare(connection, link)) {
+              statement.setLong(1, projectId);
+              statement.setLong(2, projectId);
+              try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                  writer.write(rows);
+                }
+              }
+            }
+          });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private PreparedStatement prepare(Connection connection, String link) throws SQLException {
+    PreparedStatement statement =
+        connection.prepareStatement(
+            String.format(TASKS, link), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    statement.setFetchSize(FETCH_SIZE);
+    return statement;
+  }
+
+  /** MS Project numbers its link types 0 = FF, 1 = FS, 2 = SF, 3 = SS */
+  private static int toProjectType(int type) {
+    switch (type) {
+      case 1:
+        return 3;
+      case 2:
+        return 0;
+      case 3:
+        return 2;
+      default:
+        return 1;
+    }
+  }
+
+  private static void element(XMLStreamWriter xml, String name, String value)
+      throws XMLStreamException {
+    xml.writeStartElement(name);
+    if (value != null) {
+      xml.writeCharacters(value);
+    }
+    xml.writeEndElement();
+  }
+
+  /** Morning of the first day of a task */
+  private static String start(Date date) {
+    return date.toLocalDate() + "T08:00:00";
+  }
+
+  /** Evening of the last day of a task, end dates being included */
+  private static String finish(Date date) {
+    return date.toLocalDate() + "T17:00:00";
+  }
+
+  private static String toString(BigDecimal value) {
+    return value == null ? null : value.stripTrailingZeros().toPlainString();
+  }
+
+  private static String toString(Date date) {
+    return date == null ? null : date.toLocalDate().toString();
+  }
+
+  @FunctionalInterface
+  private interface RowWriter {
+    void write(ResultSet rows) throws SQLException;
+  }
+}
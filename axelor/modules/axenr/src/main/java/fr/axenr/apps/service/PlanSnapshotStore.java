@@ -0,0 +1,202 @@
+package fr.axenr.apps.service;
+
+import com.axelor.app.AppSettings;
+import com.axelor.db.JPA;
+import com.axelor.event.Observes;
+import com.axelor.events.ShutdownEvent;
+import com.axelor.events.StartupEvent;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import fr.axenr.apps.service.graph.PlanSchedule;
+import fr.axenr.apps.service.graph.PlanSnapshot;
+import fr.axenr.apps.service.graph.ProjectGraph;
+import fr.axenr.apps.service.graph.ProjectGraphStore;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a {@link PlanSnapshot} file per project under {@code axenr.planning.snapshot.dir}, so that
+ * a restarted node starts with the graphs it had compiled instead of an empty registry.
+ *
+ * <p>Snapshots are written in the background once the planning transaction commits, the version
+ * stamp of the project being read in that transaction. On startup the files are memory-mapped,
+ * and their headers compared with the stamps of all their projects, read in one query: a snapshot
+ * whose tasks or links changed since is deleted, the others go back to the {@link
+ * ProjectGraphRegistry}, with their schedule when the plan version did not change either.
+ */
+@Singleton
+public class PlanSnapshotStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final String SUFFIX = ".snap";
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+  private final ProjectGraphStore projectGraphStore;
+  private final ProjectGraphRegistry projectGraphRegistry;
+  private final boolean enabled;
+  private final Path directory;
+  private final ExecutorService writer;
+
+  @Inject
+  public PlanSnapshotStore(
+      ProjectGraphStore projectGraphStore, ProjectGraphRegistry projectGraphRegistry) {
+    this.projectGraphStore = projectGraphStore;
+    this.projectGraphRegistry = projectGraphRegistry;
+    AppSettings settings = AppSettings.get();
+    this.enabled = settings.getBoolean("axenr.planning.snapshot.enabled", true);
+    this.directory =
+        Paths.get(
+            settings.getPath("axenr.planning.snapshot.dir", "{user.home}/.axelor/axenr-snapshots"));
+    this.writer =
+        Executors.newSingleThreadExecutor(
+            task -> {
+              Thread thread = new Thread(task, "axenr-plan-snapshot");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  public void onStartup(@Observes StartupEvent event) {
+    if (enabled) {
+      restore();
+    }
+  }
+
+  public void onShutdown(@Observes ShutdownEvent event) {
+    writer.shutdown();
+    try {
+      writer.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Save the graph and the schedule written in the current transaction, once it commits. Must be
+   * called after the plan version of the project was increased.
+   */
+  public void saveOnCommit(ProjectGraph graph, PlanSchedule schedule) {
+    if (!enabled) {
+      return;
+    }
+    Long projectId = graph.getProjectId();
+    long[] stamp =
+        projectGraphStore.loadStamps(Collections.singletonList(projectId)).get(projectId);
+    if (stamp == null) {
+      return;
+    }
+    PlanSnapshot snapshot = new PlanSnapshot(stamp, graph, schedule);
+    TransactionCompletion.register(
+        committed -> {
+          if (committed) {
+            writer.execute(() -> write(projectId, snapshot));
+          }
+        });
+  }
+
+  private void write(Long projectId, PlanSnapshot snapshot) {
+    try {
+      Files.createDirectories(directory);
+      snapshot.write(file(projectId));
+    } catch (IOException | UncheckedIOException e) {
+      LOG.warn("Cannot write the plan snapshot of project {}: {}", projectId, e.getMessage());
+    }
+  }
+
+  private void restore() {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    long begin = System.currentTimeMillis();
+    List<Path> files;
+    try (Stream<Path> list = Files.list(directory)) {
+      files =
+          list.filter(path -> path.getFileName().toString().endsWith(SUFFIX))
+              .collect(Collectors.toList());
+    } catch (IOException e) {
+      LOG.warn("Cannot list the plan snapshots in {}: {}", directory, e.getMessage());
+      return;
+    }
+
+    // Headers first: a mapped file is only read where it is accessed
+    Map<Long, MappedByteBuffer> buffers = new HashMap<>();
+    Map<Long, Path> paths = new HashMap<>();
+    int unitsPerDay = projectGraphStore.getUnitsPerDay();
+    for (Path path : files) {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        Long projectId = PlanSnapshot.readProjectId(buffer);
+        if (projectId == null || PlanSnapshot.readUnitsPerDay(buffer) != unitsPerDay) {
+          delete(path);
+          continue;
+        }
+        buffers.put(projectId, buffer);
+        paths.put(projectId, path);
+      } catch (IOException e) {
+        LOG.warn("Cannot read the plan snapshot {}: {}", path, e.getMessage());
+      }
+    }
+
+    Map<Long, long[]> stamps = new HashMap<>();
+    JPA.runInTransaction(() -> stamps.putAll(projectGraphStore.loadStamps(buffers.keySet())));
+
+    int restored = 0;
+    for (Map.Entry<Long, MappedByteBuffer> entry : buffers.entrySet()) {
+      Long projectId = entry.getKey();
+      long[] stamp = PlanSnapshot.readStamp(entry.getValue());
+      long[] current = stamps.get(projectId);
+      if (current == null || !PlanSnapshot.sameGraph(stamp, current)) {
+        delete(paths.get(projectId));
+        continue;
+      }
+      try {
+        PlanSnapshot snapshot = PlanSnapshot.read(entry.getValue());
+        boolean sameDates = snapshot.getPlanVersion() == current[0];
+        projectGraphRegistry.restore(
+            snapshot.getGraph(),
+            sameDates ? snapshot.getSchedule() : null,
+            snapshot.getPlanVersion());
+        restored++;
+      } catch (RuntimeException e) {
+        LOG.warn("Discarding the unreadable plan snapshot of project {}", projectId, e);
+        delete(paths.get(projectId));
+      }
+    }
+    LOG.info(
+        "Restored {} of {} plan snapshots in {} ms",
+        restored,
+        files.size(),
+        System.currentTimeMillis() - begin);
+  }
+
+  private Path file(Long projectId) {
+    return directory.resolve("project-" + projectId + SUFFIX);
+  }
+
+  private static void delete(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      LOG.warn("Cannot delete the plan snapshot {}: {}", path, e.getMessage());
+    }
+  }
+}
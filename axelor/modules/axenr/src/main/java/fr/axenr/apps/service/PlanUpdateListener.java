@@ -0,0 +1,8 @@
+package fr.axenr.apps.service;
+
+/** Receives the "plan updated" events published by other nodes of the cluster. */
+public interface PlanUpdateListener {
+
+  /** Called when another node committed new dates for the given project */
+  void onPlanUpdated(Long projectId);
+}
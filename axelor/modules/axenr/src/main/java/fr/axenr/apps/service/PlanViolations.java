@@ -0,0 +1,125 @@
+package fr.axenr.apps.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import fr.axenr.apps.service.graph.ConstraintViolation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The date constraints a computed plan misses, with the names of the tasks causing each one.
+ *
+ * <p>They are stored on the project as JSON, so that the text shown to the planner is written in
+ * the planner's language when it is displayed.
+ */
+public class PlanViolations {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final boolean forward;
+  private final List<Violation> violations;
+  private final int omittedCount;
+
+  public PlanViolations(boolean forward, List<Violation> violations, int omittedCount) {
+    this.forward = forward;
+    this.violations = Collections.unmodifiableList(violations);
+    this.omittedCount = omittedCount;
+  }
+
+  /** Whether the plan was computed forward, chains then lead to the task */
+  public boolean isForward() {
+    return forward;
+  }
+
+  public List<Violation> getViolations() {
+    return violations;
+  }
+
+  /** Violations found beyond those kept */
+  public int getOmittedCount() {
+    return omittedCount;
+  }
+
+  public String toJson() {
+    ObjectNode root = MAPPER.createObjectNode();
+    root.put("forward", forward);
+    root.put("omitted", omittedCount);
+    ArrayNode items = root.putArray("violations");
+    for (Violation violation : violations) {
+      ObjectNode item = items.addObject();
+      item.put("type", violation.type.name());
+      item.put("task", violation.taskName);
+      item.put("days", violation.days);
+      ArrayNode path = item.putArray("path");
+      violation.path.forEach(path::add);
+    }
+    return root.toString();
+  }
+
+  /**
+   * Violations stored on a project, {@code null} when there are none, or when they were stored as
+   * text by an earlier version.
+   */
+  public static PlanViolations fromJson(String json) {
+    if (json == null || !json.startsWith("{")) {
+      return null;
+    }
+    JsonNode root;
+    try {
+      root = MAPPER.readTree(json);
+    } catch (JsonProcessingException e) {
+      return null;
+    }
+    List<Violation> violations = new ArrayList<>();
+    for (JsonNode item : root.path("violations")) {
+      List<String> path = new ArrayList<>();
+      item.path("path").forEach(name -> path.add(name.asText()));
+      violations.add(
+          new Violation(
+              ConstraintViolation.Type.valueOf(item.path("type").asText()),
+              item.path("task").asText(),
+              item.path("days").asInt(),
+              path));
+    }
+    return new PlanViolations(
+        root.path("forward").asBoolean(), violations, root.path("omitted").asInt());
+  }
+
+  /** A missed constraint, see {@link ConstraintViolation} */
+  public static class Violation {
+
+    private final ConstraintViolation.Type type;
+    private final String taskName;
+    private final int days;
+    private final List<String> path;
+
+    public Violation(ConstraintViolation.Type type, String taskName, int days, List<String> path) {
+      this.type = type;
+      this.taskName = taskName;
+      this.days = days;
+      this.path = Collections.unmodifiableList(path);
+    }
+
+    public ConstraintViolation.Type getType() {
+      return type;
+    }
+
+    public String getTaskName() {
+      return taskName;
+    }
+
+    /** Days by which the constraint is missed, rounded up */
+    public int getDays() {
+      return days;
+    }
+
+    /** Names of the tasks driving the violation, in plan order */
+    public List<String> getPath() {
+      return path;
+    }
+  }
+}
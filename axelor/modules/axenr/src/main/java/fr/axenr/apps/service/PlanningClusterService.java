@@ -0,0 +1,217 @@
+package fr.axenr.apps.service;
+
+import com.axelor.app.AppSettings;
+import com.axelor.db.JPA;
+import com.axelor.event.Observes;
+import com.axelor.events.ShutdownEvent;
+import com.axelor.events.StartupEvent;
+import com.google.inject.Singleton;
+import java.lang.invoke.MethodHandles;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coordinates planning between several application nodes sharing one PostgreSQL database.
+ *
+ * <p>Recomputations take a transaction scoped advisory lock per project, so two nodes never plan
+ * the same project at the same time. Once the new dates are written, a notification is queued on
+ * the {@value #CHANNEL} channel; PostgreSQL only delivers it when the transaction commits. Every
+ * node listens on that channel with a dedicated connection and forwards the events coming from
+ * its peers to the registered {@link PlanUpdateListener}s.
+ *
+ * <p>Disabled unless {@code axenr.planning.cluster.enabled} is set to {@code true}.
+ */
+@Singleton
+public class PlanningClusterService {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  static final String CHANNEL = "axenr_plan_updated";
+
+  /** First key of the two-key advisory lock functions, reserved for project planning ("AXNR") */
+  private static final int LOCK_NAMESPACE = 0x41584e52;
+
+  private static final int POLL_TIMEOUT_MS = 1000;
+  private static final long RECONNECT_DELAY_MS = 5000;
+
+  private final boolean enabled;
+  private final String nodeId;
+  private final String url;
+  private final String user;
+  private final String password;
+  private final List<PlanUpdateListener> listeners = new CopyOnWriteArrayList<>();
+
+  private volatile boolean running;
+  private Thread listenerThread;
+
+  public PlanningClusterService() {
+    this(AppSettings.get());
+  }
+
+  private PlanningClusterService(AppSettings settings) {
+    this(
+        settings.getBoolean("axenr.planning.cluster.enabled", false),
+        settings.get(
+            "axenr.planning.cluster.node-id", UUID.randomUUID().toString().substring(0, 8)),
+        settings.get("db.default.url"),
+        settings.get("db.default.user"),
+        settings.get("db.default.password"));
+  }
+
+  /** A node of the database at {@code url}, which its listener connection is opened to */
+  PlanningClusterService(
+      boolean enabled, String nodeId, String url, String user, String password) {
+    this.enabled = enabled;
+    this.nodeId = nodeId;
+    this.url = url;
+    this.user = user;
+    this.password = password;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  public void addListener(PlanUpdateListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Block until no other node is planning the project. Must be called inside the planning
+   * transaction: the lock is released by PostgreSQL on commit or rollback.
+   */
+  public void lockProject(Long projectId) {
+    if (!enabled) {
+      return;
+    }
+    JPA.jdbcWork(connection -> lockProject(connection, projectId));
+  }
+
+  /** Take the lock of the project in the transaction of the connection */
+  void lockProject(Connection connection, Long projectId) throws SQLException {
+    try (PreparedStatement statement =
+        connection.prepareStatement("SELECT pg_advisory_xact_lock(?, ?)")) {
+      statement.setInt(1, LOCK_NAMESPACE);
+      statement.setInt(2, lockKey(projectId));
+      statement.execute();
+    }
+  }
+
+  /**
+   * Tell the other nodes that the plan of the project changed. Must be called inside the planning
+   * transaction: nothing is sent if it rolls back.
+   */
+  public void publishPlanUpdated(Long projectId) {
+    if (!enabled) {
+      return;
+    }
+    JPA.jdbcWork(connection -> publishPlanUpdated(connection, projectId));
+  }
+
+  /** Queue the event in the transaction of the connection */
+  void publishPlanUpdated(Connection connection, Long projectId) throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement("SELECT pg_notify(?, ?)")) {
+      statement.setString(1, CHANNEL);
+      statement.setString(2, nodeId + ":" + projectId);
+      statement.execute();
+    }
+  }
+
+  public void onStartup(@Observes StartupEvent event) {
+    if (!enabled) {
+      return;
+    }
+    running = true;
+    listenerThread = new Thread(this::listen, "axenr-plan-listener");
+    listenerThread.setDaemon(true);
+    listenerThread.start();
+    LOG.info("Planning cluster coordination enabled, node {}", nodeId);
+  }
+
+  public void onShutdown(@Observes ShutdownEvent event) {
+    running = false;
+    if (listenerThread != null) {
+      listenerThread.interrupt();
+    }
+  }
+
+  /** Project ids are longs, advisory lock keys are ints: fold the high bits in */
+  private int lockKey(Long projectId) {
+    return (int) (projectId ^ (projectId >>> 32));
+  }
+
+  /** Listener loop, reconnecting whenever the dedicated connection is lost */
+  private void listen() {
+    while (running) {
+      try (Connection connection = openListenerConnection()) {
+        try (Statement statement = connection.createStatement()) {
+          statement.execute("LISTEN " + CHANNEL);
+        }
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        while (running) {
+          PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MS);
+          if (notifications != null) {
+            for (PGNotification notification : notifications) {
+              dispatch(notification.getParameter());
+            }
+          }
+        }
+      } catch (SQLException e) {
+        if (!running) {
+          return;
+        }
+        LOG.warn("Planning listener connection lost, retrying: {}", e.getMessage());
+        try {
+          Thread.sleep(RECONNECT_DELAY_MS);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * LISTEN needs a connection of its own for the whole life of the node, so it is opened outside
+   * of the pool.
+   */
+  private Connection openListenerConnection() throws SQLException {
+    return DriverManager.getConnection(url, user, password);
+  }
+
+  /** Payload is {@code <node id>:<project id>}; our own events are ignored */
+  private void dispatch(String payload) {
+    int separator = payload == null ? -1 : payload.lastIndexOf(':');
+    if (separator < 0 || nodeId.equals(payload.substring(0, separator))) {
+      return;
+    }
+    Long projectId;
+    try {
+      projectId = Long.valueOf(payload.substring(separator + 1));
+    } catch (NumberFormatException e) {
+      LOG.warn("Ignoring malformed planning event: {}", payload);
+      return;
+    }
+    for (PlanUpdateListener listener : listeners) {
+      try {
+        listener.onPlanUpdated(projectId);
+      } catch (RuntimeException e) {
+        LOG.error("Planning event listener failed for project {}", projectId, e);
+      }
+    }
+  }
+}
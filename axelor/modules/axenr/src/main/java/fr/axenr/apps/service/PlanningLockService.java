@@ -0,0 +1,109 @@
+package fr.axenr.apps.service;
+
+import com.google.common.util.concurrent.Striped;
+import com.google.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * Serializes planning work per project and coalesces concurrent identical requests.
+ *
+ * <p>Projects are spread over a fixed number of lock stripes, so two projects only wait for each
+ * other when they share a stripe. A request arriving while the same operation is already running
+ * on the same project does not start a second computation: it waits for the running one and
+ * shares its result (or its failure).
+ */
+@Singleton
+public class PlanningLockService {
+
+  private static final int LOCK_STRIPES = 64;
+
+  private final Striped<Lock> locks = Striped.lock(LOCK_STRIPES);
+
+  private final ConcurrentMap<String, CompletableFuture<Object>> inFlight =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Run the given work while holding the lock of the project, or join the identical computation
+   * already in flight.
+   *
+   * <p>The work must open its own transaction: the lock has to be held across the commit so that
+   * the next caller reads the committed rows.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T runExclusive(Long projectId, String operation, Supplier<T> work) {
+    if (projectId == null) {
+      throw new IllegalArgumentException("Project must be saved before planning");
+    }
+
+    String key = operation + ":" + projectId;
+    CompletableFuture<Object> flight = new CompletableFuture<>();
+    CompletableFuture<Object> running = inFlight.putIfAbsent(key, flight);
+    if (running != null) {
+      return (T) awaitResult(running);
+    }
+
+    Lock lock = locks.get(projectId);
+    lock.lock();
+    T result;
+    try {
+      result = work.get();
+    } catch (RuntimeException | Error e) {
+      release(key, flight, lock);
+      flight.completeExceptionally(e);
+      throw e;
+    }
+    release(key, flight, lock);
+    flight.complete(result);
+    return result;
+  }
+
+  /**
+   * Run the given work while holding the lock of the project, without coalescing: for edits whose
+   * parameters differ from one call to the next, each call runs on its own.
+   */
+  public <T> T runLocked(Long projectId, Supplier<T> work) {
+    if (projectId == null) {
+      throw new IllegalArgumentException("Project must be saved before planning");
+    }
+
+    Lock lock = locks.get(projectId);
+    lock.lock();
+    try {
+      return work.get();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Number of computations currently running or waiting for their stripe */
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  /** Forget the flight before unlocking so later callers start a fresh computation */
+  private void release(String key, CompletableFuture<Object> flight, Lock lock) {
+    inFlight.remove(key, flight);
+    lock.unlock();
+  }
+
+  /** Wait for the computation started by another caller and rethrow its failure as is */
+  private Object awaitResult(CompletableFuture<Object> running) {
+    try {
+      return running.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,363 @@
+package fr.axenr.apps.service;
+
+import com.axelor.app.AppSettings;
+import com.axelor.db.JPA;
+import com.axelor.db.tenants.TenantAware;
+import com.axelor.db.tenants.TenantResolver;
+import com.axelor.event.Observes;
+import com.axelor.events.ShutdownEvent;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import fr.axenr.apps.db.Project;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background recompute of project plans, debounced per project.
+ *
+ * <p>Every request for a project restarts its debounce window, so a burst of edits ends up as a
+ * single recompute once the planner pauses. A project is never delayed more than the configured
+ * maximum delay after its first request, even if edits keep coming.
+ *
+ * <p>Recomputes run on a fixed pool of workers with a bounded queue. When the queue is full the
+ * request is deferred and retried after another debounce window; when too many projects are
+ * already waiting, new requests are rejected. Each outcome is recorded as a {@link
+ * RecomputeStatus} so the planner can see it; only the statuses of the most recently requested
+ * projects are kept.
+ *
+ * <p>Once a project is planned, the projects waiting on its tasks that moved are planned again on
+ * the same workers, see {@link TaskPlanningService#propagate}.
+ */
+@Singleton
+public class PlanningRecomputeQueue {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  /** Projects whose last status is kept */
+  private static final int MAX_STATUSES = 10000;
+
+  private final TaskPlanningService taskPlanningService;
+
+  private final boolean recomputeOnSave;
+  private final long debounceMs;
+  private final long maxDelayMs;
+  private final int maxPending;
+
+  private final ScheduledExecutorService timer;
+  private final ThreadPoolExecutor workers;
+
+  private final ConcurrentMap<Long, PendingRecompute> pending = new ConcurrentHashMap<>();
+  private final Set<Long> running = ConcurrentHashMap.newKeySet();
+  private final Cache<Long, RecomputeStatus> statuses =
+      CacheBuilder.newBuilder().maximumSize(MAX_STATUSES).build();
+  private final Cache<Long, String> failures =
+      CacheBuilder.newBuilder().maximumSize(MAX_STATUSES).build();
+
+  private final AtomicLong lastWaitMs = new AtomicLong();
+  private final AtomicLong maxWaitMs = new AtomicLong();
+  private final AtomicLong totalWaitMs = new AtomicLong();
+  private final AtomicLong startedCount = new AtomicLong();
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  @Inject
+  public PlanningRecomputeQueue(TaskPlanningService taskPlanningService) {
+    this(taskPlanningService, AppSettings.get());
+  }
+
+  private PlanningRecomputeQueue(TaskPlanningService taskPlanningService, AppSettings settings) {
+    this(
+        taskPlanningService,
+        settings.getBoolean("axenr.planning.recompute.on-save", false),
+        settings.getInt("axenr.planning.recompute.debounce-ms", 2000),
+        settings.getInt("axenr.planning.recompute.max-delay-ms", 10000),
+        settings.getInt("axenr.planning.recompute.max-pending", 500),
+        settings.getInt("axenr.planning.recompute.workers", 2),
+        settings.getInt("axenr.planning.recompute.queue-capacity", 16));
+  }
+
+  PlanningRecomputeQueue(
+      TaskPlanningService taskPlanningService,
+      boolean recomputeOnSave,
+      long debounceMs,
+      long maxDelayMs,
+      int maxPending,
+      int workerCount,
+      int queueCapacity) {
+    this.taskPlanningService = taskPlanningService;
+    this.recomputeOnSave = recomputeOnSave;
+    this.debounceMs = debounceMs;
+    this.maxDelayMs = maxDelayMs;
+    this.maxPending = maxPending;
+
+    this.timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("axenr-recompute-timer"));
+    this.workers =
+        new ThreadPoolExecutor(
+            workerCount,
+            workerCount,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            daemonThreads("axenr-recompute-worker"));
+  }
+
+  /** Whether saving a project or a task should schedule a recompute */
+  public boolean isRecomputeOnSave() {
+    return recomputeOnSave;
+  }
+
+  /**
+   * Ask for the plan of the project to be recomputed once the current burst of edits is over.
+   *
+   * @return {@link RecomputeStatus#QUEUED}, or {@link RecomputeStatus#REJECTED} when the queue is
+   *     saturated
+   */
+  public RecomputeStatus request(Long projectId) {
+    long now = System.currentTimeMillis();
+    boolean[] accepted = {true};
+    pending.compute(
+        projectId,
+        (id, current) -> {
+          if (current == null) {
+            if (pending.size() >= maxPending) {
+              accepted[0] = false;
+              return null;
+            }
+            current = new PendingRecompute(now, TenantResolver.currentTenantIdentifier());
+          }
+          current.lastRequestedAt = now;
+          schedule(id, current, delayOf(current, now));
+          return current;
+        });
+
+    RecomputeStatus status = accepted[0] ? RecomputeStatus.QUEUED : RecomputeStatus.REJECTED;
+    if (!accepted[0]) {
+      rejectedCount.incrementAndGet();
+      LOG.warn("Recompute of project {} rejected, {} projects waiting", projectId, maxPending);
+    }
+    statuses.put(projectId, status);
+    return status;
+  }
+
+  /**
+   * Ask for a recompute once the current transaction commits, so that the workers read the saved
+   * rows. Nothing is requested if the transaction rolls back.
+   */
+  public void requestAfterCommit(Long projectId) {
+    TransactionCompletion.register(
+        committed -> {
+          if (committed) {
+            request(projectId);
+          }
+        });
+  }
+
+  /**
+   * Plan again, in the background, the projects waiting on tasks of the project that moved.
+   *
+   * @param taskIds tasks of the project that moved, {@code null} for any task
+   */
+  public void propagate(Long projectId, Collection<Long> taskIds) {
+    if (taskIds != null && taskIds.isEmpty()) {
+      return;
+    }
+    List<Long> moved = taskIds != null ? new ArrayList<>(taskIds) : null;
+    String tenantId = TenantResolver.currentTenantIdentifier();
+    timer.execute(() -> dispatchPropagation(projectId, moved, tenantId));
+  }
+
+  /** Drop the pending request of the project, typically because it is being planned right now */
+  public void cancel(Long projectId) {
+    PendingRecompute entry = pending.remove(projectId);
+    if (entry != null && entry.timer != null) {
+      entry.timer.cancel(false);
+    }
+  }
+
+  /** Last known status of the project, {@code null} if no recompute was ever requested */
+  public RecomputeStatus getStatus(Long projectId) {
+    return statuses.getIfPresent(projectId);
+  }
+
+  /** Error message of the last failed recompute of the project */
+  public String getFailure(Long projectId) {
+    return failures.getIfPresent(projectId);
+  }
+
+  public RecomputeQueueStats getStats() {
+    long started = startedCount.get();
+    return new RecomputeQueueStats(
+        pending.size(),
+        workers.getQueue().size(),
+        running.size(),
+        lastWaitMs.get(),
+        maxWaitMs.get(),
+        started == 0 ? 0 : totalWaitMs.get() / started,
+        rejectedCount.get());
+  }
+
+  public void onShutdown(@Observes ShutdownEvent event) {
+    timer.shutdownNow();
+    workers.shutdownNow();
+  }
+
+  /** End of the debounce window, capped by the maximum delay since the first request */
+  private long delayOf(PendingRecompute entry, long now) {
+    long due = Math.min(entry.lastRequestedAt + debounceMs, entry.firstRequestedAt + maxDelayMs);
+    return Math.max(0, due - now);
+  }
+
+  private void schedule(Long projectId, PendingRecompute entry, long delayMs) {
+    if (entry.timer != null) {
+      entry.timer.cancel(false);
+    }
+    entry.timer =
+        timer.schedule(() -> dispatch(projectId, entry), delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  /** Hand the project over to the workers, or retry later if they cannot take it */
+  private void dispatch(Long projectId, PendingRecompute entry) {
+    if (running.contains(projectId)) {
+      // Edits made during a run need another one, started after it
+      pending.computeIfPresent(
+          projectId,
+          (id, current) -> {
+            schedule(id, current, debounceMs);
+            return current;
+          });
+      return;
+    }
+    if (!pending.remove(projectId, entry)) {
+      return;
+    }
+
+    try {
+      workers.execute(() -> run(projectId, entry));
+    } catch (RejectedExecutionException e) {
+      // Workers saturated: keep the request, newer requests for the project included
+      pending.compute(
+          projectId,
+          (id, current) -> {
+            PendingRecompute kept = current != null ? current : entry;
+            schedule(id, kept, debounceMs);
+            return kept;
+          });
+      statuses.put(projectId, RecomputeStatus.DEFERRED);
+      LOG.debug("Recompute of project {} deferred, workers saturated", projectId);
+    }
+  }
+
+  /** Hand a propagation over to the workers, retried after a debounce window while saturated */
+  private void dispatchPropagation(Long projectId, List<Long> taskIds, String tenantId) {
+    try {
+      workers.execute(
+          () ->
+              new TenantAware(() -> propagateNow(projectId, taskIds))
+                  .tenantId(tenantId)
+                  .withTransaction(false)
+                  .run());
+    } catch (RejectedExecutionException e) {
+      timer.schedule(
+          () -> dispatchPropagation(projectId, taskIds, tenantId),
+          debounceMs,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** Propagation failures only concern the projects downstream, they are logged */
+  private void propagateNow(Long projectId, Collection<Long> taskIds) {
+    try {
+      taskPlanningService.propagate(projectId, taskIds);
+    } catch (RuntimeException e) {
+      LOG.warn("Replanning after project {} failed: {}", projectId, e.getMessage());
+    }
+  }
+
+  private void run(Long projectId, PendingRecompute entry) {
+    running.add(projectId);
+    statuses.put(projectId, RecomputeStatus.RUNNING);
+    recordWait(System.currentTimeMillis() - entry.firstRequestedAt);
+
+    String failure = null;
+    try {
+      recompute(projectId, entry.tenantId);
+    } catch (RuntimeException e) {
+      failure = e.getMessage() != null ? e.getMessage() : e.toString();
+      LOG.warn("Recompute of project {} failed: {}", projectId, failure);
+    } finally {
+      running.remove(projectId);
+    }
+
+    if (failure == null) {
+      failures.invalidate(projectId);
+      statuses.put(projectId, RecomputeStatus.DONE);
+    } else {
+      failures.put(projectId, failure);
+      statuses.put(projectId, RecomputeStatus.FAILED);
+    }
+  }
+
+  /** Plan the project in its tenant, then the projects waiting on its tasks that moved */
+  void recompute(Long projectId, String tenantId) {
+    new TenantAware(
+            () -> {
+              Project project = JPA.find(Project.class, projectId);
+              if (project != null) {
+                PlanDiff diff = taskPlanningService.computeDates(project);
+                propagate(projectId, diff.getTaskIds());
+              }
+            })
+        .tenantId(tenantId)
+        .withTransaction(false)
+        .run();
+  }
+
+  private void recordWait(long waitMs) {
+    lastWaitMs.set(waitMs);
+    maxWaitMs.accumulateAndGet(waitMs, Math::max);
+    totalWaitMs.addAndGet(waitMs);
+    startedCount.incrementAndGet();
+  }
+
+  private static ThreadFactory daemonThreads(String prefix) {
+    AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /** Request waiting for its debounce window to close */
+  private static class PendingRecompute {
+
+    private final long firstRequestedAt;
+    private final String tenantId;
+    private volatile long lastRequestedAt;
+    private volatile ScheduledFuture<?> timer;
+
+    private PendingRecompute(long firstRequestedAt, String tenantId) {
+      this.firstRequestedAt = firstRequestedAt;
+      this.lastRequestedAt = firstRequestedAt;
+      this.tenantId = tenantId;
+    }
+  }
+}
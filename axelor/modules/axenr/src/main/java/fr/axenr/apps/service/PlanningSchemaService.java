@@ -0,0 +1,394 @@
+package fr.axenr.apps.service;
+
+import com.axelor.app.AppSettings;
+import com.axelor.db.JPA;
+import com.axelor.event.Observes;
+import com.axelor.events.StartupEvent;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.lang.invoke.MethodHandles;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Database upgrades that the {@code ddl = update} schema generation cannot do on its own. Each
+ * step checks the current schema first, so running them on every startup is safe.
+ */
+@Singleton
+public class PlanningSchemaService {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  /**
+   * Foreign keys into the tasks once partitioned: name, referencing table, and its project and
+   * task columns
+   */
+  private static final String[][] PARTITIONED_FOREIGN_KEYS = {
+    {"axenr_task_parent_task_fk", "axenr_task", "project", "parent_task"},
+    {"axenr_task_dependency_successor_fk", "axenr_task_dependency", "project", "successor"},
+    {
+      "axenr_task_dependency_predecessor_fk",
+      "axenr_task_dependency",
+      "predecessor_project",
+      "predecessor"
+    },
+    {"axenr_task_assignment_task_fk", "axenr_task_assignment", "project", "task"}
+  };
+
+  private final ProjectSummaryService projectSummaryService;
+
+  @Inject
+  public PlanningSchemaService(ProjectSummaryService projectSummaryService) {
+    this.projectSummaryService = projectSummaryService;
+  }
+
+  public void onStartup(@Observes StartupEvent event) {
+    JPA.runInTransaction(() -> JPA.jdbcWork(this::migrateDependOf));
+    JPA.runInTransaction(() -> JPA.jdbcWork(this::fillLinkProjects));
+    JPA.runInTransaction(() -> JPA.jdbcWork(this::fillAssignmentProjects));
+    JPA.runInTransaction(this::createPlanSummaries);
+    JPA.runInTransaction(() -> JPA.jdbcWork(this::createTaskFilterIndexes));
+    JPA.runInTransaction(() -> JPA.jdbcWork(this::createCrossProjectIndexes));
+    JPA.runInTransaction(() -> JPA.jdbcWork(this::partitionTasks));
+    JPA.runInTransaction(() -> JPA.jdbcWork(this::createPartitionedForeignKeys));
+  }
+
+  /**
+   * Tasks used to have a single predecessor stored in {@code depend_of}: turn each of them into a
+   * task dependency, then drop the column and its one-to-one constraint.
+   */
+  private void migrateDependOf(Connection connection) throws SQLException {
+    if (!columnExists(connection, "axenr_task", "depend_of")) {
+      return;
+    }
+    try (Statement statement = connection.createStatement()) {
+      int migrated =
+          statement.executeUpdate(
+              "INSERT INTO axenr_task_dependency (id, version, project, predecessor, successor) "
+                  + "SELECT nextval('axenr_task_dependency_seq'), 0, t.project, t.depend_of, t.id "
+                  + "FROM axenr_task t WHERE t.depend_of IS NOT NULL AND NOT EXISTS ("
+                  + "SELECT 1 FROM axenr_task_dependency d "
+                  + "WHERE d.predecessor = t.depend_of AND d.successor = t.id)");
+      statement.execute("ALTER TABLE axenr_task DROP COLUMN depend_of");
+      LOG.info("Migrated {} task dependencies from axenr_task.depend_of", migrated);
+    }
+  }
+
+  /**
+   * Links are stored with the projects of their two tasks, so that the links of a project, and
+   * those between projects, are read without joining the tasks: fill them for the links created
+   * before.
+   */
+  private void fillLinkProjects(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      int filled =
+          statement.executeUpdate(
+              "UPDATE axenr_task_dependency link SET project = task.project "
+                  + "FROM axenr_task task WHERE task.id = link.successor "
+                  + "AND link.project IS NULL AND task.project IS NOT NULL");
+      filled +=
+          statement.executeUpdate(
+              "UPDATE axenr_task_dependency link SET predecessor_project = task.project "
+                  + "FROM axenr_task task WHERE task.id = link.predecessor "
+                  + "AND link.predecessor_project IS NULL AND task.project IS NOT NULL");
+      if (filled > 0) {
+        LOG.info("Filled the projects of {} task dependencies", filled);
+      }
+    }
+  }
+
+  /** Assignments are stored with the project of their task: fill it for those created before */
+  private void fillAssignmentProjects(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      int filled =
+          statement.executeUpdate(
+              "UPDATE axenr_task_assignment assignment SET project = task.project "
+                  + "FROM axenr_task task WHERE task.id = assignment.task "
+                  + "AND assignment.project IS NULL AND task.project IS NOT NULL");
+      if (filled > 0) {
+        LOG.info("Filled the projects of {} task assignments", filled);
+      }
+    }
+  }
+
+  /**
+   * Projects planned before plan summaries existed have none: build theirs once, so that the
+   * portfolio lists every project without waiting for its next plan write.
+   */
+  private void createPlanSummaries() {
+    List<Long> projectIds = new ArrayList<>();
+    JPA.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+                  connection.prepareStatement(
+                      "SELECT project.id FROM axenr_project project WHERE NOT EXISTS "
+                          + "(SELECT 1 FROM axenr_project_plan_summary summary "
+                          + "WHERE summary.project = project.id)");
+              ResultSet rows = statement.executeQuery()) {
+            while (rows.next()) {
+              projectIds.add(rows.getLong(1));
+            }
+          }
+        });
+    projectIds.forEach(projectSummaryService::refresh);
+    if (!projectIds.isEmpty()) {
+      LOG.info("Created the plan summary of {} projects", projectIds.size());
+    }
+  }
+
+  /**
+   * The task panel of the project form pages through the critical and the late tasks of a project
+   * by start date: partial indexes hold only those tasks, already in that order, so the first page
+   * and the row count read a few index entries whatever the size of the project. Planning reads
+   * the tasks with a date constraint the same way.
+   */
+  private void createTaskFilterIndexes(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(
+          "CREATE INDEX IF NOT EXISTS axenr_task_critical_idx "
+              + "ON axenr_task (project, start_date) WHERE total_float = 0");
+      statement.execute(
+          "CREATE INDEX IF NOT EXISTS axenr_task_late_idx "
+              + "ON axenr_task (project, start_date) WHERE finish_variance > 0");
+      statement.execute(
+          "CREATE INDEX IF NOT EXISTS axenr_task_constrained_idx ON axenr_task (project) "
+              + "WHERE start_no_earlier_than IS NOT NULL OR must_start_on IS NOT NULL "
+              + "OR finish_no_later_than IS NOT NULL");
+    }
+  }
+
+  /**
+   * The global index of the links between projects: partial indexes hold only those links, by
+   * project on either side, so that finding the projects to plan again after a change, or the
+   * dates a project waits on, reads only them.
+   */
+  private void createCrossProjectIndexes(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(
+          "CREATE INDEX IF NOT EXISTS axenr_task_dependency_downstream_idx "
+              + "ON axenr_task_dependency (predecessor_project, predecessor) "
+              + "WHERE predecessor_project <> project");
+      statement.execute(
+          "CREATE INDEX IF NOT EXISTS axenr_task_dependency_upstream_idx "
+              + "ON axenr_task_dependency (project) WHERE predecessor_project <> project");
+    }
+  }
+
+  /**
+   * With {@code axenr.planning.partitions} set, tasks and links are split by hash of their project
+   * into that many partitions: the queries of a project, which all filter on it, read one
+   * partition and its indexes, whose size no longer grows with the other projects.
+   *
+   * <p>Tables created by the schema update are turned into partitioned ones once, rows included.
+   * PostgreSQL requires every unique index of a partitioned table to hold its partition key: the
+   * primary key becomes a unique index on the project and the id, plus a plain index on the id for
+   * lookups by id alone, and the project is put first in the other unique indexes. For the same
+   * reason, foreign keys into the tasks are dropped, then created again on the project and the
+   * task, see {@link #createPartitionedForeignKeys}.
+   */
+  private void partitionTasks(Connection connection) throws SQLException {
+    int partitions = AppSettings.get().getInt("axenr.planning.partitions", 0);
+    if (partitions <= 0
+        || isPartitioned(connection, "axenr_task")
+            && isPartitioned(connection, "axenr_task_dependency")) {
+      return;
+    }
+    try (Statement statement = connection.createStatement()) {
+      // Another node starting at the same time waits here, then finds the tables partitioned
+      statement.execute(
+          "LOCK TABLE axenr_task, axenr_task_dependency IN ACCESS EXCLUSIVE MODE");
+    }
+    dropForeignKeysInto(connection, "axenr_task");
+    dropForeignKeysInto(connection, "axenr_task_dependency");
+    for (String table : new String[] {"axenr_task", "axenr_task_dependency"}) {
+      if (!isPartitioned(connection, table)) {
+        partition(connection, table, partitions);
+      }
+    }
+  }
+
+  /**
+   * Foreign keys into the partitioned tasks go through their unique index on the project and the
+   * id, so each row pointing to a task is stored with the project of that task. They are deferred
+   * to the commit, as moving a task updates the rows pointing to it after the task itself.
+   *
+   * <p>The schema update sees them as the foreign keys it maps on the task columns, and no longer
+   * tries to create those. A key is skipped, with a warning, when existing rows break it, for
+   * instance a sub-task in another project than its parent: it is tried again on next startup.
+   */
+  private void createPartitionedForeignKeys(Connection connection) throws SQLException {
+    if (!isPartitioned(connection, "axenr_task")) {
+      return;
+    }
+    for (String[] foreignKey : PARTITIONED_FOREIGN_KEYS) {
+      String name = foreignKey[0];
+      String table = foreignKey[1];
+      if (constraintExists(connection, table, name)) {
+        continue;
+      }
+      Savepoint savepoint = connection.setSavepoint();
+      try (Statement statement = connection.createStatement()) {
+        statement.execute(
+            String.format(
+                "ALTER TABLE %s ADD CONSTRAINT %s FOREIGN KEY (%s, %s) "
+                    + "REFERENCES axenr_task (project, id) DEFERRABLE INITIALLY DEFERRED",
+                table, name, foreignKey[2], foreignKey[3]));
+        connection.releaseSavepoint(savepoint);
+        LOG.info("Created foreign key {} of {} into the partitioned tasks", name, table);
+      } catch (SQLException e) {
+        connection.rollback(savepoint);
+        LOG.warn("Cannot create foreign key {} of {}: {}", name, table, e.getMessage());
+      }
+    }
+  }
+
+  private boolean constraintExists(Connection connection, String table, String name)
+      throws SQLException {
+    try (PreparedStatement statement =
+        connection.prepareStatement(
+            "SELECT 1 FROM pg_constraint WHERE conrelid = to_regclass(?) AND conname = ?")) {
+      statement.setString(1, table);
+      statement.setString(2, name);
+      try (ResultSet rows = statement.executeQuery()) {
+        return rows.next();
+      }
+    }
+  }
+
+  private void partition(Connection connection, String table, int partitions)
+      throws SQLException {
+    Map<String, String> indexes =
+        definitions(
+            connection,
+            "SELECT indexname, indexdef FROM pg_indexes "
+                + "WHERE schemaname = current_schema() AND tablename = ?",
+            table);
+    Map<String, String> foreignKeys =
+        definitions(
+            connection,
+            "SELECT conname, pg_get_constraintdef(oid) FROM pg_constraint "
+                + "WHERE conrelid = to_regclass(?) AND contype = 'f'",
+            table);
+
+    String partitioned = table + "_partitioned";
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(
+          "CREATE TABLE "
+              + partitioned
+              + " (LIKE "
+              + table
+              + " INCLUDING DEFAULTS) PARTITION BY HASH (project)");
+      for (int i = 0; i < partitions; i++) {
+        statement.execute(
+            String.format(
+                "CREATE TABLE %s_p%d PARTITION OF %s FOR VALUES WITH (MODULUS %d, REMAINDER %d)",
+                table, i, partitioned, partitions, i));
+      }
+      int rows = statement.executeUpdate("INSERT INTO " + partitioned + " SELECT * FROM " + table);
+      statement.execute("DROP TABLE " + table);
+      statement.execute("ALTER TABLE " + partitioned + " RENAME TO " + table);
+
+      for (Map.Entry<String, String> index : indexes.entrySet()) {
+        String definition = index.getValue();
+        boolean unique = definition.startsWith("CREATE UNIQUE INDEX");
+        if (unique && !indexColumns(definition).contains("project")) {
+          definition = definition.replaceFirst(" USING btree \\(", " USING btree (project, ");
+          if (indexColumns(index.getValue()).equals(List.of("id"))) {
+            statement.execute(
+                "CREATE INDEX " + table + "_id_idx ON " + table + " USING btree (id)");
+          }
+        }
+        statement.execute(definition);
+      }
+      for (Map.Entry<String, String> foreignKey : foreignKeys.entrySet()) {
+        statement.execute(
+            "ALTER TABLE "
+                + table
+                + " ADD CONSTRAINT "
+                + foreignKey.getKey()
+                + " "
+                + foreignKey.getValue());
+      }
+      statement.execute("ANALYZE " + table);
+      LOG.info("Partitioned {} by project into {} partitions, {} rows", table, partitions, rows);
+    }
+  }
+
+  /** Drops the foreign keys of every table referencing the given one */
+  private void dropForeignKeysInto(Connection connection, String table) throws SQLException {
+    Map<String, String> foreignKeys =
+        definitions(
+            connection,
+            "SELECT conname, conrelid::regclass::text FROM pg_constraint "
+                + "WHERE confrelid = to_regclass(?) AND contype = 'f'",
+            table);
+    try (Statement statement = connection.createStatement()) {
+      for (Map.Entry<String, String> foreignKey : foreignKeys.entrySet()) {
+        statement.execute(
+            "ALTER TABLE " + foreignKey.getValue() + " DROP CONSTRAINT " + foreignKey.getKey());
+        LOG.info(
+            "Dropped foreign key {} of {} into {}",
+            foreignKey.getKey(),
+            foreignKey.getValue(),
+            table);
+      }
+    }
+  }
+
+  /** Name and definition of each row of a query taking the table name as its only parameter */
+  private Map<String, String> definitions(Connection connection, String sql, String table)
+      throws SQLException {
+    Map<String, String> definitions = new LinkedHashMap<>();
+    try (PreparedStatement statement = connection.prepareStatement(sql)) {
+      statement.setString(1, table);
+      try (ResultSet rows = statement.executeQuery()) {
+        while (rows.next()) {
+          definitions.put(rows.getString(1), rows.getString(2));
+        }
+      }
+    }
+    return definitions;
+  }
+
+  /** Columns of an index definition, as given by {@code pg_indexes} */
+  private static List<String> indexColumns(String definition) {
+    int start = definition.indexOf(" USING btree (");
+    if (start < 0) {
+      return List.of();
+    }
+    start += " USING btree (".length();
+    List<String> columns = new ArrayList<>();
+    for (String column : definition.substring(start, definition.indexOf(')', start)).split(",")) {
+      columns.add(column.trim());
+    }
+    return columns;
+  }
+
+  private boolean isPartitioned(Connection connection, String table) throws SQLException {
+    try (PreparedStatement statement =
+        connection.prepareStatement(
+            "SELECT relkind = 'p' FROM pg_class WHERE oid = to_regclass(?)")) {
+      statement.setString(1, table);
+      try (ResultSet rows = statement.executeQuery()) {
+        return rows.next() && rows.getBoolean(1);
+      }
+    }
+  }
+
+  private boolean columnExists(Connection connection, String table, String column)
+      throws SQLException {
+    try (ResultSet columns = connection.getMetaData().getColumns(null, null, table, column)) {
+      return columns.next();
+    }
+  }
+}
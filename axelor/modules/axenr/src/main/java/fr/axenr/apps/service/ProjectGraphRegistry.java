@@ -0,0 +1,249 @@
+package fr.axenr.apps.service;
+
+import com.axelor.app.AppSettings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import fr.axenr.apps.service.graph.PlanSchedule;
+import fr.axenr.apps.service.graph.ProjectGraph;
+import fr.axenr.apps.service.graph.ProjectGraphStore;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiled project graphs kept in memory, so that planning a project again does not load and
+ * compile its tasks again.
+ *
+ * <p>The cache is bounded by the heap size of the graphs ({@code
+ * axenr.planning.graph-cache.max-kb}), the least recently used ones being dropped first. A graph
+ * is dropped as soon as an input of its compilation changes:
+ *
+ * <ul>
+ *   <li>a task is created, removed, or moved to another project;
+ *   <li>the duration, the delay to start or the parent of a task changes, the new value being
+ *       compared with the compiled one, so that saving a form without changing them keeps the
+ *       graph;
+ *   <li>a task dependency is created, updated or removed;
+ *   <li>another node of the cluster publishes new dates for the project;
+ *   <li>tasks are updated in bulk, outside the entities.
+ * </ul>
+ *
+ * <p>The last schedule written for a project is kept along with its graph, tagged with the plan
+ * version it was written under: the next planning of the project compares its results with it
+ * instead of reading the stored dates back. Saving a task with other dates than the written ones,
+ * from a form left open for instance, drops the schedule alone, so that the next planning reads the
+ * stored dates and writes the task again.
+ *
+ * <p>Entity changes are seen when they are flushed, before they are committed: the graph is
+ * dropped then, and once more when the transaction completes, in case another thread compiled it
+ * again in between from the committed rows.
+ *
+ * <p>Each task of the cached graphs is indexed with the graph holding it, so that a task change
+ * only looks at the graphs of its previous and current project.
+ */
+@Singleton
+public class ProjectGraphRegistry {
+
+  private final ProjectGraphStore projectGraphStore;
+  private final Cache<Long, ProjectGraph> graphs;
+
+  private final Map<Long, WrittenSchedule> schedules = new ConcurrentHashMap<>();
+
+  /** Cached graph holding each task, the last one compiled when several do */
+  private final Map<Long, ProjectGraph> taskGraphs = new ConcurrentHashMap<>();
+
+  /** Increased on every invalidation: a graph compiled across one is not kept */
+  private final AtomicLong generation = new AtomicLong();
+
+  @Inject
+  public ProjectGraphRegistry(
+      ProjectGraphStore projectGraphStore, PlanningClusterService planningClusterService) {
+    this.projectGraphStore = projectGraphStore;
+    long maxKb = AppSettings.get().getInt("axenr.planning.graph-cache.max-kb", 65536);
+    this.graphs =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxKb)
+            .weigher(
+                (Long projectId, ProjectGraph graph) ->
+                    (int) Math.min(Integer.MAX_VALUE, graph.getMemorySize() / 1024 + 1))
+            .removalListener(
+                (RemovalListener<Long, ProjectGraph>) removal -> unindex(removal.getValue()))
+            .build();
+    planningClusterService.addListener(this::invalidate);
+  }
+
+  /** Compiled graph of the project, loaded in the caller's transaction when not cached */
+  public ProjectGraph get(Long projectId) {
+    ProjectGraph graph = graphs.getIfPresent(projectId);
+    if (graph != null) {
+      return graph;
+    }
+    long loadedAt = generation.get();
+    graph = projectGraphStore.load(projectId);
+    if (generation.get() == loadedAt) {
+      cache(graph);
+    }
+    return graph;
+  }
+
+  public void invalidate(Long projectId) {
+    if (projectId == null) {
+      return;
+    }
+    generation.incrementAndGet();
+    graphs.invalidate(projectId);
+    schedules.remove(projectId);
+  }
+
+  /**
+   * Dates last written for the tasks of the graph, or {@code null} when they are not known for
+   * this plan version, and must be read from the tasks.
+   */
+  public PlanSchedule getSchedule(ProjectGraph graph, long planVersion) {
+    WrittenSchedule written = schedules.get(graph.getProjectId());
+    return written != null && written.graph == graph && written.planVersion == planVersion
+        ? written.schedule
+        : null;
+  }
+
+  /** Keep the schedule written in the current transaction, once it commits */
+  public void putScheduleOnCommit(ProjectGraph graph, long planVersion, PlanSchedule schedule) {
+    TransactionCompletion.register(
+        committed -> {
+          if (committed) {
+            putSchedule(graph, planVersion, schedule);
+          }
+        });
+  }
+
+  /** Warm start: put back a graph and the schedule last written with it */
+  public void restore(ProjectGraph graph, PlanSchedule schedule, long planVersion) {
+    cache(graph);
+    if (schedule != null) {
+      putSchedule(graph, planVersion, schedule);
+    }
+  }
+
+  /** Index the tasks before caching the graph, so that its removal always unindexes them */
+  private void cache(ProjectGraph graph) {
+    for (int i = 0; i < graph.size(); i++) {
+      taskGraphs.put(graph.getTaskId(i), graph);
+    }
+    graphs.put(graph.getProjectId(), graph);
+  }
+
+  /** Forget the tasks of a removed graph, unless a newer graph of them was indexed since */
+  private void unindex(ProjectGraph graph) {
+    for (int i = 0; i < graph.size(); i++) {
+      taskGraphs.remove(graph.getTaskId(i), graph);
+    }
+  }
+
+  /** Project the task belongs to in the cached graphs, {@code null} when none holds it */
+  public Long getCompiledProjectId(Long taskId) {
+    ProjectGraph graph = taskId == null ? null : taskGraphs.get(taskId);
+    return graph != null ? graph.getProjectId() : null;
+  }
+
+  private void putSchedule(ProjectGraph graph, long planVersion, PlanSchedule schedule) {
+    // Schedules are only useful with their graph: forget those whose graph was evicted
+    schedules.keySet().removeIf(projectId -> !graphs.asMap().containsKey(projectId));
+    if (graphs.asMap().get(graph.getProjectId()) == graph) {
+      schedules.put(graph.getProjectId(), new WrittenSchedule(graph, planVersion, schedule));
+    }
+  }
+
+  /** Drop the graph now, and again once the current transaction commits or rolls back */
+  public void invalidateOnCompletion(Long projectId) {
+    if (projectId == null) {
+      return;
+    }
+    invalidate(projectId);
+    TransactionCompletion.register(committed -> invalidate(projectId));
+  }
+
+  /**
+   * A task was updated: drop the graphs it no longer matches, and the schedule written for its
+   * project when its dates differ. Values are those of the updated task, {@code null} when empty.
+   */
+  public void taskUpdated(
+      Long taskId,
+      Long projectId,
+      BigDecimal duration,
+      BigDecimal delayToStart,
+      Long parentId,
+      LocalDate startDate,
+      LocalDate endDate) {
+    WrittenSchedule written = projectId == null ? null : schedules.get(projectId);
+    if (written != null && !written.hasDates(taskId, startDate, endDate)) {
+      schedules.remove(projectId);
+      TransactionCompletion.register(committed -> schedules.remove(projectId));
+    }
+    Long compiledProjectId = getCompiledProjectId(taskId);
+    if (compiledProjectId != null && !compiledProjectId.equals(projectId)) {
+      // Moved to another project: the graph of its previous project no longer matches
+      invalidateOnCompletion(compiledProjectId);
+    }
+    ProjectGraph graph = projectId == null ? null : graphs.getIfPresent(projectId);
+    if (graph != null) {
+      // Moved from another project, the graph of its new project does not hold it yet
+      int index = graph.indexOf(taskId);
+      if (index < 0 || !matches(graph, index, projectId, duration, delayToStart, parentId)) {
+        invalidateOnCompletion(projectId);
+      }
+    }
+  }
+
+  /** A task was removed: drop the graphs holding it */
+  public void taskRemoved(Long taskId, Long projectId) {
+    invalidateOnCompletion(getCompiledProjectId(taskId));
+    invalidateOnCompletion(projectId);
+  }
+
+  /** Whether the compiled task still has the given project and inputs */
+  private boolean matches(
+      ProjectGraph graph,
+      int index,
+      Long projectId,
+      BigDecimal duration,
+      BigDecimal delayToStart,
+      Long parentId) {
+    int parent = parentId == null ? -1 : Math.max(-1, graph.indexOf(parentId));
+    return graph.getProjectId().equals(projectId)
+        && (graph.isSummary(index)
+            || graph.getDuration(index) == projectGraphStore.toDurationUnits(duration))
+        && graph.getDelay(index) == projectGraphStore.toDelayUnits(delayToStart)
+        && graph.getParent(index) == parent;
+  }
+
+  /** Number of graphs currently kept */
+  public long size() {
+    return graphs.size();
+  }
+
+  private static class WrittenSchedule {
+    final ProjectGraph graph;
+    final long planVersion;
+    final PlanSchedule schedule;
+
+    WrittenSchedule(ProjectGraph graph, long planVersion, PlanSchedule schedule) {
+      this.graph = graph;
+      this.planVersion = planVersion;
+      this.schedule = schedule;
+    }
+
+    /** Whether the task was written with these dates, or is not part of the schedule */
+    boolean hasDates(Long taskId, LocalDate startDate, LocalDate endDate) {
+      int index = graph.indexOf(taskId);
+      return index < 0
+          || (Objects.equals(schedule.getStartDate(index), startDate)
+              && Objects.equals(schedule.getEndDate(index), endDate));
+    }
+  }
+}
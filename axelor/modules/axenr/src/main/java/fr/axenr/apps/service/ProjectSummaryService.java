@@ -0,0 +1,203 @@
+package fr.axenr.apps.service;
+
+import com.axelor.db.JPA;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps one summary row per project, so that the portfolio dashboard reads a single small table
+ * instead of the tasks of every project.
+ *
+ * <p>The row of a project is rebuilt each time its plan is written, from its own tasks only, in
+ * the same transaction as the dates: other projects are never touched. Summary tasks are left out
+ * of the counts and of the workload, their sub-tasks already being counted.
+ */
+@Singleton
+public class ProjectSummaryService {
+
+  private final ReadReplicaService readReplicaService;
+
+  @Inject
+  public ProjectSummaryService(ReadReplicaService readReplicaService) {
+    this.readReplicaService = readReplicaService;
+  }
+
+  /** Rebuild the summary row of the project from its tasks. Runs in the caller's transaction. */
+  public void refresh(Long projectId) {
+    JPA.jdbcWork(
+        connection -> {
+          int taskCount = 0;
+          int lateCount = 0;
+          int criticalCount = 0;
+          LocalDate first = null;
+          LocalDate last = null;
+          Map<YearMonth, Integer> workload = new TreeMap<>();
+
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "SELECT task.start_date, task.end_date, task.total_float, task.finish_variance "
+                      + "FROM axenr_task task WHERE task.project = ? AND NOT EXISTS "
+                      + "(SELECT 1 FROM axenr_task child WHERE child.project = task.project "
+                      + "AND child.parent_task = task.id)")) {
+            statement.setLong(1, projectId);
+            try (ResultSet rows = statement.executeQuery()) {
+              while (rows.next()) {
+                taskCount++;
+                Date start = rows.getDate(1);
+                Date end = rows.getDate(2);
+                BigDecimal totalFloat = rows.getBigDecimal(3);
+                if (rows.getInt(4) > 0) {
+                  lateCount++;
+                }
+                if (totalFloat != null && totalFloat.signum() == 0) {
+                  criticalCount++;
+                }
+                if (start == null || end == null) {
+                  continue;
+                }
+                LocalDate startDate = start.toLocalDate();
+                LocalDate endDate = end.toLocalDate();
+                first = first == null || startDate.isBefore(first) ? startDate : first;
+                last = last == null || endDate.isAfter(last) ? endDate : last;
+                addWorkload(workload, startDate, endDate);
+              }
+            }
+          }
+
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "INSERT INTO axenr_project_plan_summary (id, version, project, task_count, "
+                      + "late_task_count, critical_task_count, critical_path_length, "
+                      + "start_date, end_date, plan_version, monthly_workload, refreshed_on) "
+                      + "SELECT nextval('axenr_project_plan_summary_seq'), 0, project.id, "
+                      + "?, ?, ?, ?, ?, ?, project.plan_version, ?, now() "
+                      + "FROM axenr_project project WHERE project.id = ? "
+                      + "ON CONFLICT (project) DO UPDATE SET "
+                      + "task_count = EXCLUDED.task_count, "
+                      + "late_task_count = EXCLUDED.late_task_count, "
+                      + "critical_task_count = EXCLUDED.critical_task_count, "
+                      + "critical_path_length = EXCLUDED.critical_path_length, "
+                      + "start_date = EXCLUDED.start_date, end_date = EXCLUDED.end_date, "
+                      + "plan_version = EXCLUDED.plan_version, "
+                      + "monthly_workload = EXCLUDED.monthly_workload, "
+                      + "refreshed_on = EXCLUDED.refreshed_on")) {
+            statement.setInt(1, taskCount);
+            statement.setInt(2, lateCount);
+            statement.setInt(3, criticalCount);
+            if (first == null) {
+              statement.setNull(4, Types.INTEGER);
+              statement.setNull(5, Types.DATE);
+              statement.setNull(6, Types.DATE);
+            } else {
+              statement.setInt(4, (int) (last.toEpochDay() - first.toEpochDay()) + 1);
+              statement.setDate(5, Date.valueOf(first));
+              statement.setDate(6, Date.valueOf(last));
+            }
+            statement.setString(7, toJson(workload));
+            statement.setLong(8, projectId);
+            statement.executeUpdate();
+          }
+        });
+  }
+
+  /** Summary rows of all projects, by project name, read on the replica when there is one */
+  public List<Map<String, Object>> getPortfolio() {
+    List<Map<String, Object>> projects = new ArrayList<>();
+    readReplicaService.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+                  connection.prepareStatement(
+                      "SELECT project.id, project.name, summary.task_count, "
+                          + "summary.late_task_count, summary.critical_task_count, "
+                          + "summary.critical_path_length, summary.start_date, summary.end_date, "
+                          + "summary.monthly_workload "
+                          + "FROM axenr_project_plan_summary summary "
+                          + "JOIN axenr_project project ON project.id = summary.project "
+                          + "ORDER BY project.name");
+              ResultSet rows = statement.executeQuery()) {
+            while (rows.next()) {
+              Map<String, Object> project = new LinkedHashMap<>();
+              project.put("id", rows.getLong(1));
+              project.put("name", rows.getString(2));
+              project.put("taskCount", rows.getInt(3));
+              project.put("lateTaskCount", rows.getInt(4));
+              project.put("criticalTaskCount", rows.getInt(5));
+              project.put("criticalPathLength", rows.getObject(6));
+              project.put("startDate", toString(rows.getDate(7)));
+              project.put("endDate", toString(rows.getDate(8)));
+              project.put("monthlyWorkload", rows.getString(9));
+              projects.add(project);
+            }
+          }
+        });
+    return projects;
+  }
+
+  /**
+   * Task, critical and late counts of the project, read from its summary row; zero counts when
+   * the project has not been planned yet. Read on the primary, as right after planning.
+   */
+  public Map<String, Integer> getCounts(Long projectId) {
+    Map<String, Integer> counts = new LinkedHashMap<>();
+    counts.put("taskCount", 0);
+    counts.put("criticalTaskCount", 0);
+    counts.put("lateTaskCount", 0);
+    JPA.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "SELECT task_count, critical_task_count, late_task_count "
+                      + "FROM axenr_project_plan_summary WHERE project = ?")) {
+            statement.setLong(1, projectId);
+            try (ResultSet rows = statement.executeQuery()) {
+              if (rows.next()) {
+                counts.put("taskCount", rows.getInt(1));
+                counts.put("criticalTaskCount", rows.getInt(2));
+                counts.put("lateTaskCount", rows.getInt(3));
+              }
+            }
+          }
+        });
+    return counts;
+  }
+
+  /** Spread the days of the task over the months it covers */
+  private static void addWorkload(
+      Map<YearMonth, Integer> workload, LocalDate startDate, LocalDate endDate) {
+    LocalDate from = startDate;
+    while (!from.isAfter(endDate)) {
+      YearMonth month = YearMonth.from(from);
+      LocalDate to = month.atEndOfMonth().isBefore(endDate) ? month.atEndOfMonth() : endDate;
+      int days = (int) (to.toEpochDay() - from.toEpochDay()) + 1;
+      workload.merge(month, days, Integer::sum);
+      from = to.plusDays(1);
+    }
+  }
+
+  private static String toJson(Map<YearMonth, Integer> workload) {
+    StringBuilder json = new StringBuilder("{");
+    for (Map.Entry<YearMonth, Integer> entry : workload.entrySet()) {
+      if (json.length() > 1) {
+        json.append(',');
+      }
+      json.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+    }
+    return json.append('}').toString();
+  }
+
+  private static String toString(Date date) {
+    return date == null ? null : date.toLocalDate().toString();
+  }
+}
@@ -0,0 +1,301 @@
+package fr.axenr.apps.service;
+
+import com.axelor.app.AppSettings;
+import com.axelor.db.JPA;
+import com.axelor.event.Observes;
+import com.axelor.events.ShutdownEvent;
+import com.axelor.events.StartupEvent;
+import com.google.inject.Singleton;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.persistence.PersistenceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs reads that tolerate slightly old data on a read-only replica, with its own connection pool,
+ * so that dashboards and exports do not take connections from interactive planning.
+ *
+ * <p>The replica lag is checked in the background. While it exceeds {@code
+ * axenr.replica.max-lag-ms}, or while the replica cannot be reached, reads run on the primary
+ * instead. A read made of several queries runs them all on the same side, inside {@link
+ * #read(Supplier)}: a version read on the primary followed by data read on a replica behind it
+ * would cache old data under a new version.
+ *
+ * <p>Disabled unless {@code axenr.replica.enabled} is set to {@code true}, in which case every read
+ * runs on the primary as before.
+ */
+@Singleton
+public class ReadReplicaService {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  /** Pool names, as registered in JMX by Hikari */
+  static final String PRIMARY_POOL = "axenr-primary";
+
+  static final String REPLICA_POOL = "axenr-replica";
+
+  /** Replay delay of the replica, zero when it replayed all it received or is not a standby */
+  private static final String LAG_QUERY =
+      "SELECT CASE WHEN NOT pg_is_in_recovery() "
+          + "OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+          + "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) "
+          + "END";
+
+  private final boolean enabled;
+  private final long maxLagMs;
+  private final long checkIntervalMs;
+
+  private volatile HikariDataSource replica;
+  private ScheduledExecutorService monitor;
+
+  /** Last lag measured, -1 when the replica could not be reached */
+  private volatile long lagMs = -1;
+
+  /** Side chosen by the read running on the current thread */
+  private final ThreadLocal<Route> route = new ThreadLocal<>();
+
+  private final AtomicLong replicaReads = new AtomicLong();
+  private final AtomicLong primaryReads = new AtomicLong();
+  private final AtomicLong fallbackReads = new AtomicLong();
+
+  public ReadReplicaService() {
+    AppSettings settings = AppSettings.get();
+    this.enabled = settings.getBoolean("axenr.replica.enabled", false);
+    this.maxLagMs = settings.getInt("axenr.replica.max-lag-ms", 5000);
+    this.checkIntervalMs = settings.getInt("axenr.replica.check-interval-ms", 2000);
+  }
+
+  public void onStartup(@Observes StartupEvent event) {
+    if (!enabled) {
+      return;
+    }
+    AppSettings settings = AppSettings.get();
+    HikariConfig config = new HikariConfig();
+    config.setPoolName(REPLICA_POOL);
+    config.setJdbcUrl(settings.get("axenr.replica.url"));
+    config.setUsername(settings.get("axenr.replica.user", settings.get("db.default.user")));
+    config.setPassword(
+        settings.get("axenr.replica.password", settings.get("db.default.password")));
+    config.setMaximumPoolSize(settings.getInt("axenr.replica.maximum-pool-size", 10));
+    config.setMinimumIdle(settings.getInt("axenr.replica.minimum-idle", 2));
+    config.setConnectionTimeout(settings.getInt("axenr.replica.connection-timeout-ms", 2000));
+    config.setReadOnly(true);
+    // Cursors only fetch by blocks inside a transaction
+    config.setAutoCommit(false);
+    config.setRegisterMbeans(true);
+    // Start even when the replica is down: reads fall back to the primary until it is up
+    config.setInitializationFailTimeout(-1);
+    replica = new HikariDataSource(config);
+
+    monitor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "axenr-replica-monitor");
+              thread.setDaemon(true);
+              return thread;
+            });
+    monitor.scheduleWithFixedDelay(
+        this::checkLag, 0, checkIntervalMs, TimeUnit.MILLISECONDS);
+    LOG.info("Read replica pool started, reads fall back beyond {} ms of lag", maxLagMs);
+  }
+
+  public void onShutdown(@Observes ShutdownEvent event) {
+    if (monitor != null) {
+      monitor.shutdownNow();
+    }
+    HikariDataSource dataSource = replica;
+    replica = null;
+    if (dataSource != null) {
+      dataSource.close();
+    }
+  }
+
+  /** Whether reads go to the replica right now */
+  public boolean isReplicaUsable() {
+    long lag = lagMs;
+    return replica != null && lag >= 0 && lag <= maxLagMs;
+  }
+
+  /**
+   * Run the work with every {@link #jdbcWork} call it makes on the same side: the replica when it
+   * is usable, the primary otherwise. Nested reads join the enclosing one.
+   */
+  public <T> T read(Supplier<T> work) {
+    if (route.get() != null) {
+      return work.get();
+    }
+    Connection connection = openReplica();
+    route.set(new Route(connection));
+    try {
+      return work.get();
+    } finally {
+      route.remove();
+      if (connection != null) {
+        release(connection);
+      }
+    }
+  }
+
+  /**
+   * Run a JDBC read on the side chosen by the enclosing {@link #read(Supplier)}, or on its own
+   * side when called outside of one. On the primary, the work runs inside a transaction, as on the
+   * replica, so that cursors fetch by blocks on both.
+   */
+  public void jdbcWork(JPA.JDBCWork work) {
+    Route current = route.get();
+    if (current == null) {
+      read(
+          () -> {
+            jdbcWork(work);
+            return null;
+          });
+      return;
+    }
+    if (current.connection == null) {
+      JPA.runInTransaction(() -> JPA.jdbcWork(work));
+      return;
+    }
+    try {
+      work.execute(current.connection);
+    } catch (SQLException e) {
+      throw new PersistenceException(e);
+    }
+  }
+
+  /**
+   * Connections of both pools and reads served by each side, for monitoring: active, idle and
+   * total connections and threads waiting for one, per pool.
+   */
+  public Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("replicaEnabled", enabled);
+    stats.put("replicaUsable", isReplicaUsable());
+    stats.put("replicaLagMs", enabled ? lagMs : null);
+    stats.put("maxLagMs", maxLagMs);
+    stats.put("replicaReads", replicaReads.get());
+    stats.put("primaryReads", primaryReads.get());
+    stats.put("fallbackReads", fallbackReads.get());
+
+    Map<String, Object> pools = new LinkedHashMap<>();
+    pools.put(PRIMARY_POOL, poolStats(findPool(PRIMARY_POOL)));
+    HikariDataSource dataSource = replica;
+    if (dataSource != null) {
+      pools.put(REPLICA_POOL, poolStats(dataSource.getHikariPoolMXBean()));
+    }
+    stats.put("pools", pools);
+    return stats;
+  }
+
+  /** A replica connection, or {@code null} to read on the primary */
+  private Connection openReplica() {
+    if (!enabled) {
+      primaryReads.incrementAndGet();
+      return null;
+    }
+    HikariDataSource dataSource = replica;
+    if (dataSource == null || !isReplicaUsable()) {
+      fallbackReads.incrementAndGet();
+      return null;
+    }
+    try {
+      Connection connection = dataSource.getConnection();
+      replicaReads.incrementAndGet();
+      return connection;
+    } catch (SQLException e) {
+      // Unreachable until the next check says otherwise
+      lagMs = -1;
+      fallbackReads.incrementAndGet();
+      LOG.warn("Read replica unavailable, reading on the primary: {}", e.getMessage());
+      return null;
+    }
+  }
+
+  private void release(Connection connection) {
+    try {
+      connection.rollback();
+      connection.close();
+    } catch (SQLException e) {
+      LOG.warn("Unable to release a read replica connection: {}", e.getMessage());
+    }
+  }
+
+  private void checkLag() {
+    HikariDataSource dataSource = replica;
+    if (dataSource == null) {
+      return;
+    }
+    long previous = lagMs;
+    try (Connection connection = dataSource.getConnection()) {
+      try (PreparedStatement statement = connection.prepareStatement(LAG_QUERY);
+          ResultSet rows = statement.executeQuery()) {
+        lagMs = rows.next() ? Math.max(0, rows.getLong(1)) : -1;
+      } finally {
+        connection.rollback();
+      }
+    } catch (SQLException | RuntimeException e) {
+      lagMs = -1;
+    }
+    boolean wasUsable = previous >= 0 && previous <= maxLagMs;
+    if (wasUsable != isReplicaUsable()) {
+      if (wasUsable) {
+        LOG.warn("Read replica lagging or down (lag {} ms), reading on the primary", lagMs);
+      } else {
+        LOG.info("Read replica back, lag {} ms", lagMs);
+      }
+    }
+  }
+
+  /** Pool registered in JMX under the given name, {@code null} when there is none */
+  private static HikariPoolMXBean findPool(String poolName) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("com.zaxxer.hikari:type=Pool (" + poolName + ")");
+      return server.isRegistered(name)
+          ? JMX.newMXBeanProxy(server, name, HikariPoolMXBean.class)
+          : null;
+    } catch (MalformedObjectNameException e) {
+      return null;
+    }
+  }
+
+  private static Map<String, Object> poolStats(HikariPoolMXBean pool) {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    if (pool == null) {
+      return stats;
+    }
+    stats.put("active", pool.getActiveConnections());
+    stats.put("idle", pool.getIdleConnections());
+    stats.put("total", pool.getTotalConnections());
+    stats.put("waiting", pool.getThreadsAwaitingConnection());
+    return stats;
+  }
+
+  /** Side of a read: a replica connection, or the primary when {@code null} */
+  private static class Route {
+
+    private final Connection connection;
+
+    private Route(Connection connection) {
+      this.connection = connection;
+    }
+  }
+}
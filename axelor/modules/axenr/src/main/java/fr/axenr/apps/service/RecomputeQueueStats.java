@@ -0,0 +1,65 @@
+package fr.axenr.apps.service;
+
+/** Point in time view of the recompute queue. Wait times are in milliseconds. */
+public class RecomputeQueueStats {
+
+  private final int pendingCount;
+  private final int queuedCount;
+  private final int runningCount;
+  private final long lastWaitMs;
+  private final long maxWaitMs;
+  private final long averageWaitMs;
+  private final long rejectedCount;
+
+  public RecomputeQueueStats(
+      int pendingCount,
+      int queuedCount,
+      int runningCount,
+      long lastWaitMs,
+      long maxWaitMs,
+      long averageWaitMs,
+      long rejectedCount) {
+    this.pendingCount = pendingCount;
+    this.queuedCount = queuedCount;
+    this.runningCount = runningCount;
+    this.lastWaitMs = lastWaitMs;
+    this.maxWaitMs = maxWaitMs;
+    this.averageWaitMs = averageWaitMs;
+    this.rejectedCount = rejectedCount;
+  }
+
+  /** Projects still inside their debounce window or waiting for a retry */
+  public int getPendingCount() {
+    return pendingCount;
+  }
+
+  /** Projects handed to the workers but not started yet */
+  public int getQueuedCount() {
+    return queuedCount;
+  }
+
+  public int getRunningCount() {
+    return runningCount;
+  }
+
+  /** Queue depth as seen by the planner: everything not finished yet */
+  public int getDepth() {
+    return pendingCount + queuedCount + runningCount;
+  }
+
+  public long getLastWaitMs() {
+    return lastWaitMs;
+  }
+
+  public long getMaxWaitMs() {
+    return maxWaitMs;
+  }
+
+  public long getAverageWaitMs() {
+    return averageWaitMs;
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount;
+  }
+}
@@ -0,0 +1,14 @@
+package fr.axenr.apps.service;
+
+/** Lifecycle of a background recompute request, as shown to the planner. */
+public enum RecomputeStatus {
+  /** Waiting for the debounce window to close */
+  QUEUED,
+  /** All workers are busy, the request will be retried */
+  DEFERRED,
+  /** Refused because too many projects are already waiting */
+  REJECTED,
+  RUNNING,
+  DONE,
+  FAILED
+}
@@ -0,0 +1,83 @@
+package fr.axenr.apps.service;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Daily load of every resource over a date range, across all projects. Day {@code d} of the range
+ * is {@code from.plusDays(d)}; loads are in units, to compare with the capacity.
+ */
+public class ResourceLoad {
+
+  private final long[] stamp;
+  private final LocalDate from;
+  private final LocalDate to;
+  private final long[] resourceIds;
+  private final String[] resourceNames;
+  private final int[] capacity;
+  private final int[][] load;
+
+  public ResourceLoad(
+      long[] stamp,
+      LocalDate from,
+      LocalDate to,
+      long[] resourceIds,
+      String[] resourceNames,
+      int[] capacity,
+      int[][] load) {
+    this.stamp = stamp;
+    this.from = from;
+    this.to = to;
+    this.resourceIds = resourceIds;
+    this.resourceNames = resourceNames;
+    this.capacity = capacity;
+    this.load = load;
+  }
+
+  /** Summed plan versions of all projects the load was computed from */
+  public long getPlanVersion() {
+    return stamp[0];
+  }
+
+  public LocalDate getFrom() {
+    return from;
+  }
+
+  public LocalDate getTo() {
+    return to;
+  }
+
+  public int getDayCount() {
+    return (int) (to.toEpochDay() - from.toEpochDay()) + 1;
+  }
+
+  public int getResourceCount() {
+    return resourceIds.length;
+  }
+
+  public long getResourceId(int index) {
+    return resourceIds[index];
+  }
+
+  public String getResourceName(int index) {
+    return resourceNames[index];
+  }
+
+  public int getCapacity(int index) {
+    return capacity[index];
+  }
+
+  /** Units in use on each day of the range, not to be modified */
+  public int[] getLoad(int index) {
+    return load[index];
+  }
+
+  /** Index of the resource, or a negative value when it is not part of the load */
+  int indexOf(long resourceId) {
+    return Arrays.binarySearch(resourceIds, resourceId);
+  }
+
+  boolean covers(long[] loadStamp, LocalDate rangeFrom, LocalDate rangeTo) {
+    return Arrays.equals(stamp, loadStamp) && from.equals(rangeFrom) && to.equals(rangeTo);
+  }
+}
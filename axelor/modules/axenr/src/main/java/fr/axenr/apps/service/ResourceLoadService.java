@@ -0,0 +1,199 @@
+package fr.axenr.apps.service;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds the daily load of every resource across all projects.
+ *
+ * <p>Each assignment adds its units on the first day of its task and removes them the day after
+ * its last day, in a difference array per resource; a prefix sum then turns the differences into
+ * daily loads. The cost is one pass over the assignments plus one pass over the days, whatever the
+ * task durations.
+ *
+ * <p>The last load computed is kept until the plan version of any project changes, which happens
+ * each time task dates are written, or until an assignment or a resource is added, edited or
+ * removed. The number of rows, their summed versions and the highest id of each table reveal
+ * those changes, a row removed and another added included, since ids only grow. The stamp and the
+ * load are read on the same side, the replica when there is one, so the load kept is never older
+ * than its stamp.
+ */
+@Singleton
+public class ResourceLoadService {
+
+  /** Longest range served, about ten years */
+  static final int MAX_DAYS = 3660;
+
+  private static final String PLAN_STAMP =
+      "SELECT COALESCE(SUM(COALESCE(plan_version, 0)), 0), COUNT(*), COALESCE(MAX(id), 0) "
+          + "FROM axenr_project";
+
+  private static final String LOAD_STAMP =
+      "SELECT project.v, project.n, project.m, assignment.n, assignment.v, assignment.m, "
+          + "resource.n, resource.v, resource.m FROM "
+          + "(SELECT COALESCE(SUM(COALESCE(plan_version, 0)), 0) v, COUNT(*) n, "
+          + "COALESCE(MAX(id), 0) m FROM axenr_project) project, "
+          + "(SELECT COUNT(*) n, COALESCE(SUM(version), 0) v, COALESCE(MAX(id), 0) m "
+          + "FROM axenr_task_assignment) assignment, "
+          + "(SELECT COUNT(*) n, COALESCE(SUM(version), 0) v, COALESCE(MAX(id), 0) m "
+          + "FROM axenr_resource) resource";
+
+  private final ReadReplicaService readReplicaService;
+
+  private volatile ResourceLoad cached;
+
+  @Inject
+  public ResourceLoadService(ReadReplicaService readReplicaService) {
+    this.readReplicaService = readReplicaService;
+  }
+
+  /** Daily load of every resource from {@code from} to {@code to}, both included */
+  public ResourceLoad getLoad(LocalDate from, LocalDate to) {
+    if (from == null || to == null || to.isBefore(from)) {
+      throw new IllegalArgumentException("Invalid date range");
+    }
+    if (to.toEpochDay() - from.toEpochDay() >= MAX_DAYS) {
+      throw new IllegalArgumentException("Date range cannot exceed " + MAX_DAYS + " days");
+    }
+
+    return readReplicaService.read(
+        () -> {
+          long[] stamp = readStamp(LOAD_STAMP, 9);
+          ResourceLoad load = cached;
+          if (load != null && load.covers(stamp, from, to)) {
+            return load;
+          }
+          load = compute(stamp, from, to);
+          cached = load;
+          return load;
+        });
+  }
+
+  /**
+   * Summed plan versions of all projects, number of projects and highest project id: the stamp
+   * changes whenever a plan is written and when a project is added or removed.
+   */
+  public long[] getPlanStamp() {
+    return readStamp(PLAN_STAMP, 3);
+  }
+
+  private long[] readStamp(String sql, int size) {
+    long[] stamp = new long[size];
+    readReplicaService.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement = connection.prepareStatement(sql);
+              ResultSet rows = statement.executeQuery()) {
+            if (rows.next()) {
+              for (int k = 0; k < size; k++) {
+                stamp[k] = rows.getLong(k + 1);
+              }
+            }
+          }
+        });
+    return stamp;
+  }
+
+  private ResourceLoad compute(long[] stamp, LocalDate from, LocalDate to) {
+    int days = (int) (to.toEpochDay() - from.toEpochDay()) + 1;
+
+    List<Long> ids = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    List<Integer> capacities = new ArrayList<>();
+    readReplicaService.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+                  connection.prepareStatement(
+                      "SELECT id, name, capacity FROM axenr_resource ORDER BY id");
+              ResultSet rows = statement.executeQuery()) {
+            while (rows.next()) {
+              ids.add(rows.getLong(1));
+              names.add(rows.getString(2));
+              capacities.add(Math.max(1, rows.getInt(3)));
+            }
+          }
+        });
+
+    long[] resourceIds = ids.stream().mapToLong(Long::longValue).toArray();
+    int[][] diffs = new int[resourceIds.length][days + 1];
+    readReplicaService.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "SELECT assignment.resource, assignment.units, task.start_date, task.end_date "
+                      + "FROM axenr_task_assignment assignment "
+                      + "JOIN axenr_task task ON task.id = assignment.task "
+                      + "WHERE task.start_date <= ? AND task.end_date >= ?")) {
+            statement.setDate(1, Date.valueOf(to));
+            statement.setDate(2, Date.valueOf(from));
+            try (ResultSet rows = statement.executeQuery()) {
+              while (rows.next()) {
+                int r = Arrays.binarySearch(resourceIds, rows.getLong(1));
+                if (r < 0) {
+                  continue;
+                }
+                int units = rows.getInt(2);
+                units = rows.wasNull() ? 1 : units;
+                book(
+                    diffs[r],
+                    from,
+                    rows.getDate(3).toLocalDate(),
+                    rows.getDate(4).toLocalDate(),
+                    units);
+              }
+            }
+          }
+        });
+
+    int[][] load = new int[resourceIds.length][];
+    for (int r = 0; r < resourceIds.length; r++) {
+      load[r] = dailyLoad(diffs[r]);
+    }
+
+    return new ResourceLoad(
+        stamp,
+        from,
+        to,
+        resourceIds,
+        names.toArray(new String[0]),
+        capacities.stream().mapToInt(Integer::intValue).toArray(),
+        load);
+  }
+
+  /**
+   * Add the units of a booking to the differences of a resource, clipped to the range.
+   *
+   * @param diff differences of the resource, one per day of the range plus one
+   * @param from first day of the range
+   * @param start first day of the booking
+   * @param end last day of the booking, included
+   */
+  static void book(int[] diff, LocalDate from, LocalDate start, LocalDate end, int units) {
+    long first = from.toEpochDay();
+    int days = diff.length - 1;
+    long startDay = start.toEpochDay() - first;
+    long endDay = end.toEpochDay() - first;
+    if (startDay >= days || endDay < 0 || endDay < startDay) {
+      return;
+    }
+    diff[(int) Math.max(0, startDay)] += units;
+    diff[(int) Math.min(days - 1, endDay) + 1] -= units;
+  }
+
+  /** Daily loads of a resource from its differences, by a prefix sum */
+  static int[] dailyLoad(int[] diff) {
+    int[] daily = new int[diff.length - 1];
+    int running = 0;
+    for (int d = 0; d < daily.length; d++) {
+      running += diff[d];
+      daily[d] = running;
+    }
+    return daily;
+  }
+}
@@ -0,0 +1,281 @@
+package fr.axenr.apps.service;
+
+import com.axelor.db.JPA;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves the located projects (sites) and resources (crews) to the site map, through one {@link
+ * GeoGrid} each.
+ *
+ * <p>Each grid is built on first use and kept until a row of its table is added, removed or
+ * updated, which the number of rows, their versions and the highest id reveal at the cost of one
+ * aggregate query. Dates are not part of the grids: they are read from the resource load, so
+ * planning a project does not rebuild them.
+ */
+@Singleton
+public class SiteMapService {
+
+  /** Width of a grid cell, in degrees: about 11 km for the sites, 55 km for the crews */
+  private static final double SITE_CELL_SIZE = 0.1;
+
+  private static final double CREW_CELL_SIZE = 0.5;
+
+  /** Width of a cluster on screen, in pixels, for map tiles of 256 pixels */
+  private static final int CLUSTER_PIXELS = 48;
+
+  /** Zoom level from which sites are no longer clustered */
+  private static final int MAX_CLUSTER_ZOOM = 16;
+
+  private final ResourceLoadService resourceLoadService;
+
+  private volatile Located sites;
+  private volatile Located crews;
+
+  @Inject
+  public SiteMapService(ResourceLoadService resourceLoadService) {
+    this.resourceLoadService = resourceLoadService;
+  }
+
+  /**
+   * Sites within a rectangle, clustered for the given zoom level. Each entry holds the position
+   * and the number of sites of a cluster, plus the id and the name of the site when it is alone.
+   */
+  public List<Map<String, Object>> getSites(
+      double south, double west, double north, double east, int zoom) {
+    Located located = getLocated(false);
+    double clusterSize =
+        zoom >= MAX_CLUSTER_ZOOM ? 0 : 360.0 / (1L << Math.max(0, zoom)) * CLUSTER_PIXELS / 256;
+
+    List<Map<String, Object>> result = new ArrayList<>();
+    for (GeoGrid.Cluster cluster : located.grid.cluster(south, west, north, east, clusterSize)) {
+      Map<String, Object> site = new LinkedHashMap<>();
+      site.put("latitude", cluster.getLatitude());
+      site.put("longitude", cluster.getLongitude());
+      site.put("count", cluster.getCount());
+      if (cluster.getIndex() >= 0) {
+        site.put("id", located.grid.getId(cluster.getIndex()));
+        site.put("name", located.names[cluster.getIndex()]);
+      }
+      result.add(site);
+    }
+    return result;
+  }
+
+  /**
+   * Crews nearest to the site of a task, among those with at least one unit free on every day of
+   * the task. Units the task itself already holds on a crew count as free.
+   *
+   * @return the site, under {@code site}, and the crews nearest first, under {@code crews}
+   */
+  public Map<String, Object> findNearestCrews(Long taskId, int limit) {
+    Map<String, Object> site = new LinkedHashMap<>();
+    LocalDate[] window = new LocalDate[2];
+    Map<Long, Integer> ownUnits = new HashMap<>();
+    JPA.jdbcWork(
+        connection -> {
+          loadTask(connection, taskId, site, window);
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "SELECT resource, units FROM axenr_task_assignment WHERE task = ?")) {
+            statement.setLong(1, taskId);
+            try (ResultSet rows = statement.executeQuery()) {
+              while (rows.next()) {
+                int units = rows.getInt(2);
+                ownUnits.merge(rows.getLong(1), rows.wasNull() ? 1 : units, Integer::sum);
+              }
+            }
+          }
+        });
+    if (site.get("latitude") == null) {
+      throw new IllegalArgumentException("The project of the task has no location");
+    }
+    if (window[0] == null || window[1] == null) {
+      throw new IllegalArgumentException("The task has no dates");
+    }
+
+    double siteLatitude = (Double) site.get("latitude");
+    double siteLongitude = (Double) site.get("longitude");
+    Located located = getLocated(true);
+    ResourceLoad load = resourceLoadService.getLoad(window[0], window[1]);
+    int[] free = new int[located.grid.size()];
+    int[] nearest =
+        located.grid.nearest(
+            siteLatitude,
+            siteLongitude,
+            limit,
+            k -> {
+              long resourceId = located.grid.getId(k);
+              int peak = 0;
+              int r = load.indexOf(resourceId);
+              if (r >= 0) {
+                peak = Arrays.stream(load.getLoad(r)).max().orElse(0);
+              }
+              free[k] = located.capacity[k] - peak + ownUnits.getOrDefault(resourceId, 0);
+              return free[k] > 0;
+            });
+
+    List<Map<String, Object>> result = new ArrayList<>();
+    for (int k : nearest) {
+      double latitude = located.grid.getLatitude(k);
+      double longitude = located.grid.getLongitude(k);
+      double distance = GeoGrid.distance(siteLatitude, siteLongitude, latitude, longitude);
+      Map<String, Object> crew = new LinkedHashMap<>();
+      crew.put("id", located.grid.getId(k));
+      crew.put("name", located.names[k]);
+      crew.put("latitude", latitude);
+      crew.put("longitude", longitude);
+      crew.put("capacity", located.capacity[k]);
+      crew.put("freeUnits", free[k]);
+      crew.put("distance", Math.round(distance * 10) / 10.0);
+      result.add(crew);
+    }
+
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("site", site);
+    body.put("crews", result);
+    return body;
+  }
+
+  private void loadTask(
+      Connection connection, Long taskId, Map<String, Object> site, LocalDate[] window)
+      throws SQLException {
+    try (PreparedStatement statement =
+        connection.prepareStatement(
+            "SELECT project.id, project.name, project.latitude, project.longitude, "
+                + "task.name, task.start_date, task.end_date "
+                + "FROM axenr_task task JOIN axenr_project project ON project.id = task.project "
+                + "WHERE task.id = ?")) {
+      statement.setLong(1, taskId);
+      try (ResultSet rows = statement.executeQuery()) {
+        if (!rows.next()) {
+          throw new IllegalArgumentException("Unknown task " + taskId);
+        }
+        site.put("id", rows.getLong(1));
+        site.put("name", rows.getString(2));
+        double latitude = rows.getDouble(3);
+        site.put("latitude", rows.wasNull() ? null : latitude);
+        double longitude = rows.getDouble(4);
+        site.put("longitude", rows.wasNull() ? null : longitude);
+        site.put("task", rows.getString(5));
+        Date start = rows.getDate(6);
+        Date end = rows.getDate(7);
+        window[0] = start == null ? null : start.toLocalDate();
+        window[1] = end == null ? null : end.toLocalDate();
+      }
+    }
+  }
+
+  /** Grid of the sites or of the crews, rebuilt when its table changed */
+  private Located getLocated(boolean crew) {
+    String table = crew ? "axenr_resource" : "axenr_project";
+    long[] version = getVersion(table);
+    Located located = crew ? crews : sites;
+    if (located != null && Arrays.equals(located.version, version)) {
+      return located;
+    }
+    located = load(table, version, crew ? CREW_CELL_SIZE : SITE_CELL_SIZE, crew);
+    if (crew) {
+      crews = located;
+    } else {
+      sites = located;
+    }
+    return located;
+  }
+
+  private long[] getVersion(String table) {
+    long[] version = new long[3];
+    JPA.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+                  connection.prepareStatement(
+                      "SELECT COUNT(*), COALESCE(SUM(version), 0), COALESCE(MAX(id), 0) FROM "
+                          + table);
+              ResultSet rows = statement.executeQuery()) {
+            if (rows.next()) {
+              version[0] = rows.getLong(1);
+              version[1] = rows.getLong(2);
+              version[2] = rows.getLong(3);
+            }
+          }
+        });
+    return version;
+  }
+
+  private Located load(String table, long[] version, double cellSize, boolean crew) {
+    List<Long> ids = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    List<double[]> positions = new ArrayList<>();
+    List<Integer> capacities = new ArrayList<>();
+    JPA.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+                  connection.prepareStatement(
+                      "SELECT id, name, latitude, longitude"
+                          + (crew ? ", capacity" : "")
+                          + " FROM "
+                          + table
+                          + " WHERE latitude IS NOT NULL AND longitude IS NOT NULL");
+              ResultSet rows = statement.executeQuery()) {
+            while (rows.next()) {
+              ids.add(rows.getLong(1));
+              names.add(rows.getString(2));
+              positions.add(new double[] {rows.getDouble(3), rows.getDouble(4)});
+              capacities.add(crew ? Math.max(1, rows.getInt(5)) : 0);
+            }
+          }
+        });
+
+    int size = ids.size();
+    long[] idColumn = new long[size];
+    double[] latitude = new double[size];
+    double[] longitude = new double[size];
+    for (int i = 0; i < size; i++) {
+      idColumn[i] = ids.get(i);
+      latitude[i] = positions.get(i)[0];
+      longitude[i] = positions.get(i)[1];
+    }
+    GeoGrid grid = new GeoGrid(idColumn, latitude, longitude, cellSize);
+
+    // The grid reorders the points: align the names and capacities with it
+    Map<Long, Integer> row = new HashMap<>();
+    for (int i = 0; i < size; i++) {
+      row.put(idColumn[i], i);
+    }
+    String[] gridNames = new String[size];
+    int[] gridCapacity = new int[size];
+    for (int k = 0; k < size; k++) {
+      int i = row.get(grid.getId(k));
+      gridNames[k] = names.get(i);
+      gridCapacity[k] = capacities.get(i);
+    }
+    return new Located(version, grid, gridNames, gridCapacity);
+  }
+
+  /** A grid with the names, and for crews the capacity, of its points in grid order */
+  private static class Located {
+    final long[] version;
+    final GeoGrid grid;
+    final String[] names;
+    final int[] capacity;
+
+    Located(long[] version, GeoGrid grid, String[] names, int[] capacity) {
+      this.version = version;
+      this.grid = grid;
+      this.names = names;
+      this.capacity = capacity;
+    }
+  }
+}
@@ -0,0 +1,228 @@
+package fr.axenr.apps.service;
+
+import com.axelor.db.JPA;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import fr.axenr.apps.db.Project;
+import fr.axenr.apps.service.graph.ProjectGraphStore;
+import java.math.BigDecimal;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.util.Collection;
+
+/**
+ * Edits many tasks of a project at once, each edit being a single set-based update.
+ *
+ * <p>Shifting a project moves every date by the same number of days: the plan keeps its shape, so
+ * the dates are offset in place without going through the graph. That only holds while the start
+ * date is the one bound of the plan: a project with date constraints or predecessors in other
+ * projects is planned again from its shifted start instead. Editing durations or delays
+ * changes the shape of the plan, so the project is planned again once, after the update; only the
+ * tasks whose dates actually move are written.
+ */
+@Singleton
+public class TaskBulkService {
+
+  private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+
+  private final PlanningLockService planningLockService;
+  private final PlanningClusterService planningClusterService;
+  private final TaskPlanningService taskPlanningService;
+  private final PlanBaselineService planBaselineService;
+  private final ProjectSummaryService projectSummaryService;
+  private final ProjectGraphRegistry projectGraphRegistry;
+  private final ProjectGraphStore projectGraphStore;
+
+  @Inject
+  public TaskBulkService(
+      PlanningLockService planningLockService,
+      PlanningClusterService planningClusterService,
+      TaskPlanningService taskPlanningService,
+      PlanBaselineService planBaselineService,
+      ProjectSummaryService projectSummaryService,
+      ProjectGraphRegistry projectGraphRegistry,
+      ProjectGraphStore projectGraphStore) {
+    this.planningLockService = planningLockService;
+    this.planningClusterService = planningClusterService;
+    this.taskPlanningService = taskPlanningService;
+    this.planBaselineService = planBaselineService;
+    this.projectSummaryService = projectSummaryService;
+    this.projectGraphRegistry = projectGraphRegistry;
+    this.projectGraphStore = projectGraphStore;
+  }
+
+  /**
+   * Move the project and all its tasks by a number of days.
+   *
+   * @return number of tasks moved, or whose float changed when the project is planned again
+   */
+  public int shiftProject(Project project, int days) {
+    if (project == null) {
+      throw new IllegalArgumentException("Project cannot be null");
+    }
+    if (days == 0) {
+      return 0;
+    }
+
+    Long projectId = project.getId();
+    return planningLockService.runLocked(
+        projectId,
+        () -> {
+          int[] moved = {0};
+          JPA.runInTransaction(
+              () -> {
+                planningClusterService.lockProject(projectId);
+                if (projectGraphStore.hasDateBounds(projectId)) {
+                  moved[0] = shiftAndReplan(projectId, days);
+                  return;
+                }
+                JPA.jdbcWork(
+                    connection -> {
+                      try (PreparedStatement statement =
+                          connection.prepareStatement(
+                              "UPDATE axenr_task SET start_date = start_date + ?, "
+                                  + "end_date = end_date + ? WHERE project = ?")) {
+                        statement.setInt(1, days);
+                        statement.setInt(2, days);
+                        statement.setLong(3, projectId);
+                        moved[0] = statement.executeUpdate();
+                      }
+                      try (PreparedStatement statement =
+                          connection.prepareStatement(
+                              "UPDATE axenr_project SET start_date = start_date + ?, "
+                                  + "end_date = end_date + ?, "
+                                  + "plan_version = COALESCE(plan_version, 0) + 1 "
+                                  + "WHERE id = ?")) {
+                        statement.setInt(1, days);
+                        statement.setInt(2, days);
+                        statement.setLong(3, projectId);
+                        statement.executeUpdate();
+                      }
+                    });
+                planBaselineService.updateVariance(projectId);
+                projectSummaryService.refresh(projectId);
+                planningClusterService.publishPlanUpdated(projectId);
+              });
+          return moved[0];
+        });
+  }
+
+  /**
+   * Move the project dates, then plan the project again in the same transaction, so that its
+   * tasks respect their constraints and their predecessors elsewhere, with float and violations
+   * computed against them.
+   */
+  private int shiftAndReplan(Long projectId, int days) {
+    JPA.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "UPDATE axenr_project SET start_date = start_date + ?, end_date = end_date + ? "
+                      + "WHERE id = ?")) {
+            statement.setInt(1, days);
+            statement.setInt(2, days);
+            statement.setLong(3, projectId);
+            statement.executeUpdate();
+          }
+        });
+    return taskPlanningService.replan(projectId).size();
+  }
+
+  /**
+   * Scale the duration of the selected tasks, then plan the project again.
+   *
+   * @param percent new duration as a percentage of the current one
+   * @return number of tasks updated
+   */
+  public int scaleDurations(Project project, Collection<Long> taskIds, BigDecimal percent) {
+    if (percent == null || percent.signum() <= 0) {
+      throw new IllegalArgumentException("Percentage must be positive");
+    }
+    return updateTasks(
+        project,
+        taskIds,
+        "UPDATE axenr_task SET duration = ROUND(duration * ?, 2), version = version + 1 "
+            + "WHERE project = ? AND id = ANY (?)",
+        percent.divide(HUNDRED));
+  }
+
+  /**
+   * Set the delay to start of the selected tasks, then plan the project again.
+   *
+   * @return number of tasks updated
+   */
+  public int setDelayToStart(Project project, Collection<Long> taskIds, BigDecimal delay) {
+    if (delay == null) {
+      throw new IllegalArgumentException("Delay is required");
+    }
+    return updateTasks(
+        project,
+        taskIds,
+        "UPDATE axenr_task SET delay_to_start = ?, version = version + 1 "
+            + "WHERE project = ? AND id = ANY (?)",
+        delay);
+  }
+
+  /**
+   * Run one update over the selected tasks, then plan the project again while still holding its
+   * lock, so that no other edit slips in between. The plan is computed afresh from the committed
+   * update, never joined with a computation already waiting for the lock.
+   *
+   * <p>Unlike dates, durations and delays are entered by users: the version is increased so that a
+   * form left open on one of these tasks does not silently overwrite the new value.
+   */
+  private int updateTasks(
+      Project project, Collection<Long> taskIds, String sql, BigDecimal value) {
+    if (project == null) {
+      throw new IllegalArgumentException("Project cannot be null");
+    }
+    if (taskIds == null || taskIds.isEmpty()) {
+      throw new IllegalArgumentException("No task selected");
+    }
+
+    Long projectId = project.getId();
+    return planningLockService.runLocked(
+        projectId,
+        () -> {
+          int[] updated = {0};
+          boolean[] replan = {false};
+          JPA.runInTransaction(
+              () -> {
+                planningClusterService.lockProject(projectId);
+                JPA.jdbcWork(
+                    connection -> {
+                      Array ids = connection.createArrayOf("bigint", taskIds.toArray());
+                      try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                        statement.setBigDecimal(1, value);
+                        statement.setLong(2, projectId);
+                        statement.setArray(3, ids);
+                        updated[0] = statement.executeUpdate();
+                      } finally {
+                        ids.free();
+                      }
+                    });
+                // Not seen by the entity listeners
+                projectGraphRegistry.invalidateOnCompletion(projectId);
+                // Other nodes drop their graph even when no plan follows
+                planningClusterService.publishPlanUpdated(projectId);
+                // Read under the lock: the project of the caller may be stale
+                replan[0] = updated[0] > 0 && hasStartDate(projectId);
+              });
+          if (replan[0]) {
+            taskPlanningService.replan(projectId);
+          }
+          return updated[0];
+        });
+  }
+
+  private static boolean hasStartDate(Long projectId) {
+    return JPA.em()
+            .createQuery(
+                "SELECT self.startDate FROM Project self WHERE self.id = :projectId",
+                LocalDate.class)
+            .setParameter("projectId", projectId)
+            .getSingleResult()
+        != null;
+  }
+}
@@ -0,0 +1,87 @@
+package fr.axenr.apps.service;
+
+/** Progress of the import of a task file into a project, updated while the import runs. */
+public class TaskImportProgress {
+
+  public enum Phase {
+    /** Waiting for the import of another project to end */
+    QUEUED,
+    /** Reading the file and inserting its tasks */
+    READING,
+    /** Resolving the parents and predecessors named in the file */
+    LINKING,
+    /** Checking the new links for cycles, before committing */
+    CHECKING,
+    /** Planning the project with its new tasks */
+    PLANNING,
+    DONE,
+    FAILED
+  }
+
+  private final String fileName;
+  private final long fileSize;
+  private volatile Phase phase = Phase.QUEUED;
+  private volatile long bytesRead;
+  private volatile int taskCount;
+  private volatile int linkCount;
+  private volatile String failure;
+
+  TaskImportProgress(String fileName, long fileSize) {
+    this.fileName = fileName;
+    this.fileSize = fileSize;
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+
+  public Phase getPhase() {
+    return phase;
+  }
+
+  /** Whether the import is over, whatever its outcome */
+  public boolean isFinished() {
+    return phase == Phase.DONE || phase == Phase.FAILED;
+  }
+
+  /** Share of the file read so far, from 0 to 100 */
+  public int getPercentRead() {
+    return fileSize <= 0 ? 0 : (int) Math.min(100, bytesRead * 100 / fileSize);
+  }
+
+  /** Tasks inserted so far */
+  public int getTaskCount() {
+    return taskCount;
+  }
+
+  /** Dependencies created, once the file is read */
+  public int getLinkCount() {
+    return linkCount;
+  }
+
+  /** Error message of a failed import, nothing of the file being kept */
+  public String getFailure() {
+    return failure;
+  }
+
+  void setPhase(Phase phase) {
+    this.phase = phase;
+  }
+
+  void setBytesRead(long bytesRead) {
+    this.bytesRead = bytesRead;
+  }
+
+  void setTaskCount(int taskCount) {
+    this.taskCount = taskCount;
+  }
+
+  void setLinkCount(int linkCount) {
+    this.linkCount = linkCount;
+  }
+
+  void fail(String failure) {
+    this.failure = failure;
+    this.phase = Phase.FAILED;
+  }
+}
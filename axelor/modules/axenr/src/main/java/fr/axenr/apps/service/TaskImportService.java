@@ -0,0 +1,816 @@
+package fr.axenr.apps.service;
+
+import com.axelor.db.JPA;
+import com.axelor.db.tenants.TenantAware;
+import com.axelor.db.tenants.TenantResolver;
+import com.axelor.event.Observes;
+import com.axelor.events.ShutdownEvent;
+import com.google.common.io.CountingInputStream;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.exceptions.CsvValidationException;
+import fr.axenr.apps.db.Project;
+import fr.axenr.apps.db.repo.TaskDependencyRepository;
+import fr.axenr.apps.service.graph.ProjectGraphStore;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Imports the tasks of a CSV or MS Project XML file into a project, along with their parents and
+ * predecessors, whatever the size of the file.
+ *
+ * <p>The file is read as a stream, one row or one {@code Task} element at a time, and each task
+ * is inserted at once in JDBC batches, with ids taken from the task sequence by blocks. Parents and
+ * predecessors are named by external id or by name, and may appear later in the file: they are
+ * staged in temporary tables and resolved in a second pass, by set-based statements, so memory
+ * does not grow with the file. The new links are then checked for cycles by compiling the graph
+ * of the project, still inside the transaction: an invalid file leaves nothing behind.
+ *
+ * <p>CSV files have a header row naming their columns, in any order, separated by commas,
+ * semicolons or tabs:
+ *
+ * <ul>
+ *   <li>{@code name}, required;
+ *   <li>{@code duration} in days, required unless the task is a parent, and {@code delayToStart};
+ *   <li>{@code externalId}, unique within the project, used to name the task in other rows;
+ *   <li>{@code parent}, external id or name of the parent task;
+ *   <li>{@code predecessors}, separated by {@code |}, each one written {@code key}, {@code
+ *       key:SS} or {@code key:SS:lag}, where the type is one of FS, SS, FF or SF and the lag is in
+ *       days.
+ * </ul>
+ *
+ * <p>Names only identify a task when no other task of the project bears them. From MS Project
+ * files, the {@code UID} of each task becomes its external id, its outline level gives its parent
+ * and durations are converted with days of 8 hours.
+ *
+ * <p>Imports run one at a time, in the background; their progress is kept per project.
+ */
+@Singleton
+public class TaskImportService {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  /** Rows sent to the database at once, and ids taken from the sequence at once */
+  private static final int BATCH_SIZE = 1000;
+
+  /** Minutes in a working day of MS Project files */
+  private static final int MINUTES_PER_DAY = 8 * 60;
+
+  /** Lag formats of MS Project giving the lag as a percentage of the predecessor duration */
+  private static final int LAG_FORMAT_PERCENT = 19;
+
+  private static final int LAG_FORMAT_ELAPSED_PERCENT = 20;
+
+  /** Unresolved references listed in an error message */
+  private static final int MAX_REPORTED = 5;
+
+  private final PlanningLockService planningLockService;
+  private final PlanningClusterService planningClusterService;
+  private final ProjectGraphStore projectGraphStore;
+  private final ProjectGraphRegistry projectGraphRegistry;
+  private final ProjectSummaryService projectSummaryService;
+  private final TaskPlanningService taskPlanningService;
+  private final PlanningRecomputeQueue planningRecomputeQueue;
+
+  private final ExecutorService executor =
+      Executors.newSingleThreadExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "axenr-task-import");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private final ConcurrentMap<Long, TaskImportProgress> imports = new ConcurrentHashMap<>();
+
+  @Inject
+  public TaskImportService(
+      PlanningLockService planningLockService,
+      PlanningClusterService planningClusterService,
+      ProjectGraphStore projectGraphStore,
+      ProjectGraphRegistry projectGraphRegistry,
+      ProjectSummaryService projectSummaryService,
+      TaskPlanningService taskPlanningService,
+      PlanningRecomputeQueue planningRecomputeQueue) {
+    this.planningLockService = planningLockService;
+    this.planningClusterService = planningClusterService;
+    this.projectGraphStore = projectGraphStore;
+    this.projectGraphRegistry = projectGraphRegistry;
+    this.projectSummaryService = projectSummaryService;
+    this.taskPlanningService = taskPlanningService;
+    this.planningRecomputeQueue = planningRecomputeQueue;
+  }
+
+  /**
+   * Start importing the file into the project, in the background. Files whose name ends with
+   * {@code .xml} are read as MS Project XML, others as CSV.
+   *
+   * @throws IllegalStateException when an import of the project is still running
+   */
+  public TaskImportProgress start(Long projectId, Path file, String fileName) {
+    if (projectId == null || file == null) {
+      throw new IllegalArgumentException("Project and file are required");
+    }
+    long size;
+    try {
+      size = Files.size(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    TaskImportProgress progress = new TaskImportProgress(fileName, size);
+    TaskImportProgress current =
+        imports.compute(
+            projectId,
+            (id, previous) -> previous != null && !previous.isFinished() ? previous : progress);
+    if (current != progress) {
+      throw new IllegalStateException("An import is already running for this project");
+    }
+
+    String tenantId = TenantResolver.currentTenantIdentifier();
+    boolean xml = fileName != null && fileName.toLowerCase(Locale.ROOT).endsWith(".xml");
+    executor.execute(
+        () ->
+            new TenantAware(() -> run(projectId, file, xml, progress))
+                .tenantId(tenantId)
+                .withTransaction(false)
+                .run());
+    return progress;
+  }
+
+  /** Progress of the last import of the project, {@code null} if none was started */
+  public TaskImportProgress getProgress(Long projectId) {
+    return imports.get(projectId);
+  }
+
+  public void onShutdown(@Observes ShutdownEvent event) {
+    executor.shutdownNow();
+    try {
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run(Long projectId, Path file, boolean xml, TaskImportProgress progress) {
+    long startedAt = System.currentTimeMillis();
+    try {
+      importFile(projectId, file, xml, progress);
+      progress.setPhase(TaskImportProgress.Phase.DONE);
+      LOG.info(
+          "Imported {} tasks and {} links into project {} in {} ms",
+          progress.getTaskCount(),
+          progress.getLinkCount(),
+          projectId,
+          System.currentTimeMillis() - startedAt);
+    } catch (RuntimeException e) {
+      Throwable cause = e instanceof UncheckedIOException ? e.getCause() : e;
+      String message = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+      progress.fail(message);
+      LOG.warn("Import of {} into project {} failed: {}", file, projectId, message);
+    }
+  }
+
+  /**
+   * Import the file in one transaction, then plan the project, holding its lock throughout. The
+   * projects waiting on its tasks are planned again in the background once it is planned.
+   */
+  private void importFile(Long projectId, Path file, boolean xml, TaskImportProgress progress) {
+    planningLockService.runLocked(
+        projectId,
+        () -> {
+          JPA.runInTransaction(
+              () -> {
+                planningClusterService.lockProject(projectId);
+                progress.setPhase(TaskImportProgress.Phase.READING);
+                JPA.jdbcWork(
+                    connection -> {
+                      createStagingTables(connection);
+                      try (TaskWriter writer = new TaskWriter(connection, projectId, progress);
+                          CountingInputStream input =
+                              new CountingInputStream(
+                                  new BufferedInputStream(Files.newInputStream(file)))) {
+                        if (xml) {
+                          readProject(input, writer);
+                        } else {
+                          readCsv(input, writer);
+                        }
+                      } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                      }
+                      progress.setPhase(TaskImportProgress.Phase.LINKING);
+                      progress.setLinkCount(resolve(connection, projectId));
+                    });
+
+                // Written outside the entities, and compiled below from uncommitted rows
+                projectGraphRegistry.invalidateOnCompletion(projectId);
+                progress.setPhase(TaskImportProgress.Phase.CHECKING);
+                projectGraphStore.load(projectId);
+                projectSummaryService.refresh(projectId);
+                // Other nodes drop their graph even when no plan follows
+                planningClusterService.publishPlanUpdated(projectId);
+              });
+
+          Project project = JPA.find(Project.class, projectId);
+          if (project != null && project.getStartDate() != null) {
+            progress.setPhase(TaskImportProgress.Phase.PLANNING);
+            // Planned afresh under the lock held, never joined with a computation waiting for it
+            PlanDiff diff = taskPlanningService.replan(projectId);
+            planningRecomputeQueue.propagate(projectId, diff.getTaskIds());
+          }
+          return null;
+        });
+  }
+
+  private void createStagingTables(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(
+          "CREATE TEMPORARY TABLE axenr_import_link (successor bigint, predecessor_key text, "
+              + "type_select integer, lag numeric, line integer) ON COMMIT DROP");
+      statement.execute(
+          "CREATE TEMPORARY TABLE axenr_import_parent (task bigint, parent_key text, "
+              + "line integer) ON COMMIT DROP");
+      statement.execute(
+          "CREATE TEMPORARY TABLE axenr_import_key (key text PRIMARY KEY, task bigint) "
+              + "ON COMMIT DROP");
+    }
+  }
+
+  private void readCsv(CountingInputStream input, TaskWriter writer) throws IOException {
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+    char separator = detectSeparator(reader);
+    try (CSVReader csv =
+        new CSVReaderBuilder(reader)
+            .withCSVParser(new CSVParserBuilder().withSeparator(separator).build())
+            .build()) {
+      String[] header = csv.readNext();
+      if (header == null) {
+        throw new IllegalArgumentException("The file is empty");
+      }
+      Map<String, Integer> columns = new HashMap<>();
+      for (int c = 0; c < header.length; c++) {
+        columns.put(normalize(header[c]), c);
+      }
+      Integer name = columns.get("name");
+      if (name == null) {
+        throw new IllegalArgumentException("The file has no name column");
+      }
+      Integer duration = columns.get("duration");
+      Integer delay = columns.getOrDefault("delaytostart", columns.get("delay"));
+      Integer externalId = columns.getOrDefault("externalid", columns.get("id"));
+      Integer parent = columns.get("parent");
+      Integer predecessors = columns.get("predecessors");
+
+      String[] row;
+      while ((row = csv.readNext()) != null) {
+        int line = (int) csv.getLinesRead();
+        String taskName = cell(row, name);
+        if (taskName == null) {
+          if (String.join("", row).trim().isEmpty()) {
+            continue;
+          }
+          throw new IllegalArgumentException("Line " + line + ": the name is missing");
+        }
+        long taskId =
+            writer.addTask(
+                cell(row, externalId),
+                taskName,
+                decimal(cell(row, duration), line),
+                decimal(cell(row, delay), line),
+                null,
+                cell(row, parent),
+                line);
+        String links = cell(row, predecessors);
+        if (links != null) {
+          for (String link : links.split("\\|")) {
+            addCsvLink(writer, taskId, link.trim(), line);
+          }
+        }
+        writer.setBytesRead(input.getCount());
+      }
+    } catch (CsvValidationException e) {
+      throw new IllegalArgumentException(e.getMessage(), e);
+    }
+  }
+
+  /** Predecessor written {@code key}, {@code key:TYPE} or {@code key:TYPE:lag} */
+  private void addCsvLink(TaskWriter writer, long taskId, String link, int line) {
+    if (link.isEmpty()) {
+      return;
+    }
+    String[] parts = link.split(":");
+    int type = TaskDependencyRepository.TYPE_FINISH_START;
+    if (parts.length > 1) {
+      switch (parts[1].trim().toUpperCase(Locale.ROOT)) {
+        case "FS":
+          break;
+        case "SS":
+          type = TaskDependencyRepository.TYPE_START_START;
+          break;
+        case "FF":
+          type = TaskDependencyRepository.TYPE_FINISH_FINISH;
+          break;
+        case "SF":
+          type = TaskDependencyRepository.TYPE_START_FINISH;
+          break;
+        default:
+          throw new IllegalArgumentException(
+              "Line " + line + ": unknown dependency type " + parts[1]);
+      }
+    }
+    BigDecimal lag = parts.length > 2 ? decimal(parts[2].trim(), line) : null;
+    writer.addLink(taskId, parts[0].trim(), type, lag, line);
+  }
+
+  /** The separator found most often on the header line, among comma, semicolon and tab */
+  private char detectSeparator(BufferedReader reader) throws IOException {
+    reader.mark(64 * 1024);
+    String header = reader.readLine();
+    reader.reset();
+    char separator = ',';
+    long best = -1;
+    for (char candidate : new char[] {',', ';', '\t'}) {
+      long count = header == null ? 0 : header.chars().filter(c -> c == candidate).count();
+      if (count > best) {
+        best = count;
+        separator = candidate;
+      }
+    }
+    return separator;
+  }
+
+  /**
+   * Read the {@code Task} elements of an MS Project XML file. The task of outline level 0 stands
+   * for the project itself and is skipped, as are the empty rows.
+   */
+  private void readProject(CountingInputStream input, TaskWriter writer) {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    try {
+      XMLStreamReader reader = factory.createXMLStreamReader(input);
+      try {
+        // Id of the last task read at each outline level, the parent of the next deeper one
+        List<Long> outline = new ArrayList<>();
+        int depth = 0;
+        boolean inTasks = false;
+        while (reader.hasNext()) {
+          int event = reader.next();
+          if (event == XMLStreamConstants.START_ELEMENT) {
+            depth++;
+            String element = reader.getLocalName();
+            if (depth == 2 && "Tasks".equals(element)) {
+              inTasks = true;
+            } else if (inTasks && depth == 3 && "Task".equals(element)) {
+              readProjectTask(reader, writer, outline);
+              depth--;
+              writer.setBytesRead(input.getCount());
+            }
+          } else if (event == XMLStreamConstants.END_ELEMENT) {
+            if (depth == 2) {
+              inTasks = false;
+            }
+            depth--;
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException e) {
+      throw new IllegalArgumentException("Invalid MS Project file: " + e.getMessage(), e);
+    }
+  }
+
+  /** Read one {@code Task} element, up to its end tag */
+  private void readProjectTask(XMLStreamReader reader, TaskWriter writer, List<Long> outline)
+      throws XMLStreamException {
+    int line = reader.getLocation().getLineNumber();
+    String uid = null;
+    String name = null;
+    BigDecimal duration = null;
+    int level = 1;
+    boolean empty = false;
+    List<String[]> links = new ArrayList<>();
+
+    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      switch (reader.getLocalName()) {
+        case "UID":
+          uid = reader.getElementText().trim();
+          break;
+        case "Name":
+          name = reader.getElementText().trim();
+          break;
+        case "Duration":
+          duration = toDays(Duration.parse(reader.getElementText().trim()).toMinutes());
+          break;
+        case "OutlineLevel":
+          level = Integer.parseInt(reader.getElementText().trim());
+          break;
+        case "IsNull":
+          empty = "1".equals(reader.getElementText().trim());
+          break;
+        case "PredecessorLink":
+          links.add(readProjectLink(reader));
+          break;
+        default:
+          skipElement(reader);
+      }
+    }
+
+    if (empty || level < 1 || name == null || name.isEmpty()) {
+      return;
+    }
+    Long parentId = level > 1 && outline.size() >= level - 1 ? outline.get(level - 2) : null;
+    long taskId =
+        writer.addTask(
+            uid, name, duration != null ? duration : BigDecimal.ZERO, null, parentId, null, line);
+    while (outline.size() >= level) {
+      outline.remove(outline.size() - 1);
+    }
+    outline.add(taskId);
+
+    for (String[] link : links) {
+      if (link[0] == null) {
+        continue;
+      }
+      int type = link[1] == null ? 1 : Integer.parseInt(link[1]);
+      BigDecimal lag = null;
+      int format = link[3] == null ? 0 : Integer.parseInt(link[3]);
+      if (link[2] != null && format != LAG_FORMAT_PERCENT && format != LAG_FORMAT_ELAPSED_PERCENT) {
+        // Tenths of minutes
+        lag = toDays(Long.parseLong(link[2]) / 10);
+      }
+      writer.addLink(taskId, link[0], fromProjectType(type), lag, line);
+    }
+  }
+
+  /** Predecessor UID, type, lag and lag format of a {@code PredecessorLink} element */
+  private String[] readProjectLink(XMLStreamReader reader) throws XMLStreamException {
+    String[] link = new String[4];
+    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      switch (reader.getLocalName()) {
+        case "PredecessorUID":
+          link[0] = reader.getElementText().trim();
+          break;
+        case "Type":
+          link[1] = reader.getElementText().trim();
+          break;
+        case "LinkLag":
+          link[2] = reader.getElementText().trim();
+          break;
+        case "LagFormat":
+          link[3] = reader.getElementText().trim();
+          break;
+        default:
+          skipElement(reader);
+      }
+    }
+    return link;
+  }
+
+  private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  /** MS Project numbers its link types 0 = FF, 1 = FS, 2 = SF, 3 = SS */
+  private static int fromProjectType(int type) {
+    switch (type) {
+      case 0:
+        return TaskDependencyRepository.TYPE_FINISH_FINISH;
+      case 2:
+        return TaskDependencyRepository.TYPE_START_FINISH;
+      case 3:
+        return TaskDependencyRepository.TYPE_START_START;
+      default:
+        return TaskDependencyRepository.TYPE_FINISH_START;
+    }
+  }
+
+  private static BigDecimal toDays(long minutes) {
+    return BigDecimal.valueOf(minutes)
+        .divide(BigDecimal.valueOf(MINUTES_PER_DAY), 2, RoundingMode.HALF_UP);
+  }
+
+  /**
+   * Second pass: resolve the parents and predecessors staged while reading, against the tasks of
+   * the project, those already there included.
+   *
+   * @return number of dependencies created
+   */
+  private int resolve(Connection connection, Long projectId) throws SQLException {
+    List<String> duplicates =
+        list(
+            connection,
+            "SELECT external_id FROM axenr_task WHERE project = ? AND external_id IS NOT NULL "
+                + "GROUP BY external_id HAVING COUNT(*) > 1 ORDER BY external_id LIMIT "
+                + MAX_REPORTED,
+            projectId);
+    if (!duplicates.isEmpty()) {
+      throw new IllegalArgumentException(
+          "External ids used by several tasks of the project: " + String.join(", ", duplicates));
+    }
+
+    // External ids first, then the names borne by a single task
+    try (PreparedStatement statement =
+        connection.prepareStatement(
+            "INSERT INTO axenr_import_key (key, task) "
+                + "SELECT DISTINCT ON (key) key, task FROM ("
+                + "SELECT external_id AS key, id AS task, 0 AS rank FROM axenr_task "
+                + "WHERE project = ? AND external_id IS NOT NULL "
+                + "UNION ALL SELECT name, MIN(id), 1 FROM axenr_task WHERE project = ? "
+                + "GROUP BY name HAVING COUNT(*) = 1) keys ORDER BY key, rank")) {
+      statement.setLong(1, projectId);
+      statement.setLong(2, projectId);
+      statement.executeUpdate();
+    }
+
+    List<String> unresolved =
+        list(
+            connection,
+            "SELECT 'line ' || line || ': ' || parent_key FROM axenr_import_parent parent "
+                + "WHERE NOT EXISTS "
+                + "(SELECT 1 FROM axenr_import_key k WHERE k.key = parent.parent_key) "
+                + "ORDER BY line LIMIT "
+                + MAX_REPORTED,
+            null);
+    if (!unresolved.isEmpty()) {
+      throw new IllegalArgumentException(
+          "Unknown or ambiguous parent tasks (" + String.join(", ", unresolved) + ")");
+    }
+    unresolved =
+        list(
+            connection,
+            "SELECT 'line ' || line || ': ' || predecessor_key FROM axenr_import_link link "
+                + "WHERE NOT EXISTS "
+                + "(SELECT 1 FROM axenr_import_key k WHERE k.key = link.predecessor_key) "
+                + "ORDER BY line LIMIT "
+                + MAX_REPORTED,
+            null);
+    if (!unresolved.isEmpty()) {
+      throw new IllegalArgumentException(
+          "Unknown or ambiguous predecessors (" + String.join(", ", unresolved) + ")");
+    }
+
+    try (PreparedStatement statement =
+        connection.prepareStatement(
+            "UPDATE axenr_task task SET parent_task = k.task "
+                + "FROM axenr_import_parent parent JOIN axenr_import_key k "
+                + "ON k.key = parent.parent_key "
+                + "WHERE task.project = ? AND task.id = parent.task")) {
+      statement.setLong(1, projectId);
+      statement.executeUpdate();
+    }
+    // A link named twice is created once, as first written; both its tasks are in the project
+    try (PreparedStatement statement =
+        connection.prepareStatement(
+            "INSERT INTO axenr_task_dependency "
+                + "(id, version, project, predecessor_project, predecessor, successor, "
+                + "type_select, lag) "
+                + "SELECT nextval('axenr_task_dependency_seq'), 0, ?, ?, predecessor, successor, "
+                + "type_select, lag FROM (SELECT DISTINCT ON (k.task, link.successor) "
+                + "k.task AS predecessor, link.successor, link.type_select, link.lag "
+                + "FROM axenr_import_link link JOIN axenr_import_key k "
+                + "ON k.key = link.predecessor_key "
+                + "ORDER BY k.task, link.successor, link.line) links")) {
+      statement.setLong(1, projectId);
+      statement.setLong(2, projectId);
+      return statement.executeUpdate();
+    }
+  }
+
+  /** First column of the rows of a query, taking the project id as its only parameter if any */
+  private List<String> list(Connection connection, String sql, Long projectId)
+      throws SQLException {
+    List<String> values = new ArrayList<>();
+    try (PreparedStatement statement = connection.prepareStatement(sql)) {
+      if (projectId != null) {
+        statement.setLong(1, projectId);
+      }
+      try (ResultSet rows = statement.executeQuery()) {
+        while (rows.next()) {
+          values.add(rows.getString(1));
+        }
+      }
+    }
+    return values;
+  }
+
+  private static String normalize(String header) {
+    return header.replaceAll("[\\s_\\-\\uFEFF]", "").toLowerCase(Locale.ROOT);
+  }
+
+  private static String cell(String[] row, Integer column) {
+    if (column == null || column >= row.length) {
+      return null;
+    }
+    String value = row[column].trim();
+    return value.isEmpty() ? null : value;
+  }
+
+  /** Decimal written with a point or a comma */
+  private static BigDecimal decimal(String value, int line) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      return new BigDecimal(value.replace(',', '.'));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Line " + line + ": invalid number " + value);
+    }
+  }
+
+  /**
+   * Inserts the tasks read, and stages their references, in batches. Task ids are taken from the
+   * sequence ahead of the inserts, so that links can be staged with the id of their successor.
+   */
+  private static class TaskWriter implements AutoCloseable {
+
+    private final Connection connection;
+    private final Long projectId;
+    private final TaskImportProgress progress;
+    private final PreparedStatement insertTask;
+    private final PreparedStatement insertLink;
+    private final PreparedStatement insertParent;
+    private final long[] ids = new long[BATCH_SIZE];
+    private int nextId = BATCH_SIZE;
+    private int pendingTasks;
+    private int pendingLinks;
+    private int pendingParents;
+    private int taskCount;
+
+    TaskWriter(Connection connection, Long projectId, TaskImportProgress progress)
+        throws SQLException {
+      this.connection = connection;
+      this.projectId = projectId;
+      this.progress = progress;
+      this.insertTask =
+          connection.prepareStatement(
+              "INSERT INTO axenr_task (id, version, created_on, project, name, duration, "
+                  + "delay_to_start, parent_task, external_id) "
+                  + "VALUES (?, 0, now(), ?, ?, ?, ?, ?, ?)");
+      this.insertLink =
+          connection.prepareStatement(
+              "INSERT INTO axenr_import_link (successor, predecessor_key, type_select, lag, line) "
+                  + "VALUES (?, ?, ?, ?, ?)");
+      this.insertParent =
+          connection.prepareStatement(
+              "INSERT INTO axenr_import_parent (task, parent_key, line) VALUES (?, ?, ?)");
+    }
+
+    /**
+     * @param parentId parent already inserted, or {@code null}
+     * @param parentKey parent to resolve in the second pass, or {@code null}
+     * @return id of the new task
+     */
+    long addTask(
+        String externalId,
+        String name,
+        BigDecimal duration,
+        BigDecimal delay,
+        Long parentId,
+        String parentKey,
+        int line) {
+      try {
+        long id = nextId();
+        insertTask.setLong(1, id);
+        insertTask.setLong(2, projectId);
+        insertTask.setString(3, name);
+        // Required, but ignored on parent tasks
+        insertTask.setBigDecimal(4, duration != null ? duration : BigDecimal.ZERO);
+        insertTask.setBigDecimal(5, delay);
+        if (parentId != null) {
+          insertTask.setLong(6, parentId);
+        } else {
+          insertTask.setNull(6, Types.BIGINT);
+        }
+        insertTask.setString(7, externalId);
+        insertTask.addBatch();
+        if (++pendingTasks == BATCH_SIZE) {
+          flushTasks();
+        }
+
+        if (parentKey != null) {
+          insertParent.setLong(1, id);
+          insertParent.setString(2, parentKey);
+          insertParent.setInt(3, line);
+          insertParent.addBatch();
+          if (++pendingParents == BATCH_SIZE) {
+            insertParent.executeBatch();
+            pendingParents = 0;
+          }
+        }
+        taskCount++;
+        return id;
+      } catch (SQLException e) {
+        throw new IllegalStateException("Line " + line + ": " + e.getMessage(), e);
+      }
+    }
+
+    void addLink(long successor, String predecessorKey, int type, BigDecimal lag, int line) {
+      try {
+        insertLink.setLong(1, successor);
+        insertLink.setString(2, predecessorKey);
+        insertLink.setInt(3, type);
+        insertLink.setBigDecimal(4, lag);
+        insertLink.setInt(5, line);
+        insertLink.addBatch();
+        if (++pendingLinks == BATCH_SIZE) {
+          insertLink.executeBatch();
+          pendingLinks = 0;
+        }
+      } catch (SQLException e) {
+        throw new IllegalStateException("Line " + line + ": " + e.getMessage(), e);
+      }
+    }
+
+    void setBytesRead(long bytesRead) {
+      progress.setBytesRead(bytesRead);
+    }
+
+    private long nextId() throws SQLException {
+      if (nextId == BATCH_SIZE) {
+        try (PreparedStatement statement =
+            connection.prepareStatement(
+                "SELECT nextval('axenr_task_seq') FROM generate_series(1, ?)")) {
+          statement.setInt(1, BATCH_SIZE);
+          try (ResultSet rows = statement.executeQuery()) {
+            for (int i = 0; i < BATCH_SIZE && rows.next(); i++) {
+              ids[i] = rows.getLong(1);
+            }
+          }
+        }
+        nextId = 0;
+      }
+      return ids[nextId++];
+    }
+
+    private void flushTasks() throws SQLException {
+      insertTask.executeBatch();
+      pendingTasks = 0;
+      progress.setTaskCount(taskCount);
+    }
+
+    @Override
+    public void close() throws SQLException {
+      try {
+        if (pendingTasks > 0) {
+          flushTasks();
+        }
+        if (pendingParents > 0) {
+          insertParent.executeBatch();
+        }
+        if (pendingLinks > 0) {
+          insertLink.executeBatch();
+        }
+        progress.setTaskCount(taskCount);
+      } finally {
+        insertTask.close();
+        insertLink.close();
+        insertParent.close();
+      }
+    }
+  }
+}
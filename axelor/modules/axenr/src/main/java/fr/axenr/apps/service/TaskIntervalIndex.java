@@ -0,0 +1,207 @@
+package fr.axenr.apps.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.LongConsumer;
+
+/**
+ * Date ranges of tasks, indexed to find the tasks in progress on a day or during a period.
+ *
+ * <p>The ranges are kept in a treap, a binary search tree balanced by random priorities, ordered
+ * by start day then task id. Each node also holds the latest end day of its subtree: a search
+ * skips any subtree ending before the period, and the right side of any node starting after it,
+ * so it reads about {@code log(n)} nodes plus those it returns. Inserting or removing a range
+ * costs {@code log(n)}, so the ranges of a project are replaced each time it is planned.
+ *
+ * <p>Days are epoch days, ends included. Not thread-safe.
+ */
+public class TaskIntervalIndex {
+
+  private final Random random;
+  private final Map<Long, Node> byTask = new HashMap<>();
+  private final Map<Long, List<Node>> byProject = new HashMap<>();
+  private Node root;
+
+  public TaskIntervalIndex() {
+    this(new Random());
+  }
+
+  /** Index drawing its priorities from the given generator, for repeatable trees */
+  TaskIntervalIndex(Random random) {
+    this.random = random;
+  }
+
+  public int size() {
+    return byTask.size();
+  }
+
+  /** Replace the range of the task, if it had one */
+  public void put(long taskId, long projectId, int start, int end) {
+    remove(taskId);
+    Node node = new Node(taskId, projectId, start, Math.max(start, end), random.nextInt());
+    root = insert(root, node);
+    byTask.put(taskId, node);
+    byProject.computeIfAbsent(projectId, id -> new ArrayList<>()).add(node);
+  }
+
+  public void remove(long taskId) {
+    Node node = byTask.remove(taskId);
+    if (node != null) {
+      root = delete(root, node.start, taskId);
+    }
+  }
+
+  /** Remove the ranges of all the tasks of the project */
+  public void removeProject(long projectId) {
+    List<Node> nodes = byProject.remove(projectId);
+    if (nodes == null) {
+      return;
+    }
+    for (Node node : nodes) {
+      // The task may have been moved to another project since
+      if (byTask.get(node.taskId) == node) {
+        remove(node.taskId);
+      }
+    }
+  }
+
+  /**
+   * Tasks whose range overlaps the period, in start order.
+   *
+   * @param from first day of the period
+   * @param to last day of the period
+   * @param consumer receives the id of each task found
+   */
+  public void search(int from, int to, LongConsumer consumer) {
+    // Explicit stack: a treap is only balanced on average
+    Deque<Node> stack = new ArrayDeque<>();
+    Node node = root;
+    while (node != null || !stack.isEmpty()) {
+      while (node != null && node.maxEnd >= from) {
+        stack.push(node);
+        node = node.left;
+      }
+      if (stack.isEmpty()) {
+        return;
+      }
+      node = stack.pop();
+      if (node.start > to) {
+        // Every node left to visit starts even later
+        return;
+      }
+      if (node.end >= from) {
+        consumer.accept(node.taskId);
+      }
+      node = node.right;
+    }
+  }
+
+  /** Number of tasks whose range overlaps the period */
+  public int count(int from, int to) {
+    int[] count = {0};
+    search(from, to, taskId -> count[0]++);
+    return count[0];
+  }
+
+  private Node insert(Node node, Node added) {
+    if (node == null) {
+      return added;
+    }
+    if (compare(added.start, added.taskId, node) < 0) {
+      node.left = insert(node.left, added);
+      if (node.left.priority > node.priority) {
+        node = rotateRight(node);
+      }
+    } else {
+      node.right = insert(node.right, added);
+      if (node.right.priority > node.priority) {
+        node = rotateLeft(node);
+      }
+    }
+    node.update();
+    return node;
+  }
+
+  private Node delete(Node node, int start, long taskId) {
+    if (node == null) {
+      return null;
+    }
+    int comparison = compare(start, taskId, node);
+    if (comparison < 0) {
+      node.left = delete(node.left, start, taskId);
+    } else if (comparison > 0) {
+      node.right = delete(node.right, start, taskId);
+    } else if (node.left == null) {
+      return node.right;
+    } else if (node.right == null) {
+      return node.left;
+    } else if (node.left.priority > node.right.priority) {
+      node = rotateRight(node);
+      node.right = delete(node.right, start, taskId);
+    } else {
+      node = rotateLeft(node);
+      node.left = delete(node.left, start, taskId);
+    }
+    node.update();
+    return node;
+  }
+
+  private static int compare(int start, long taskId, Node node) {
+    int comparison = Integer.compare(start, node.start);
+    return comparison != 0 ? comparison : Long.compare(taskId, node.taskId);
+  }
+
+  private static Node rotateRight(Node node) {
+    Node left = node.left;
+    node.left = left.right;
+    left.right = node;
+    node.update();
+    left.update();
+    return left;
+  }
+
+  private static Node rotateLeft(Node node) {
+    Node right = node.right;
+    node.right = right.left;
+    right.left = node;
+    node.update();
+    right.update();
+    return right;
+  }
+
+  private static class Node {
+    final long taskId;
+    final long projectId;
+    final int start;
+    final int end;
+    final int priority;
+    int maxEnd;
+    Node left;
+    Node right;
+
+    Node(long taskId, long projectId, int start, int end, int priority) {
+      this.taskId = taskId;
+      this.projectId = projectId;
+      this.start = start;
+      this.end = end;
+      this.priority = priority;
+      this.maxEnd = end;
+    }
+
+    void update() {
+      int max = end;
+      if (left != null && left.maxEnd > max) {
+        max = left.maxEnd;
+      }
+      if (right != null && right.maxEnd > max) {
+        max = right.maxEnd;
+      }
+      maxEnd = max;
+    }
+  }
+}
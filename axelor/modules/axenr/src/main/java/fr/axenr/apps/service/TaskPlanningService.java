@@ -1,230 +1,345 @@
 package fr.axenr.apps.service;
 
 import com.axelor.db.JPA;
+import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.google.inject.persist.Transactional;
 import fr.axenr.apps.db.Project;
-import fr.axenr.apps.db.Task;
+import fr.axenr.apps.service.graph.ConstraintViolation;
+import fr.axenr.apps.service.graph.PlanConstraints;
+import fr.axenr.apps.service.graph.PlanSchedule;
+import fr.axenr.apps.service.graph.PlanningEngine;
+import fr.axenr.apps.service.graph.ProjectGraph;
+import fr.axenr.apps.service.graph.ProjectGraphStore;
+import java.lang.invoke.MethodHandles;
 import java.time.LocalDate;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 @Singleton
 public class TaskPlanningService {
 
-  @Transactional
-  public void computeDates(Project project) {
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final String OPERATION_FORWARD = "computeDates";
+  private static final String OPERATION_BACKWARD = "computeDatesBackward";
+
+  private final PlanningLockService planningLockService;
+  private final PlanningClusterService planningClusterService;
+  private final ProjectGraphStore projectGraphStore;
+  private final ProjectGraphRegistry projectGraphRegistry;
+  private final PlanBaselineService planBaselineService;
+  private final ProjectSummaryService projectSummaryService;
+  private final PlanSnapshotStore planSnapshotStore;
+  private final CrossProjectLinkService crossProjectLinkService;
+
+  @Inject
+  public TaskPlanningService(
+      PlanningLockService planningLockService,
+      PlanningClusterService planningClusterService,
+      ProjectGraphStore projectGraphStore,
+      ProjectGraphRegistry projectGraphRegistry,
+      PlanBaselineService planBaselineService,
+      ProjectSummaryService projectSummaryService,
+      PlanSnapshotStore planSnapshotStore,
+      CrossProjectLinkService crossProjectLinkService) {
+    this.planningLockService = planningLockService;
+    this.planningClusterService = planningClusterService;
+    this.projectGraphStore = projectGraphStore;
+    this.projectGraphRegistry = projectGraphRegistry;
+    this.planBaselineService = planBaselineService;
+    this.projectSummaryService = projectSummaryService;
+    this.planSnapshotStore = planSnapshotStore;
+    this.crossProjectLinkService = crossProjectLinkService;
+  }
+
+  /**
+   * Compute task dates forward from the project start date.
+   *
+   * <p>Concurrent calls for the same project are serialized, on this node and across the cluster,
+   * and a call arriving while the same computation is running waits for it instead of computing
+   * again.
+   *
+   * <p>When the project levels its resources, tasks are also delayed until their resources are
+   * free, taking into account the tasks of other projects already planned on them.
+   *
+   * <p>Tasks start no earlier than their date constraints and their predecessors in other
+   * projects allow; the projects waiting on this one are not planned again here, see {@link
+   * #propagate}. Deadlines and must start on dates the plan misses are stored on the project.
+   *
+   * @return the project dates and the tasks that moved
+   */
+  public PlanDiff computeDates(Project project) {
     // Validate project
     if (project == null) {
       throw new IllegalArgumentException("Project cannot be null");
     }
 
-    if (project.getStartDate() == null) {
-      throw new IllegalArgumentException("Project start date is required");
-    }
+    return planningLockService.runExclusive(
+        project.getId(),
+        OPERATION_FORWARD,
+        () -> {
+          PlanDiff[] diff = {null};
+          JPA.runInTransaction(() -> diff[0] = computeDatesLocked(project.getId()));
+          return diff[0];
+        });
+  }
 
-    // Initialize task list (handle lazy loading)
-    List<Task> tasks = project.getTaskList();
-    if (tasks == null || tasks.isEmpty()) {
-      throw new IllegalArgumentException("Project has no tasks");
-    }
+  /**
+   * Compute task dates forward, always from the rows committed so far: unlike {@link
+   * #computeDates}, never joins a computation already running, which may have read the rows
+   * before the last edit.
+   *
+   * <p>The project lock is reentrant: a caller holding it through {@link
+   * PlanningLockService#runLocked} plans its own edit here, once committed, before letting
+   * anything else in. Joining a running computation instead would wait on a computation itself
+   * waiting for that lock.
+   *
+   * @return the project dates and the tasks that moved
+   */
+  public PlanDiff replan(Long projectId) {
+    return planningLockService.runLocked(
+        projectId,
+        () -> {
+          PlanDiff[] diff = {null};
+          JPA.runInTransaction(() -> diff[0] = computeDatesLocked(projectId));
+          return diff[0];
+        });
+  }
 
-    // Make a copy and clear existing dates for recalculation
-    List<Task> tasksCopy = new ArrayList<>(tasks);
-    for (Task task : tasksCopy) {
-      task.setStartDate(null);
-      task.setEndDate(null);
-    }
+  /** Forward computation, run while holding the project lock */
+  private PlanDiff computeDatesLocked(Long projectId) {
+    planningClusterService.lockProject(projectId);
+    Project project = loadProject(projectId);
 
-    // Detect circular dependencies
-    if (hasCircularDependency(tasksCopy)) {
-      throw new IllegalStateException("Circular dependency detected in task dependencies");
+    if (project.getStartDate() == null) {
+      throw new IllegalArgumentException("Project start date is required");
     }
 
-    // Sort tasks by dependencies (topological sort)
-    List<Task> sortedTasks = topologicalSort(tasksCopy);
+    // Compile the dependency graph (fails on circular dependencies)
+    ProjectGraph graph = loadGraph(project);
+    PlanSchedule stored = loadStoredSchedule(graph);
 
-    // Calculate dates for each task
-    LocalDate projectEndDate = project.getStartDate();
-    for (Task task : sortedTasks) {
-      calculateTaskDates(task, project.getStartDate());
-
-      // Update project end date
-      if (task.getEndDate() != null && task.getEndDate().isAfter(projectEndDate)) {
-        projectEndDate = task.getEndDate();
-      }
-    }
+    // Calculate dates and total float for each task
+    LocalDate projectStartDate = project.getStartDate();
+    int projectStart = graph.dayStart(projectStartDate);
+    PlanConstraints constraints = projectGraphStore.loadConstraints(graph);
+    PlanSchedule computed =
+        Boolean.TRUE.equals(project.getResourceLeveling())
+            ? PlanningEngine.level(
+                graph, projectStart, projectGraphStore.loadResources(graph), constraints)
+            : PlanningEngine.forward(graph, projectStart, constraints);
 
     // Update project end date
-    project.setEndDate(projectEndDate);
+    LocalDate projectEndDate = computed.getMaxEndDate();
+    if (projectEndDate == null || projectEndDate.isBefore(projectStartDate)) {
+      projectEndDate = projectStartDate;
+    }
 
     // Persist changes
-    JPA.save(project);
+    projectGraphStore.writeSchedule(graph, stored, computed);
+    long planVersion =
+        projectGraphStore.writeProjectDates(project.getId(), projectStartDate, projectEndDate);
+    PlanViolations violations = collectViolations(graph, computed, true);
+    projectGraphStore.writeConstraintViolations(
+        project.getId(), violations != null ? violations.toJson() : null);
+    projectGraphRegistry.putScheduleOnCommit(graph, planVersion, computed);
+    planSnapshotStore.saveOnCommit(graph, computed);
+    planBaselineService.updateVariance(project.getId());
+    projectSummaryService.refresh(project.getId());
+    planningClusterService.publishPlanUpdated(project.getId());
+    return diff(graph, stored, computed, projectStartDate, projectEndDate, violations);
   }
 
-  /** Calculate start and end dates for a single task */
-  private void calculateTaskDates(Task task, LocalDate projectStartDate) {
-    if (task.getStartDate() != null) {
-      return; // Already calculated
-    }
-
-    LocalDate startDate;
-    if (task.getDependOf() == null) {
-      // No dependency: start at project start date
-      startDate = projectStartDate;
-    } else {
-      // Has dependency: start after parent task end date + delay
-      Task parent = task.getDependOf();
-      if (parent.getEndDate() == null) {
-        calculateTaskDates(parent, projectStartDate);
-      }
-
-      int delayBeforeStart = task.getDelayToStart() != null ? task.getDelayToStart().intValue() : 0;
-      startDate = parent.getEndDate().plusDays(delayBeforeStart);
+  /**
+   * BONUS: Compute dates backward from project end date (retroplanning)
+   *
+   * @return the project dates and the tasks that moved
+   */
+  public PlanDiff computeDatesBackward(Project project) {
+    if (project == null) {
+      throw new IllegalArgumentException("Project cannot be null");
     }
 
-    task.setStartDate(startDate);
-
-    int duration = task.getDuration() != null ? task.getDuration().intValue() : 1;
-    task.setEndDate(startDate.plusDays(duration - 1));
+    return planningLockService.runExclusive(
+        project.getId(),
+        OPERATION_BACKWARD,
+        () -> {
+          PlanDiff[] diff = {null};
+          JPA.runInTransaction(() -> diff[0] = computeDatesBackwardLocked(project.getId()));
+          return diff[0];
+        });
   }
 
-  /** Sort tasks using topological sort (respects dependencies) */
-  private List<Task> topologicalSort(List<Task> tasks) {
-    List<Task> sorted = new ArrayList<>();
-    Set<Task> visited = new HashSet<>();
-    Set<Task> visiting = new HashSet<>();
+  /** Backward computation, run while holding the project lock */
+  private PlanDiff computeDatesBackwardLocked(Long projectId) {
+    planningClusterService.lockProject(projectId);
+    Project project = loadProject(projectId);
 
-    for (Task task : tasks) {
-      if (!visited.contains(task)) {
-        topologicalSortDFS(task, visited, visiting, sorted);
-      }
+    if (project.getEndDate() == null) {
+      throw new IllegalArgumentException("Project end date is required for retroplanning");
     }
 
-    Collections.reverse(sorted);
-    return sorted;
-  }
+    ProjectGraph graph = loadGraph(project);
+    PlanSchedule stored = loadStoredSchedule(graph);
 
-  /** Depth-first search for topological sort */
-  private void topologicalSortDFS(
-      Task task, Set<Task> visited, Set<Task> visiting, List<Task> sorted) {
-    visiting.add(task);
+    // Calculate dates and total float backward
+    LocalDate projectEndDate = project.getEndDate();
+    PlanSchedule computed =
+        PlanningEngine.backward(
+            graph, graph.dayEnd(projectEndDate), projectGraphStore.loadConstraints(graph));
 
-    if (task.getDependOf() != null && !visited.contains(task.getDependOf())) {
-      if (visiting.contains(task.getDependOf())) {
-        throw new IllegalStateException("Circular dependency detected!");
-      }
-      topologicalSortDFS(task.getDependOf(), visited, visiting, sorted);
+    // Update project start date
+    LocalDate projectStartDate = computed.getMinStartDate();
+    if (projectStartDate == null || projectStartDate.isAfter(projectEndDate)) {
+      projectStartDate = projectEndDate;
     }
 
-    visiting.remove(task);
-    visited.add(task);
-    sorted.add(task);
-  }
-
-  /** Check if there are circular dependencies in the task list */
-  private boolean hasCircularDependency(List<Task> tasks) {
-    try {
-      topologicalSort(tasks);
-      return false;
-    } catch (IllegalStateException e) {
-      return true;
-    }
+    // Persist changes
+    projectGraphStore.writeSchedule(graph, stored, computed);
+    long planVersion =
+        projectGraphStore.writeProjectDates(project.getId(), projectStartDate, projectEndDate);
+    PlanViolations violations = collectViolations(graph, computed, false);
+    projectGraphStore.writeConstraintViolations(
+        project.getId(), violations != null ? violations.toJson() : null);
+    projectGraphRegistry.putScheduleOnCommit(graph, planVersion, computed);
+    planSnapshotStore.saveOnCommit(graph, computed);
+    planBaselineService.updateVariance(project.getId());
+    projectSummaryService.refresh(project.getId());
+    planningClusterService.publishPlanUpdated(project.getId());
+    return diff(graph, stored, computed, projectStartDate, projectEndDate, violations);
   }
 
-  /** BONUS: Compute dates backward from project end date (retroplanning) */
-  @Transactional
-  public void computeDatesBackward(Project project) {
-    if (project == null) {
-      throw new IllegalArgumentException("Project cannot be null");
-    }
-
-    if (project.getTaskList() == null || project.getTaskList().isEmpty()) {
-      throw new IllegalArgumentException("Project has no tasks");
-    }
-
-    if (project.getEndDate() == null) {
-      throw new IllegalArgumentException("Project end date is required for retroplanning");
+  /**
+   * Plan again the projects waiting on tasks of the project that moved, and so on downstream.
+   *
+   * <p>Projects are visited once each, in an order where every project comes after the projects
+   * it waits on, so none is planned before its predecessors settled. A project is planned only
+   * when one of the tasks it waits on actually moved, and only the projects waiting on its own
+   * moved tasks follow; each is planned forward in its own transaction, under its own lock,
+   * through {@link #replan}: a computation of it already running may have read the dates of the
+   * tasks it waits on before they moved. A project that cannot be planned, without start date for
+   * instance, is skipped along with what only depended on it.
+   *
+   * @param taskIds tasks of the project that moved, {@code null} for any task
+   * @return number of projects planned again
+   */
+  public int propagate(Long projectId, Collection<Long> taskIds) {
+    Set<Long> pending =
+        new LinkedHashSet<>(crossProjectLinkService.findDownstream(projectId, taskIds));
+    if (pending.isEmpty()) {
+      return 0;
     }
-
-    List<Task> tasks = new ArrayList<>(project.getTaskList());
-
-    // Detect circular dependencies
-    if (hasCircularDependency(tasks)) {
-      throw new IllegalStateException("Circular dependency detected in task dependencies");
+    int planned = 0;
+    for (Long downstreamId : crossProjectLinkService.downstreamOrder(projectId)) {
+      if (!pending.remove(downstreamId)) {
+        continue;
+      }
+      PlanDiff diff;
+      try {
+        diff = replan(downstreamId);
+      } catch (RuntimeException e) {
+        LOG.warn(
+            "Replanning of project {} after project {} failed: {}",
+            downstreamId,
+            projectId,
+            e.getMessage());
+        continue;
+      }
+      planned++;
+      pending.addAll(crossProjectLinkService.findDownstream(downstreamId, diff.getTaskIds()));
     }
+    LOG.debug("Planned {} projects again after project {}", planned, projectId);
+    return planned;
+  }
 
-    // Sort tasks in reverse order for backward calculation
-    List<Task> sortedTasks = topologicalSort(tasks);
-    Collections.reverse(sortedTasks);
-
-    // Build dependent tasks map (reverse dependencies)
-    Map<Task, List<Task>> dependentsMap = buildDependentsMap(tasks);
-
-    // Calculate dates backward
-    LocalDate projectStartDate = project.getEndDate();
-    for (Task task : sortedTasks) {
-      calculateTaskDatesBackward(task, project.getEndDate(), dependentsMap);
-
-      if (task.getStartDate() != null && task.getStartDate().isBefore(projectStartDate)) {
-        projectStartDate = task.getStartDate();
+  /** Tasks whose dates or float differ between the stored and the computed schedules */
+  private PlanDiff diff(
+      ProjectGraph graph,
+      PlanSchedule stored,
+      PlanSchedule computed,
+      LocalDate startDate,
+      LocalDate endDate,
+      PlanViolations violations) {
+    List<Long> moved = new ArrayList<>();
+    for (int i = 0; i < graph.size(); i++) {
+      if (!computed.sameAs(i, stored)) {
+        moved.add(graph.getTaskId(i));
       }
     }
-
-    // Update project start date
-    project.setStartDate(projectStartDate);
-
-    // Persist changes
-    JPA.save(project);
+    return new PlanDiff(graph.getProjectId(), startDate, endDate, moved, violations);
   }
 
-  /** Calculate task dates backward (from end date) */
-  private void calculateTaskDatesBackward(
-      Task task, LocalDate projectEndDate, Map<Task, List<Task>> dependentsMap) {
-    if (task.getEndDate() != null) {
-      return; // Already calculated
+  /**
+   * The constraints the computed plan misses, with the chain of tasks causing each, {@code null}
+   * when all are met.
+   *
+   * @param forward whether the plan was computed forward, chains then lead to the task
+   */
+  private PlanViolations collectViolations(
+      ProjectGraph graph, PlanSchedule computed, boolean forward) {
+    List<ConstraintViolation> violations = computed.getViolations();
+    if (violations.isEmpty()) {
+      return null;
     }
-
-    List<Task> dependents = dependentsMap.get(task);
-    LocalDate endDate;
-
-    if (dependents == null || dependents.isEmpty()) {
-      // No dependents: end at project end date
-      endDate = projectEndDate;
-    } else {
-      // Has dependents: end before the earliest dependent start date
-      LocalDate earliestDependentStart = null;
-      for (Task dependent : dependents) {
-        if (dependent.getStartDate() == null) {
-          calculateTaskDatesBackward(dependent, projectEndDate, dependentsMap);
-        }
-
-        int delayBeforeStart =
-            dependent.getDelayToStart() != null ? dependent.getDelayToStart().intValue() : 0;
-        LocalDate calculatedEnd = dependent.getStartDate().minusDays(delayBeforeStart);
-
-        if (earliestDependentStart == null || calculatedEnd.isBefore(earliestDependentStart)) {
-          earliestDependentStart = calculatedEnd;
-        }
+    Set<Long> taskIds = new LinkedHashSet<>();
+    for (ConstraintViolation violation : violations) {
+      taskIds.add(violation.getTaskId());
+      for (long taskId : violation.getPath()) {
+        taskIds.add(taskId);
       }
-      endDate = earliestDependentStart;
     }
-
-    task.setEndDate(endDate);
-
-    int duration = task.getDuration() != null ? task.getDuration().intValue() : 1;
-    task.setStartDate(endDate.minusDays(duration - 1));
+    Map<Long, String> names = projectGraphStore.loadTaskNames(graph.getProjectId(), taskIds);
+
+    List<PlanViolations.Violation> named = new ArrayList<>();
+    for (ConstraintViolation violation : violations) {
+      List<String> path =
+          Arrays.stream(violation.getPath())
+              .mapToObj(taskId -> names.getOrDefault(taskId, "#" + taskId))
+              .collect(Collectors.toList());
+      named.add(
+          new PlanViolations.Violation(
+              violation.getType(),
+              names.getOrDefault(violation.getTaskId(), "#" + violation.getTaskId()),
+              violation.getDays(),
+              path));
+    }
+    return new PlanViolations(forward, named, computed.getViolationCount() - violations.size());
   }
 
-  /** Build a map of tasks to their dependent tasks (reverse dependency lookup) */
-  private Map<Task, List<Task>> buildDependentsMap(List<Task> tasks) {
-    Map<Task, List<Task>> dependentsMap = new HashMap<>();
+  /** Dates currently stored for the graph, from memory when this node wrote them last */
+  private PlanSchedule loadStoredSchedule(ProjectGraph graph) {
+    long planVersion = projectGraphStore.loadPlanVersion(graph.getProjectId());
+    PlanSchedule stored = projectGraphRegistry.getSchedule(graph, planVersion);
+    return stored != null ? stored : projectGraphStore.loadSchedule(graph);
+  }
 
-    for (Task task : tasks) {
-      if (task.getDependOf() != null) {
-        dependentsMap.computeIfAbsent(task.getDependOf(), k -> new ArrayList<>()).add(task);
-      }
+  /**
+   * The project as committed, once its lock is held: its dates are written over JDBC, by the
+   * computation this call may have waited for among others, so the entity of the caller can be
+   * stale
+   */
+  private Project loadProject(Long projectId) {
+    Project project = JPA.find(Project.class, projectId);
+    if (project == null) {
+      throw new IllegalArgumentException("Unknown project " + projectId);
     }
+    JPA.em().refresh(project);
+    return project;
+  }
 
-    return dependentsMap;
+  private ProjectGraph loadGraph(Project project) {
+    ProjectGraph graph = projectGraphRegistry.get(project.getId());
+    if (graph.size() == 0) {
+      throw new IllegalArgumentException("Project has no tasks");
+    }
+    return graph;
   }
 }
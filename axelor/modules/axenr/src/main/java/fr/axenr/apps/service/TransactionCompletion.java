@@ -0,0 +1,36 @@
+package fr.axenr.apps.service;
+
+import com.axelor.db.JPA;
+import java.util.function.Consumer;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+/** Runs code once the current transaction is over, for in-memory state that mirrors the rows */
+final class TransactionCompletion {
+
+  private TransactionCompletion() {}
+
+  /**
+   * Call {@code action} with {@code true} once the current transaction commits, {@code false}
+   * once it rolls back. Without an active transaction, it is called right away with {@code true}.
+   */
+  static void register(Consumer<Boolean> action) {
+    Transaction transaction = JPA.em().unwrap(Session.class).getTransaction();
+    if (!transaction.isActive()) {
+      action.accept(true);
+      return;
+    }
+    transaction.registerSynchronization(
+        new Synchronization() {
+          @Override
+          public void beforeCompletion() {}
+
+          @Override
+          public void afterCompletion(int status) {
+            action.accept(status == Status.STATUS_COMMITTED);
+          }
+        });
+  }
+}
@@ -0,0 +1,130 @@
+package fr.axenr.apps.service.graph;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Task dates of a project frozen at a point in time, stored as a single blob.
+ *
+ * <p>The blob holds three columns, one after the other, each written in full before the next: the
+ * task ids in ascending order as gaps from the previous id, the start dates as epoch days, then
+ * the length of each task in days. Gaps and lengths are small, repetitive values, so the deflated
+ * blob of a large project stays within a few bytes per task.
+ */
+public class BaselineSnapshot {
+
+  private static final int FORMAT = 1;
+
+  private final long[] taskIds;
+  private final int[] start;
+  private final int[] end;
+
+  /**
+   * @param taskIds task ids, sorted in ascending order
+   * @param start start of each task as an epoch day, {@link PlanSchedule#UNSET} when empty
+   * @param end end of each task as an epoch day, {@link PlanSchedule#UNSET} when empty
+   */
+  public BaselineSnapshot(long[] taskIds, int[] start, int[] end) {
+    this.taskIds = taskIds;
+    this.start = start;
+    this.end = end;
+  }
+
+  public int size() {
+    return taskIds.length;
+  }
+
+  public byte[] encode() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + taskIds.length * 4);
+    try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+      out.writeInt(FORMAT);
+      out.writeInt(taskIds.length);
+      long previous = 0;
+      for (long id : taskIds) {
+        out.writeLong(id - previous);
+        previous = id;
+      }
+      for (int value : start) {
+        out.writeInt(value);
+      }
+      for (int i = 0; i < end.length; i++) {
+        out.writeInt(
+            end[i] == PlanSchedule.UNSET || start[i] == PlanSchedule.UNSET
+                ? PlanSchedule.UNSET
+                : end[i] - start[i]);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  public static BaselineSnapshot decode(byte[] data) {
+    try (DataInputStream in =
+        new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+      int format = in.readInt();
+      if (format != FORMAT) {
+        throw new IllegalStateException("Unsupported baseline format " + format);
+      }
+      int size = in.readInt();
+      long[] taskIds = new long[size];
+      int[] start = new int[size];
+      int[] end = new int[size];
+      long previous = 0;
+      for (int i = 0; i < size; i++) {
+        previous += in.readLong();
+        taskIds[i] = previous;
+      }
+      for (int i = 0; i < size; i++) {
+        start[i] = in.readInt();
+      }
+      for (int i = 0; i < size; i++) {
+        int length = in.readInt();
+        end[i] = length == PlanSchedule.UNSET ? PlanSchedule.UNSET : start[i] + length;
+      }
+      return new BaselineSnapshot(taskIds, start, end);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Compare current dates with the baseline in one merge pass over both id columns.
+   *
+   * <p>The variances are written into {@code startVariance} and {@code finishVariance}, in days,
+   * {@link PlanSchedule#UNSET} for a task missing from the baseline or without dates.
+   *
+   * @param currentIds ids of the current tasks, sorted in ascending order
+   * @param currentStart current start of each task as an epoch day
+   * @param currentEnd current end of each task as an epoch day
+   */
+  public void variance(
+      long[] currentIds,
+      int[] currentStart,
+      int[] currentEnd,
+      int[] startVariance,
+      int[] finishVariance) {
+    int b = 0;
+    for (int i = 0; i < currentIds.length; i++) {
+      long id = currentIds[i];
+      while (b < taskIds.length && taskIds[b] < id) {
+        b++;
+      }
+      boolean found = b < taskIds.length && taskIds[b] == id;
+      startVariance[i] = found ? difference(currentStart[i], start[b]) : PlanSchedule.UNSET;
+      finishVariance[i] = found ? difference(currentEnd[i], end[b]) : PlanSchedule.UNSET;
+    }
+  }
+
+  private static int difference(int current, int baseline) {
+    return current == PlanSchedule.UNSET || baseline == PlanSchedule.UNSET
+        ? PlanSchedule.UNSET
+        : current - baseline;
+  }
+}
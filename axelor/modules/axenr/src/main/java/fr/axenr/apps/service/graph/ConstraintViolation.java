@@ -0,0 +1,52 @@
+package fr.axenr.apps.service.graph;
+
+/**
+ * A constraint the plan cannot meet, with the chain of tasks that drives the task past it.
+ *
+ * <p>The chain is read from the driving link each scheduling pass records for every node, so it
+ * costs the length of the chain, not another pass.
+ */
+public class ConstraintViolation {
+
+  public enum Type {
+    /** Ends after its finish no later than */
+    DEADLINE,
+    /** Does not start on its must start on */
+    MUST_START_ON,
+    /** Planned backward, starts before its start no earlier than or its predecessors elsewhere */
+    EARLIEST_START
+  }
+
+  private final Type type;
+  private final long taskId;
+  private final int days;
+  private final long[] path;
+
+  ConstraintViolation(Type type, long taskId, int days, long[] path) {
+    this.type = type;
+    this.taskId = taskId;
+    this.days = days;
+    this.path = path;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public long getTaskId() {
+    return taskId;
+  }
+
+  /** Days by which the constraint is missed, rounded up */
+  public int getDays() {
+    return days;
+  }
+
+  /**
+   * Tasks driving the violation, in plan order: from the first task of the chain to the task for
+   * a deadline or a must start on, from the task to the last task of the chain otherwise
+   */
+  public long[] getPath() {
+    return path;
+  }
+}
@@ -0,0 +1,124 @@
+package fr.axenr.apps.service.graph;
+
+import java.util.Arrays;
+
+/**
+ * Date constraints of the tasks of a {@link ProjectGraph}, as bounds on the start of its nodes.
+ *
+ * <p>A start no earlier than, and the predecessors a task has in other projects, give its node an
+ * earliest start; a finish no later than gives the node ending the task a latest start, its
+ * finish gate for a summary task; a must start on gives both. The scheduling passes take the
+ * bound of each node along with its links, so constraints cost nothing beyond the passes.
+ *
+ * <p>Bounds are kept apart from the graph: they are read each time the project is planned, while
+ * the compiled graph only changes with the links and the durations.
+ */
+public class PlanConstraints {
+
+  /** No earliest start */
+  static final int NO_EARLIEST = Integer.MIN_VALUE;
+
+  /** No latest start */
+  static final int NO_LATEST = Integer.MAX_VALUE;
+
+  private final ProjectGraph graph;
+
+  /** Earliest and latest start of each node, {@code null} while none is set */
+  int[] earliest;
+
+  int[] latest;
+
+  /** Deadline and must start on of each task, in units, as entered */
+  int[] deadline;
+
+  int[] mustStart;
+
+  /** Tasks with at least one constraint, in the order they were given, then their count */
+  int[] constrained = new int[8];
+
+  int constrainedCount;
+
+  private boolean[] listed;
+
+  public PlanConstraints(ProjectGraph graph) {
+    this.graph = graph;
+  }
+
+  public boolean isEmpty() {
+    return constrainedCount == 0;
+  }
+
+  /** Task starts on the unit or later */
+  public void startNoEarlierThan(int task, int unit) {
+    raiseEarliest(task, unit);
+  }
+
+  /** Task cannot start before the unit, because of a predecessor in another project */
+  public void waitFor(int task, int unit) {
+    raiseEarliest(task, unit);
+  }
+
+  /** Task starts on the unit, neither earlier nor later */
+  public void mustStartOn(int task, int unit) {
+    if (mustStart == null) {
+      mustStart = filled(graph.size(), PlanSchedule.UNSET);
+    }
+    mustStart[task] = unit;
+    raiseEarliest(task, unit);
+    lowerLatest(task, unit);
+  }
+
+  /**
+   * Task ends before the unit.
+   *
+   * @param end first unit after the task, ends being exclusive
+   */
+  public void finishNoLaterThan(int task, int end) {
+    if (deadline == null) {
+      deadline = filled(graph.size(), PlanSchedule.UNSET);
+    }
+    deadline[task] = deadline[task] == PlanSchedule.UNSET ? end : Math.min(deadline[task], end);
+    int node = endNode(task);
+    lowerLatest(node, end - graph.duration[node]);
+    list(task);
+  }
+
+  /** Node whose start is the end of the task: its finish gate for a summary task */
+  int endNode(int task) {
+    return graph.finishGate[task] >= 0 ? graph.finishGate[task] : task;
+  }
+
+  private void raiseEarliest(int node, int unit) {
+    if (earliest == null) {
+      earliest = filled(graph.nodeCount(), NO_EARLIEST);
+    }
+    earliest[node] = Math.max(earliest[node], unit);
+    list(node);
+  }
+
+  private void lowerLatest(int node, int unit) {
+    if (latest == null) {
+      latest = filled(graph.nodeCount(), NO_LATEST);
+    }
+    latest[node] = Math.min(latest[node], unit);
+  }
+
+  private void list(int task) {
+    if (listed == null) {
+      listed = new boolean[graph.size()];
+    }
+    if (!listed[task]) {
+      listed[task] = true;
+      if (constrainedCount == constrained.length) {
+        constrained = Arrays.copyOf(constrained, constrainedCount * 2);
+      }
+      constrained[constrainedCount++] = task;
+    }
+  }
+
+  private static int[] filled(int size, int value) {
+    int[] values = new int[size];
+    Arrays.fill(values, value);
+    return values;
+  }
+}
@@ -0,0 +1,145 @@
+package fr.axenr.apps.service.graph;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Start and end of every task of a {@link ProjectGraph}, with the total float of each task.
+ *
+ * <p>Values are stored in the time units of the graph, counted from the epoch, ends being
+ * exclusive. They are mapped back to dates, whose ends are inclusive, only when read.
+ */
+public class PlanSchedule {
+
+  /** Marks a task without date or without float */
+  public static final int UNSET = Integer.MIN_VALUE;
+
+  private static final int DAY_SCALE = 2;
+
+  private final int unitsPerDay;
+
+  final int[] start;
+  final int[] end;
+  final int[] totalFloat;
+
+  /** Constraints the computed plan misses, the first ones only, then the count of all */
+  List<ConstraintViolation> violations = Collections.emptyList();
+
+  int violationCount;
+
+  public PlanSchedule(int size, int unitsPerDay) {
+    this.unitsPerDay = unitsPerDay;
+    this.start = new int[size];
+    this.end = new int[size];
+    this.totalFloat = new int[size];
+    Arrays.fill(totalFloat, UNSET);
+  }
+
+  public LocalDate getStartDate(int index) {
+    return toDate(startDay(index));
+  }
+
+  public LocalDate getEndDate(int index) {
+    return toDate(endDay(index));
+  }
+
+  public void setDates(int index, LocalDate startDate, LocalDate endDate) {
+    start[index] = startDate == null ? UNSET : toUnit(startDate.toEpochDay());
+    end[index] = endDate == null ? UNSET : toUnit(endDate.toEpochDay() + 1);
+  }
+
+  /** Duration of the task in days */
+  public BigDecimal getDuration(int index) {
+    return toDays(end[index] - start[index]);
+  }
+
+  /** Total float of the task in days, or {@code null} if it has not been computed */
+  public BigDecimal getTotalFloat(int index) {
+    return totalFloat[index] == UNSET ? null : toDays(totalFloat[index]);
+  }
+
+  public void setTotalFloat(int index, BigDecimal days) {
+    totalFloat[index] = days == null ? UNSET : ProjectGraph.toUnits(days, unitsPerDay);
+  }
+
+  /** Whether the task has the same dates and the same float in both schedules */
+  public boolean sameAs(int index, PlanSchedule other) {
+    return startDay(index) == other.startDay(index)
+        && endDay(index) == other.endDay(index)
+        && totalFloat[index] == other.totalFloat[index];
+  }
+
+  /**
+   * Constraints the computed plan misses, up to {@link PlanningEngine#MAX_VIOLATIONS}; empty for
+   * stored schedules
+   */
+  public List<ConstraintViolation> getViolations() {
+    return violations;
+  }
+
+  /** Number of constraints the computed plan misses, reported or not */
+  public int getViolationCount() {
+    return violationCount;
+  }
+
+  /** Earliest start of all tasks, or {@code null} if there is none */
+  public LocalDate getMinStartDate() {
+    int min = minStart();
+    return min == UNSET ? null : toDate(Math.floorDiv(min, unitsPerDay));
+  }
+
+  /** Latest end of all tasks, or {@code null} if there is none */
+  public LocalDate getMaxEndDate() {
+    int max = maxEnd();
+    return max == UNSET ? null : toDate(Math.floorDiv(max - 1, unitsPerDay));
+  }
+
+  int minStart() {
+    int min = UNSET;
+    for (int value : start) {
+      if (value != UNSET && (min == UNSET || value < min)) {
+        min = value;
+      }
+    }
+    return min;
+  }
+
+  int maxEnd() {
+    int max = UNSET;
+    for (int value : end) {
+      if (value > max) {
+        max = value;
+      }
+    }
+    return max;
+  }
+
+  private int startDay(int index) {
+    return start[index] == UNSET ? UNSET : Math.floorDiv(start[index], unitsPerDay);
+  }
+
+  /** Last day worked on the task, its start day for a milestone */
+  private int endDay(int index) {
+    if (end[index] == UNSET) {
+      return UNSET;
+    }
+    return Math.max(startDay(index), Math.floorDiv(end[index] - 1, unitsPerDay));
+  }
+
+  private int toUnit(long epochDay) {
+    return Math.toIntExact(epochDay * unitsPerDay);
+  }
+
+  private BigDecimal toDays(int units) {
+    return BigDecimal.valueOf(units)
+        .divide(BigDecimal.valueOf(unitsPerDay), DAY_SCALE, RoundingMode.HALF_UP);
+  }
+
+  private static LocalDate toDate(int epochDay) {
+    return epochDay == UNSET ? null : LocalDate.ofEpochDay(epochDay);
+  }
+}
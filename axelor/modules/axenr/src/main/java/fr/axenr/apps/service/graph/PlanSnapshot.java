@@ -0,0 +1,219 @@
+package fr.axenr.apps.service.graph;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A compiled graph and the schedule last written with it, stored as a binary file so that a
+ * restarted node gets them back without loading the tasks.
+ *
+ * <p>The file starts with a fixed size header: a format number, the project, the time unit and
+ * the version stamp of the project when the snapshot was taken (see {@link
+ * ProjectGraphStore#loadStamps}). The arrays of the graph and of the schedule follow, each
+ * prefixed with its length, in the native layout of a {@link ByteBuffer}: a memory-mapped file is
+ * validated by reading its header alone, and the arrays of a valid one are bulk copied.
+ */
+public class PlanSnapshot {
+
+  /** Number of values in a version stamp, the plan version being the first */
+  public static final int STAMP_SIZE = 6;
+
+  private static final int MAGIC = 0x41585053; // "AXPS"
+  private static final int FORMAT = 1;
+  private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 8 * STAMP_SIZE;
+
+  private final long[] stamp;
+  private final ProjectGraph graph;
+  private final PlanSchedule schedule;
+
+  /**
+   * @param stamp version stamp of the project, taken in the transaction that wrote the schedule
+   * @param schedule schedule last written for the graph, may be null
+   */
+  public PlanSnapshot(long[] stamp, ProjectGraph graph, PlanSchedule schedule) {
+    this.stamp = stamp;
+    this.graph = graph;
+    this.schedule = schedule;
+  }
+
+  public ProjectGraph getGraph() {
+    return graph;
+  }
+
+  public PlanSchedule getSchedule() {
+    return schedule;
+  }
+
+  public long getPlanVersion() {
+    return stamp[0];
+  }
+
+  /** Whether the graph still matches a project with the given stamp, whatever its dates */
+  public static boolean sameGraph(long[] stamp, long[] current) {
+    return Arrays.equals(stamp, 1, STAMP_SIZE, current, 1, STAMP_SIZE);
+  }
+
+  /** Write the snapshot to a temporary file, then move it in place */
+  public void write(Path file) {
+    int[][] graphArrays = {
+      graph.delay,
+      graph.parent,
+      graph.finishGate,
+      graph.duration,
+      graph.predOffset,
+      graph.predTarget,
+      graph.predDelta,
+      graph.succOffset,
+      graph.succTarget,
+      graph.succDelta,
+      graph.order
+    };
+    long size = HEADER_SIZE + 4 + 8L * graph.taskIds.length + intsSize(graphArrays) + 1;
+    if (schedule != null) {
+      size += intsSize(schedule.start, schedule.end, schedule.totalFloat);
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(size));
+    buffer.putInt(MAGIC).putInt(FORMAT).putLong(graph.getProjectId());
+    buffer.putInt(graph.getUnitsPerDay());
+    for (long value : stamp) {
+      buffer.putLong(value);
+    }
+    buffer.putInt(graph.taskIds.length);
+    buffer.asLongBuffer().put(graph.taskIds);
+    buffer.position(buffer.position() + 8 * graph.taskIds.length);
+    for (int[] array : graphArrays) {
+      putInts(buffer, array);
+    }
+    buffer.put((byte) (schedule == null ? 0 : 1));
+    if (schedule != null) {
+      putInts(buffer, schedule.start);
+      putInts(buffer, schedule.end);
+      putInts(buffer, schedule.totalFloat);
+    }
+    buffer.flip();
+
+    try {
+      Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+      try (FileChannel channel =
+          FileChannel.open(
+              temporary,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING)) {
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+      Files.move(
+          temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Project of a snapshot, or {@code null} when the buffer does not hold a snapshot of the
+   * current format.
+   */
+  public static Long readProjectId(ByteBuffer buffer) {
+    if (buffer.limit() < HEADER_SIZE
+        || buffer.getInt(0) != MAGIC
+        || buffer.getInt(4) != FORMAT) {
+      return null;
+    }
+    return buffer.getLong(8);
+  }
+
+  public static int readUnitsPerDay(ByteBuffer buffer) {
+    return buffer.getInt(16);
+  }
+
+  public static long[] readStamp(ByteBuffer buffer) {
+    long[] stamp = new long[STAMP_SIZE];
+    for (int k = 0; k < STAMP_SIZE; k++) {
+      stamp[k] = buffer.getLong(20 + 8 * k);
+    }
+    return stamp;
+  }
+
+  /** Read a whole snapshot, once its header has been validated */
+  public static PlanSnapshot read(ByteBuffer buffer) {
+    buffer.position(HEADER_SIZE);
+    long[] taskIds = new long[buffer.getInt()];
+    buffer.asLongBuffer().get(taskIds);
+    buffer.position(buffer.position() + 8 * taskIds.length);
+    int[] delay = getInts(buffer);
+    int[] parent = getInts(buffer);
+    int[] finishGate = getInts(buffer);
+    int[] duration = getInts(buffer);
+    int[] predOffset = getInts(buffer);
+    int[] predTarget = getInts(buffer);
+    int[] predDelta = getInts(buffer);
+    int[] succOffset = getInts(buffer);
+    int[] succTarget = getInts(buffer);
+    int[] succDelta = getInts(buffer);
+    int[] order = getInts(buffer);
+    int unitsPerDay = readUnitsPerDay(buffer);
+    ProjectGraph graph =
+        new ProjectGraph(
+            readProjectId(buffer),
+            taskIds,
+            unitsPerDay,
+            delay,
+            parent,
+            finishGate,
+            duration,
+            predOffset,
+            predTarget,
+            predDelta,
+            succOffset,
+            succTarget,
+            succDelta,
+            order);
+
+    PlanSchedule schedule = null;
+    if (buffer.get() != 0) {
+      schedule = new PlanSchedule(taskIds.length, unitsPerDay);
+      copy(getInts(buffer), schedule.start);
+      copy(getInts(buffer), schedule.end);
+      copy(getInts(buffer), schedule.totalFloat);
+    }
+    return new PlanSnapshot(readStamp(buffer), graph, schedule);
+  }
+
+  private static long intsSize(int[]... arrays) {
+    long size = 0;
+    for (int[] array : arrays) {
+      size += 4 + 4L * array.length;
+    }
+    return size;
+  }
+
+  private static void putInts(ByteBuffer buffer, int[] array) {
+    buffer.putInt(array.length);
+    buffer.asIntBuffer().put(array);
+    buffer.position(buffer.position() + 4 * array.length);
+  }
+
+  private static int[] getInts(ByteBuffer buffer) {
+    int[] array = new int[buffer.getInt()];
+    buffer.asIntBuffer().get(array);
+    buffer.position(buffer.position() + 4 * array.length);
+    return array;
+  }
+
+  private static void copy(int[] source, int[] target) {
+    if (source.length != target.length) {
+      throw new IllegalStateException("Snapshot schedule does not match its graph");
+    }
+    System.arraycopy(source, 0, target, 0, source.length);
+  }
+}
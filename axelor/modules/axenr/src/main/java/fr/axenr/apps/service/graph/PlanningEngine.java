@@ -0,0 +1,470 @@
+package fr.axenr.apps.service.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Scheduling passes over a compiled {@link ProjectGraph}.
+ *
+ * <p>Both passes visit every node and every link exactly once, following the topological order
+ * computed when the graph was compiled. Whatever their type, links are evaluated the same way,
+ * through the start delta compiled into the graph, so the loops have no branch per link type.
+ *
+ * <p>Summary tasks are rolled up in the same passes: the forward pass carries the earliest start of
+ * the sub-tasks up to each finish gate, whose predecessors are exactly the sub-tasks, and the
+ * backward pass carries the dates and the total float of the sub-tasks up to each start gate,
+ * whose successors are exactly the sub-tasks.
+ *
+ * <p>Date constraints bound the start of their nodes in the same loops: the forward pass starts a
+ * node no earlier than its earliest start, the backward pass no later than its latest start. A
+ * deadline the plan misses thus shows as a negative total float along the chain leading to it.
+ * Each pass also records, for every node, the link that set its start, so a missed constraint is
+ * reported with the chain of tasks driving it by following those links back, without another pass.
+ */
+public final class PlanningEngine {
+
+  /** Missed constraints reported with their chain, the others are only counted */
+  public static final int MAX_VIOLATIONS = 20;
+
+  /** Driver of a node whose start was set by the project dates, a constraint or a resource */
+  private static final int NO_DRIVER = -1;
+
+  private PlanningEngine() {}
+
+  /**
+   * Forward planning: a task without predecessor starts on the project start, any other task
+   * starts as early as all its links and its constraints allow. The total float of each task is
+   * computed against the resulting project end and the deadlines.
+   *
+   * @param projectStart first unit of the project
+   */
+  public static PlanSchedule forward(
+      ProjectGraph graph, int projectStart, PlanConstraints constraints) {
+    int[] driver = new int[graph.nodeCount()];
+    int[] start = earlyStarts(graph, projectStart, constraints, driver);
+    PlanSchedule early = rollUp(graph, start);
+    int projectEnd = Math.max(projectStart, early.maxEnd());
+    backwardPass(graph, lateStarts(graph, projectEnd, constraints, null), early, early);
+    findLateViolations(graph, constraints, start, driver, early);
+    return early;
+  }
+
+  /**
+   * Backward planning (retroplanning): a task without successor ends on the project end, any
+   * other task starts as late as all its links and its constraints allow. The total float of each
+   * task is computed against a forward pass started on the resulting project start.
+   *
+   * <p>A task planned before its start no earlier than, or before its predecessors in other
+   * projects allow, gets a negative float and is reported with the chain of successors holding it
+   * back.
+   *
+   * @param projectEnd first unit after the project, ends being exclusive
+   */
+  public static PlanSchedule backward(
+      ProjectGraph graph, int projectEnd, PlanConstraints constraints) {
+    int[] driver = new int[graph.nodeCount()];
+    int[] lateStart = lateStarts(graph, projectEnd, constraints, driver);
+    PlanSchedule late = backwardPass(graph, lateStart, null, null);
+    int projectStart = Math.min(projectEnd, late.minStart());
+    PlanSchedule early = rollUp(graph, earlyStarts(graph, projectStart, constraints, null));
+    backwardPass(graph, lateStart, early, late);
+    findEarlyViolations(graph, constraints, lateStart, driver, late);
+    return late;
+  }
+
+  /**
+   * Forward planning with resource leveling: tasks are placed one at a time, as early as their
+   * links, their constraints and the remaining capacity of their resources allow.
+   *
+   * <p>This is a serial list scheduler. A task becomes ready once all its predecessors are placed;
+   * among the ready tasks, the one with the earliest late start (the most critical one, planned
+   * without resources) goes first. The total float is then computed without resources against the
+   * leveled dates and the resulting project end.
+   *
+   * @param projectStart first unit of the project
+   * @param pool resources of the tasks, already loaded with the bookings of other projects; its
+   *     profiles receive the bookings of this plan
+   */
+  public static PlanSchedule level(
+      ProjectGraph graph, int projectStart, ResourcePool pool, PlanConstraints constraints) {
+    int nodes = graph.nodeCount();
+    int[] early = earlyStarts(graph, projectStart, constraints, null);
+    int unleveledEnd = projectStart;
+    for (int node = 0; node < nodes; node++) {
+      unleveledEnd = Math.max(unleveledEnd, early[node] + graph.duration[node]);
+    }
+    int[] priority = lateStarts(graph, unleveledEnd, constraints, null);
+
+    int[] remaining = new int[nodes];
+    PriorityQueue<Integer> ready =
+        new PriorityQueue<>(
+            Comparator.<Integer>comparingInt(node -> priority[node])
+                .thenComparingInt(node -> node));
+    for (int node = 0; node < nodes; node++) {
+      remaining[node] = graph.predOffset[node + 1] - graph.predOffset[node];
+      if (remaining[node] == 0) {
+        ready.add(node);
+      }
+    }
+
+    int[] start = new int[nodes];
+    int[] driver = new int[nodes];
+    int[] predTarget = graph.predTarget;
+    int[] predDelta = graph.predDelta;
+    int[] earliest = constraints.earliest;
+    while (!ready.isEmpty()) {
+      int node = ready.poll();
+      int from = graph.predOffset[node];
+      int to = graph.predOffset[node + 1];
+      int nodeStart = projectStart;
+      int nodeDriver = NO_DRIVER;
+      if (from != to) {
+        nodeStart = Integer.MIN_VALUE;
+        for (int e = from; e < to; e++) {
+          int linked = start[predTarget[e]] + predDelta[e];
+          if (linked > nodeStart) {
+            nodeStart = linked;
+            nodeDriver = predTarget[e];
+          }
+        }
+      }
+      if (earliest != null && earliest[node] > nodeStart) {
+        nodeStart = earliest[node];
+        nodeDriver = NO_DRIVER;
+      }
+      int duration = graph.duration[node];
+      int fitted = pool.fit(node, nodeStart, duration);
+      pool.reserve(node, fitted, duration);
+      start[node] = fitted;
+      driver[node] = fitted > nodeStart ? NO_DRIVER : nodeDriver;
+
+      for (int e = graph.succOffset[node]; e < graph.succOffset[node + 1]; e++) {
+        int successor = graph.succTarget[e];
+        if (--remaining[successor] == 0) {
+          ready.add(successor);
+        }
+      }
+    }
+
+    PlanSchedule leveled = rollUp(graph, start);
+    int projectEnd = Math.max(projectStart, leveled.maxEnd());
+    backwardPass(graph, lateStarts(graph, projectEnd, constraints, null), leveled, leveled);
+    findLateViolations(graph, constraints, start, driver, leveled);
+    return leveled;
+  }
+
+  /**
+   * Earliest start of every node, tasks and gates.
+   *
+   * @param driver receives the predecessor setting the start of each node, may be null
+   */
+  private static int[] earlyStarts(
+      ProjectGraph graph, int projectStart, PlanConstraints constraints, int[] driver) {
+    int[] start = new int[graph.nodeCount()];
+    int[] predTarget = graph.predTarget;
+    int[] predDelta = graph.predDelta;
+    int[] earliest = constraints.earliest;
+
+    for (int node : graph.order) {
+      int from = graph.predOffset[node];
+      int to = graph.predOffset[node + 1];
+      int nodeStart;
+      int nodeDriver = NO_DRIVER;
+      if (from == to) {
+        nodeStart = projectStart;
+      } else {
+        nodeStart = Integer.MIN_VALUE;
+        for (int e = from; e < to; e++) {
+          int linked = start[predTarget[e]] + predDelta[e];
+          if (linked > nodeStart) {
+            nodeStart = linked;
+            nodeDriver = predTarget[e];
+          }
+        }
+      }
+      if (earliest != null && earliest[node] > nodeStart) {
+        nodeStart = earliest[node];
+        nodeDriver = NO_DRIVER;
+      }
+      start[node] = nodeStart;
+      if (driver != null) {
+        driver[node] = nodeDriver;
+      }
+    }
+    return start;
+  }
+
+  /**
+   * Latest start of every node, tasks and gates.
+   *
+   * @param driver receives the successor setting the start of each node, may be null
+   */
+  private static int[] lateStarts(
+      ProjectGraph graph, int projectEnd, PlanConstraints constraints, int[] driver) {
+    int[] start = new int[graph.nodeCount()];
+    int[] succTarget = graph.succTarget;
+    int[] succDelta = graph.succDelta;
+    int[] latest = constraints.latest;
+
+    int[] order = graph.order;
+    for (int k = order.length - 1; k >= 0; k--) {
+      int node = order[k];
+      int from = graph.succOffset[node];
+      int to = graph.succOffset[node + 1];
+      int nodeStart;
+      int nodeDriver = NO_DRIVER;
+      if (from == to) {
+        nodeStart = projectEnd - graph.duration[node];
+      } else {
+        nodeStart = Integer.MAX_VALUE;
+        for (int e = from; e < to; e++) {
+          int linked = start[succTarget[e]] - succDelta[e];
+          if (linked < nodeStart) {
+            nodeStart = linked;
+            nodeDriver = succTarget[e];
+          }
+        }
+      }
+      if (latest != null && latest[node] < nodeStart) {
+        nodeStart = latest[node];
+        nodeDriver = NO_DRIVER;
+      }
+      start[node] = nodeStart;
+      if (driver != null) {
+        driver[node] = nodeDriver;
+      }
+    }
+    return start;
+  }
+
+  /** Deadlines and must start on missed by early starts, each with the chain of predecessors */
+  private static void findLateViolations(
+      ProjectGraph graph,
+      PlanConstraints constraints,
+      int[] start,
+      int[] driver,
+      PlanSchedule schedule) {
+    List<ConstraintViolation> violations = new ArrayList<>();
+    for (int k = 0; k < constraints.constrainedCount; k++) {
+      int task = constraints.constrained[k];
+      if (constraints.deadline != null && constraints.deadline[task] != PlanSchedule.UNSET) {
+        int node = constraints.endNode(task);
+        int late = start[node] + graph.duration[node] - constraints.deadline[task];
+        if (late > 0) {
+          report(
+              graph,
+              schedule,
+              violations,
+              ConstraintViolation.Type.DEADLINE,
+              task,
+              late,
+              node,
+              driver,
+              true);
+        }
+      }
+      if (constraints.mustStart != null && constraints.mustStart[task] != PlanSchedule.UNSET) {
+        int late = start[task] - constraints.mustStart[task];
+        if (late > 0) {
+          report(
+              graph,
+              schedule,
+              violations,
+              ConstraintViolation.Type.MUST_START_ON,
+              task,
+              late,
+              task,
+              driver,
+              true);
+        }
+      }
+    }
+    schedule.violations = violations;
+  }
+
+  /**
+   * Earliest starts missed by late starts, each with the chain of successors: a task planned
+   * before its must start on is reported as such, any other as missing its earliest start
+   */
+  private static void findEarlyViolations(
+      ProjectGraph graph,
+      PlanConstraints constraints,
+      int[] start,
+      int[] driver,
+      PlanSchedule schedule) {
+    List<ConstraintViolation> violations = new ArrayList<>();
+    int[] earliest = constraints.earliest;
+    for (int k = 0; earliest != null && k < constraints.constrainedCount; k++) {
+      int task = constraints.constrained[k];
+      if (earliest[task] != PlanConstraints.NO_EARLIEST && earliest[task] > start[task]) {
+        report(
+            graph,
+            schedule,
+            violations,
+            constraints.mustStart != null && constraints.mustStart[task] != PlanSchedule.UNSET
+                ? ConstraintViolation.Type.MUST_START_ON
+                : ConstraintViolation.Type.EARLIEST_START,
+            task,
+            earliest[task] - start[task],
+            task,
+            driver,
+            false);
+      }
+    }
+    schedule.violations = violations;
+  }
+
+  /**
+   * Count a violation, and keep it with its chain while under the limit.
+   *
+   * @param units amount missed, in units
+   * @param node node the chain starts from, following its driver
+   * @param backwards whether the chain is read backwards, from the task to its predecessors
+   */
+  private static void report(
+      ProjectGraph graph,
+      PlanSchedule schedule,
+      List<ConstraintViolation> violations,
+      ConstraintViolation.Type type,
+      int task,
+      int units,
+      int node,
+      int[] driver,
+      boolean backwards) {
+    if (schedule.violationCount++ >= MAX_VIOLATIONS) {
+      return;
+    }
+    long[] path = new long[8];
+    int length = 0;
+    for (int current = node; current != NO_DRIVER; current = driver[current]) {
+      // Finish gates have no task of their own, their summary task is reached through its start
+      if (current >= graph.size()) {
+        continue;
+      }
+      if (length == path.length) {
+        path = Arrays.copyOf(path, length * 2);
+      }
+      path[length++] = graph.taskIds[current];
+    }
+    path = Arrays.copyOf(path, length);
+    if (backwards) {
+      for (int i = 0, j = length - 1; i < j; i++, j--) {
+        long id = path[i];
+        path[i] = path[j];
+        path[j] = id;
+      }
+    }
+    int unitsPerDay = graph.getUnitsPerDay();
+    violations.add(
+        new ConstraintViolation(
+            type, graph.taskIds[task], (units + unitsPerDay - 1) / unitsPerDay, path));
+  }
+
+  /**
+   * Task dates from the start of every node: summary tasks span from the earliest start of their
+   * sub-tasks, carried up to each finish gate, to their finish gate.
+   */
+  private static PlanSchedule rollUp(ProjectGraph graph, int[] start) {
+    int size = graph.size();
+    int[] rollStart = new int[graph.nodeCount()];
+    int[] predTarget = graph.predTarget;
+
+    // Summary task of each finish gate
+    int[] summaryOf = new int[graph.nodeCount() - size];
+    for (int i = 0; i < size; i++) {
+      if (graph.finishGate[i] >= 0) {
+        summaryOf[graph.finishGate[i] - size] = i;
+      }
+    }
+
+    for (int node : graph.order) {
+      int first = start[node];
+      if (node >= size) {
+        // A finish gate: carry up the sub-tasks among its predecessors, finish based links
+        // pointing to its summary task arrive there too
+        int summary = summaryOf[node - size];
+        for (int e = graph.predOffset[node]; e < graph.predOffset[node + 1]; e++) {
+          int predecessor = predTarget[e];
+          int task = predecessor < size ? predecessor : summaryOf[predecessor - size];
+          if (graph.parent[task] == summary) {
+            first = Math.min(first, rollStart[predecessor]);
+          }
+        }
+      }
+      rollStart[node] = first;
+    }
+
+    PlanSchedule schedule = new PlanSchedule(size, graph.getUnitsPerDay());
+    for (int i = 0; i < size; i++) {
+      int gate = graph.finishGate[i];
+      schedule.start[i] = gate < 0 ? start[i] : rollStart[gate];
+      schedule.end[i] = gate < 0 ? start[i] + graph.duration[i] : start[gate];
+    }
+    return schedule;
+  }
+
+  /**
+   * Late dates of the tasks, and their total float when the early dates are given.
+   *
+   * @param start latest start of every node
+   * @param early early dates of the tasks, used to compute the total float, may be null
+   * @param floatTarget schedule receiving the total float when {@code early} is given
+   */
+  private static PlanSchedule backwardPass(
+      ProjectGraph graph, int[] start, PlanSchedule early, PlanSchedule floatTarget) {
+    int nodes = graph.nodeCount();
+    int size = graph.size();
+    int[] rollStart = new int[nodes];
+    int[] rollEnd = new int[nodes];
+    int[] slack = early == null ? null : new int[nodes];
+    int[] succTarget = graph.succTarget;
+
+    int[] order = graph.order;
+    for (int k = order.length - 1; k >= 0; k--) {
+      int node = order[k];
+      int from = graph.succOffset[node];
+      int to = graph.succOffset[node + 1];
+      int nodeStart = start[node];
+
+      if (node < size && graph.finishGate[node] >= 0) {
+        // A start gate: its successors are the sub-tasks of its summary task
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        int least = Integer.MAX_VALUE;
+        for (int e = from; e < to; e++) {
+          int child = succTarget[e];
+          if (graph.parent[child] != node) {
+            continue;
+          }
+          first = Math.min(first, rollStart[child]);
+          last = Math.max(last, rollEnd[child]);
+          if (slack != null) {
+            least = Math.min(least, slack[child]);
+          }
+        }
+        rollStart[node] = first;
+        rollEnd[node] = last;
+        if (slack != null) {
+          slack[node] = least;
+        }
+      } else {
+        rollStart[node] = nodeStart;
+        rollEnd[node] = nodeStart + graph.duration[node];
+        if (slack != null && node < size) {
+          slack[node] = nodeStart - early.start[node];
+        }
+      }
+    }
+
+    PlanSchedule schedule = new PlanSchedule(size, graph.getUnitsPerDay());
+    System.arraycopy(rollStart, 0, schedule.start, 0, size);
+    System.arraycopy(rollEnd, 0, schedule.end, 0, size);
+    if (slack != null) {
+      System.arraycopy(slack, 0, floatTarget.totalFloat, 0, size);
+    }
+    return schedule;
+  }
+}
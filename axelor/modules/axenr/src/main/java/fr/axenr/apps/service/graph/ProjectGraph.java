@@ -0,0 +1,364 @@
+package fr.axenr.apps.service.graph;
+
+import fr.axenr.apps.db.repo.TaskDependencyRepository;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Dependency graph of a project compiled into primitive arrays.
+ *
+ * <p>Tasks are numbered {@code 0..size()-1} in ascending id order. Links are stored in compressed
+ * sparse row form: the predecessors of node {@code i} are {@code predTarget[predOffset[i]]} to
+ * {@code predTarget[predOffset[i + 1] - 1]}, and the successors are laid out the same way in
+ * {@code succOffset} / {@code succTarget}. A topological order is computed once at compile time,
+ * so scheduling passes are plain loops over arrays.
+ *
+ * <p>Time is counted in integer units, a fraction of a day set by {@link #getUnitsPerDay()} (half
+ * days by default), so that sub-day durations and lags are planned exactly. A task occupies the
+ * units {@code start} to {@code start + duration - 1}, its end being exclusive: a finish-start link
+ * without lag makes the successor start on the first unit after its predecessor.
+ *
+ * <p>Durations are fixed once compiled, so every link type boils down to the same constraint
+ * between the two starts: {@code start[successor] >= start[predecessor] + delta}. The delta of
+ * each link is stored next to it, in both layouts:
+ *
+ * <ul>
+ *   <li>finish-start: lag + predecessor duration
+ *   <li>start-start: lag
+ *   <li>finish-finish: lag + predecessor duration - successor duration
+ *   <li>start-finish: lag - successor duration
+ * </ul>
+ *
+ * <p>A summary task (a task with sub-tasks) is compiled into two milestones: its own node acts as
+ * a start gate, and an extra finish gate node is appended after the tasks. Each sub-task starts
+ * after the start gate of its parent and ends before its finish gate. A link is attached to the
+ * gate matching its type at each end: finish based links leaving the summary task start from its
+ * finish gate, finish based links pointing to it (finish-finish and start-finish) go to its finish
+ * gate, the other links use its start gate.
+ * The dates of a summary task are then rolled up from its sub-tasks during the scheduling passes.
+ */
+public class ProjectGraph {
+
+  private final Long projectId;
+  final long[] taskIds;
+  private final int unitsPerDay;
+
+  /** Delay to start of each task, the lag of its links that have none of their own */
+  final int[] delay;
+
+  /** Index of the parent task of each task, -1 for top level tasks */
+  final int[] parent;
+
+  /** Finish gate of each summary task, -1 for the other tasks */
+  final int[] finishGate;
+
+  final int[] duration;
+  final int[] predOffset;
+  final int[] predTarget;
+  final int[] predDelta;
+  final int[] succOffset;
+  final int[] succTarget;
+  final int[] succDelta;
+  final int[] order;
+
+  ProjectGraph(
+      Long projectId,
+      long[] taskIds,
+      int unitsPerDay,
+      int[] delay,
+      int[] parent,
+      int[] finishGate,
+      int[] duration,
+      int[] predOffset,
+      int[] predTarget,
+      int[] predDelta,
+      int[] succOffset,
+      int[] succTarget,
+      int[] succDelta,
+      int[] order) {
+    this.projectId = projectId;
+    this.taskIds = taskIds;
+    this.unitsPerDay = unitsPerDay;
+    this.delay = delay;
+    this.parent = parent;
+    this.finishGate = finishGate;
+    this.duration = duration;
+    this.predOffset = predOffset;
+    this.predTarget = predTarget;
+    this.predDelta = predDelta;
+    this.succOffset = succOffset;
+    this.succTarget = succTarget;
+    this.succDelta = succDelta;
+    this.order = order;
+  }
+
+  /**
+   * Build the graph from its task arrays and its links.
+   *
+   * @param taskIds task ids, sorted in ascending order
+   * @param unitsPerDay number of time units in a day
+   * @param duration duration of each task, in units
+   * @param delay delay to start of each task, in units; it is already part of the lag of the
+   *     links that have none of their own, it is only kept to compare with later edits
+   * @param parent index of the parent task of each task, -1 for top level tasks
+   * @param linkFrom predecessor index of each link
+   * @param linkTo successor index of each link
+   * @param linkType type of each link, one of the {@code TaskDependencyRepository.TYPE_*} values
+   * @param linkLag lag of each link, in units
+   * @param linkCount number of links actually used in the link arrays
+   * @throws IllegalStateException if the links contain a cycle
+   */
+  public static ProjectGraph compile(
+      Long projectId,
+      long[] taskIds,
+      int unitsPerDay,
+      int[] duration,
+      int[] delay,
+      int[] parent,
+      int[] linkFrom,
+      int[] linkTo,
+      int[] linkType,
+      int[] linkLag,
+      int linkCount) {
+    int taskCount = taskIds.length;
+
+    // Give each summary task a finish gate, numbered after the tasks
+    int[] finishGate = new int[taskCount];
+    Arrays.fill(finishGate, -1);
+    int nodeCount = taskCount;
+    int childCount = 0;
+    for (int i = 0; i < taskCount; i++) {
+      int p = parent[i];
+      if (p >= 0) {
+        childCount++;
+        if (finishGate[p] < 0) {
+          finishGate[p] = nodeCount++;
+        }
+      }
+    }
+
+    // Gates are milestones whatever the duration entered on the summary task
+    int[] nodeDuration = Arrays.copyOf(duration, nodeCount);
+    for (int i = 0; i < taskCount; i++) {
+      if (finishGate[i] >= 0) {
+        nodeDuration[i] = 0;
+      }
+    }
+
+    // Explicit links, then the two implicit links tying each sub-task to its parent gates
+    int total = linkCount + 2 * childCount;
+    int[] from = new int[total];
+    int[] to = new int[total];
+    int[] delta = new int[total];
+    int count = 0;
+    for (int e = 0; e < linkCount; e++) {
+      int source = linkFrom[e];
+      int target = linkTo[e];
+      int type = linkType[e];
+      if (finishGate[source] >= 0
+          && (type == TaskDependencyRepository.TYPE_FINISH_START
+              || type == TaskDependencyRepository.TYPE_FINISH_FINISH)) {
+        source = finishGate[source];
+      }
+      if (finishGate[target] >= 0
+          && (type == TaskDependencyRepository.TYPE_FINISH_FINISH
+              || type == TaskDependencyRepository.TYPE_START_FINISH)) {
+        target = finishGate[target];
+      }
+      from[count] = source;
+      to[count] = target;
+      delta[count] = startDelta(type, linkLag[e], nodeDuration[source], nodeDuration[target]);
+      count++;
+    }
+    for (int i = 0; i < taskCount; i++) {
+      int p = parent[i];
+      if (p < 0) {
+        continue;
+      }
+      from[count] = p;
+      to[count] = i;
+      delta[count] = 0;
+      count++;
+      int finish = finishGate[i] >= 0 ? finishGate[i] : i;
+      from[count] = finish;
+      to[count] = finishGate[p];
+      delta[count] = nodeDuration[finish];
+      count++;
+    }
+
+    // Compressed rows in both directions
+    int[] predOffset = new int[nodeCount + 1];
+    int[] succOffset = new int[nodeCount + 1];
+    for (int e = 0; e < count; e++) {
+      predOffset[to[e] + 1]++;
+      succOffset[from[e] + 1]++;
+    }
+    for (int i = 0; i < nodeCount; i++) {
+      predOffset[i + 1] += predOffset[i];
+      succOffset[i + 1] += succOffset[i];
+    }
+
+    int[] predTarget = new int[count];
+    int[] predDelta = new int[count];
+    int[] succTarget = new int[count];
+    int[] succDelta = new int[count];
+    int[] predFill = Arrays.copyOf(predOffset, nodeCount);
+    int[] succFill = Arrays.copyOf(succOffset, nodeCount);
+    for (int e = 0; e < count; e++) {
+      int p = predFill[to[e]]++;
+      predTarget[p] = from[e];
+      predDelta[p] = delta[e];
+      int s = succFill[from[e]]++;
+      succTarget[s] = to[e];
+      succDelta[s] = delta[e];
+    }
+
+    int[] order = topologicalOrder(nodeCount, predOffset, succOffset, succTarget);
+    return new ProjectGraph(
+        projectId,
+        taskIds,
+        unitsPerDay,
+        delay,
+        parent,
+        finishGate,
+        nodeDuration,
+        predOffset,
+        predTarget,
+        predDelta,
+        succOffset,
+        succTarget,
+        succDelta,
+        order);
+  }
+
+  /** Minimum distance between the start of the predecessor and the start of the successor */
+  private static int startDelta(
+      int type, int lag, int predecessorDuration, int successorDuration) {
+    switch (type) {
+      case TaskDependencyRepository.TYPE_START_START:
+        return lag;
+      case TaskDependencyRepository.TYPE_FINISH_FINISH:
+        return lag + predecessorDuration - successorDuration;
+      case TaskDependencyRepository.TYPE_START_FINISH:
+        return lag - successorDuration;
+      default:
+        return lag + predecessorDuration;
+    }
+  }
+
+  /**
+   * Convert a number of days into units, rounding to the nearest unit. This is the only place
+   * where durations and lags are handled as decimals.
+   */
+  public static int toUnits(BigDecimal days, int unitsPerDay) {
+    return days
+        .multiply(BigDecimal.valueOf(unitsPerDay))
+        .setScale(0, RoundingMode.HALF_UP)
+        .intValueExact();
+  }
+
+  /** Kahn's algorithm over the successor rows */
+  private static int[] topologicalOrder(
+      int size, int[] predOffset, int[] succOffset, int[] succTarget) {
+    int[] remaining = new int[size];
+    int[] order = new int[size];
+    int tail = 0;
+    for (int i = 0; i < size; i++) {
+      remaining[i] = predOffset[i + 1] - predOffset[i];
+      if (remaining[i] == 0) {
+        order[tail++] = i;
+      }
+    }
+    for (int head = 0; head < tail; head++) {
+      int task = order[head];
+      for (int e = succOffset[task]; e < succOffset[task + 1]; e++) {
+        if (--remaining[succTarget[e]] == 0) {
+          order[tail++] = succTarget[e];
+        }
+      }
+    }
+    if (tail < size) {
+      throw new IllegalStateException("Circular dependency detected in task dependencies");
+    }
+    return order;
+  }
+
+  public Long getProjectId() {
+    return projectId;
+  }
+
+  /** Number of tasks, gates excluded */
+  public int size() {
+    return taskIds.length;
+  }
+
+  /** Number of nodes scheduled by the passes: tasks plus finish gates */
+  int nodeCount() {
+    return order.length;
+  }
+
+  public int getUnitsPerDay() {
+    return unitsPerDay;
+  }
+
+  /** First unit of the day */
+  public int dayStart(LocalDate date) {
+    return Math.toIntExact(date.toEpochDay() * unitsPerDay);
+  }
+
+  /** First unit after the day */
+  public int dayEnd(LocalDate date) {
+    return dayStart(date) + unitsPerDay;
+  }
+
+  public long getTaskId(int index) {
+    return taskIds[index];
+  }
+
+  /** Index of the task, or a negative value if it is not part of the graph */
+  public int indexOf(long taskId) {
+    return Arrays.binarySearch(taskIds, taskId);
+  }
+
+  /** Index of the parent task, -1 for a top level task */
+  public int getParent(int index) {
+    return parent[index];
+  }
+
+  public boolean isSummary(int index) {
+    return finishGate[index] >= 0;
+  }
+
+  /** Duration of the task, in units, 0 for a summary task */
+  public int getDuration(int index) {
+    return duration[index];
+  }
+
+  /** Delay to start of the task, in units */
+  public int getDelay(int index) {
+    return delay[index];
+  }
+
+  /** Approximate heap size of the graph, in bytes */
+  public long getMemorySize() {
+    long ints =
+        (long) delay.length
+            + parent.length
+            + finishGate.length
+            + duration.length
+            + predOffset.length
+            + predTarget.length
+            + predDelta.length
+            + succOffset.length
+            + succTarget.length
+            + succDelta.length
+            + order.length;
+    return 8L * taskIds.length + 4 * ints + 16 * 12;
+  }
+
+  public int getLinkCount() {
+    return predTarget.length;
+  }
+}
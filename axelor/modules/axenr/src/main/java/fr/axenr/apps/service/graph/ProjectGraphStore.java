@@ -0,0 +1,516 @@
+package fr.axenr.apps.service.graph;
+
+import com.axelor.app.AppSettings;
+import com.axelor.db.JPA;
+import com.google.inject.Singleton;
+import fr.axenr.apps.db.repo.TaskDependencyRepository;
+import java.math.BigDecimal;
+import java.sql.Array;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads project graphs and schedules with a few set-based queries, and writes schedules back.
+ *
+ * <p>Nothing goes through the task entities: a project with thousands of tasks costs three
+ * queries to load and one batched update to save. Durations and lags are converted from days to
+ * time units here, once per load, so the scheduling passes never see a decimal.
+ */
+@Singleton
+public class ProjectGraphStore {
+
+  private static final int WRITE_BATCH_SIZE = 500;
+
+  private final int unitsPerDay;
+
+  public ProjectGraphStore() {
+    this.unitsPerDay = Math.max(1, AppSettings.get().getInt("axenr.planning.units-per-day", 2));
+  }
+
+  public int getUnitsPerDay() {
+    return unitsPerDay;
+  }
+
+  /** Compile the dependency graph of the project */
+  public ProjectGraph load(Long projectId) {
+    List<Object[]> tasks =
+        JPA.em()
+            .createQuery(
+                "SELECT self.id, self.duration, self.delayToStart, parent.id FROM Task self "
+                    + "LEFT JOIN self.parentTask parent "
+                    + "WHERE self.project.id = :projectId ORDER BY self.id",
+                Object[].class)
+            .setParameter("projectId", projectId)
+            .getResultList();
+
+    int size = tasks.size();
+    long[] taskIds = new long[size];
+    int[] duration = new int[size];
+    int[] delay = new int[size];
+    for (int i = 0; i < size; i++) {
+      Object[] row = tasks.get(i);
+      taskIds[i] = (Long) row[0];
+      duration[i] = toDurationUnits((BigDecimal) row[1]);
+      delay[i] = toDelayUnits((BigDecimal) row[2]);
+    }
+
+    // Parents outside the project are ignored, the task is then planned as a top level one
+    int[] parent = new int[size];
+    for (int i = 0; i < size; i++) {
+      Long parentId = (Long) tasks.get(i)[3];
+      parent[i] = parentId != null ? Math.max(-1, Arrays.binarySearch(taskIds, parentId)) : -1;
+    }
+
+    List<Object[]> links =
+        JPA.em()
+            .createQuery(
+                "SELECT self.predecessor.id, self.successor.id, self.typeSelect, self.lag "
+                    + "FROM TaskDependency self WHERE self.project.id = :projectId",
+                Object[].class)
+            .setParameter("projectId", projectId)
+            .getResultList();
+
+    int[] linkFrom = new int[links.size()];
+    int[] linkTo = new int[links.size()];
+    int[] linkType = new int[links.size()];
+    int[] linkLag = new int[links.size()];
+    int linkCount = 0;
+    for (Object[] row : links) {
+      int from = Arrays.binarySearch(taskIds, (Long) row[0]);
+      int to = Arrays.binarySearch(taskIds, (Long) row[1]);
+      if (from < 0 || to < 0) {
+        continue;
+      }
+      linkFrom[linkCount] = from;
+      linkTo[linkCount] = to;
+      linkType[linkCount] = row[2] != null ? (Integer) row[2] : 0;
+      // Links without a lag of their own keep using the delay to start of the successor
+      linkLag[linkCount] =
+          row[3] != null ? ProjectGraph.toUnits((BigDecimal) row[3], unitsPerDay) : delay[to];
+      linkCount++;
+    }
+
+    return ProjectGraph.compile(
+        projectId,
+        taskIds,
+        unitsPerDay,
+        duration,
+        delay,
+        parent,
+        linkFrom,
+        linkTo,
+        linkType,
+        linkLag,
+        linkCount);
+  }
+
+  /** Duration of a task in units, as compiled: one day when empty */
+  public int toDurationUnits(BigDecimal days) {
+    return days != null ? Math.max(0, ProjectGraph.toUnits(days, unitsPerDay)) : unitsPerDay;
+  }
+
+  /** Delay to start of a task in units, as compiled: none when empty */
+  public int toDelayUnits(BigDecimal days) {
+    return days != null ? ProjectGraph.toUnits(days, unitsPerDay) : 0;
+  }
+
+  /**
+   * Resources assigned to the tasks of the graph, already loaded with the tasks of other projects
+   * planned on them. Those bookings are taken by whole days, as only their dates are stored.
+   */
+  public ResourcePool loadResources(ProjectGraph graph) {
+    List<Object[]> assignments =
+        JPA.em()
+            .createQuery(
+                "SELECT self.task.id, resource.id, resource.capacity, self.units "
+                    + "FROM TaskAssignment self JOIN self.resource resource "
+                    + "WHERE self.task.project.id = :projectId ORDER BY resource.id",
+                Object[].class)
+            .setParameter("projectId", graph.getProjectId())
+            .getResultList();
+
+    int count = assignments.size();
+    long[] resourceIds = new long[count];
+    int[] capacity = new int[count];
+    int[] assignTask = new int[count];
+    int[] assignResource = new int[count];
+    int[] assignUnits = new int[count];
+    int resourceCount = 0;
+    int assignCount = 0;
+    for (Object[] row : assignments) {
+      int task = graph.indexOf((Long) row[0]);
+      if (task < 0) {
+        continue;
+      }
+      long resourceId = (Long) row[1];
+      if (resourceCount == 0 || resourceIds[resourceCount - 1] != resourceId) {
+        resourceIds[resourceCount] = resourceId;
+        capacity[resourceCount] = row[2] != null ? (Integer) row[2] : 1;
+        resourceCount++;
+      }
+      assignTask[assignCount] = task;
+      assignResource[assignCount] = resourceCount - 1;
+      assignUnits[assignCount] = row[3] != null ? (Integer) row[3] : 1;
+      assignCount++;
+    }
+
+    ResourcePool pool =
+        ResourcePool.compile(
+            Arrays.copyOf(resourceIds, resourceCount),
+            Arrays.copyOf(capacity, resourceCount),
+            graph.nodeCount(),
+            assignTask,
+            assignResource,
+            assignUnits,
+            assignCount);
+    if (resourceCount == 0) {
+      return pool;
+    }
+
+    List<Long> usedIds = new ArrayList<>(resourceCount);
+    for (int r = 0; r < resourceCount; r++) {
+      usedIds.add(resourceIds[r]);
+    }
+    List<Object[]> bookings =
+        JPA.em()
+            .createQuery(
+                "SELECT self.resource.id, self.units, task.startDate, task.endDate "
+                    + "FROM TaskAssignment self JOIN self.task task "
+                    + "WHERE self.resource.id IN :resourceIds AND task.project.id <> :projectId "
+                    + "AND task.startDate IS NOT NULL AND task.endDate IS NOT NULL",
+                Object[].class)
+            .setParameter("resourceIds", usedIds)
+            .setParameter("projectId", graph.getProjectId())
+            .getResultList();
+    for (Object[] row : bookings) {
+      int start = graph.dayStart((LocalDate) row[2]);
+      int end = graph.dayEnd((LocalDate) row[3]);
+      int units = row[1] != null ? (Integer) row[1] : 1;
+      pool.book(pool.indexOf((Long) row[0]), start, end - start, units);
+    }
+    return pool;
+  }
+
+  /**
+   * Date constraints of the tasks of the graph: those entered on the tasks, and the earliest
+   * start set by their predecessors in other projects, from the stored dates of those. Links from
+   * other projects are not compiled into the graph: the dates they depend on change with the plans
+   * of other projects, not with this one.
+   */
+  public PlanConstraints loadConstraints(ProjectGraph graph) {
+    PlanConstraints constraints = new PlanConstraints(graph);
+    JPA.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "SELECT id, start_no_earlier_than, must_start_on, finish_no_later_than "
+                      + "FROM axenr_task WHERE project = ? AND (start_no_earlier_than IS NOT NULL "
+                      + "OR must_start_on IS NOT NULL OR finish_no_later_than IS NOT NULL)")) {
+            statement.setLong(1, graph.getProjectId());
+            try (ResultSet rows = statement.executeQuery()) {
+              while (rows.next()) {
+                int task = graph.indexOf(rows.getLong(1));
+                if (task < 0) {
+                  continue;
+                }
+                Date startNoEarlierThan = rows.getDate(2);
+                Date mustStartOn = rows.getDate(3);
+                Date finishNoLaterThan = rows.getDate(4);
+                if (startNoEarlierThan != null) {
+                  constraints.startNoEarlierThan(
+                      task, graph.dayStart(startNoEarlierThan.toLocalDate()));
+                }
+                if (mustStartOn != null) {
+                  constraints.mustStartOn(task, graph.dayStart(mustStartOn.toLocalDate()));
+                }
+                if (finishNoLaterThan != null) {
+                  constraints.finishNoLaterThan(
+                      task, graph.dayEnd(finishNoLaterThan.toLocalDate()));
+                }
+              }
+            }
+          }
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "SELECT link.successor, link.type_select, link.lag, "
+                      + "predecessor.start_date, predecessor.end_date "
+                      + "FROM axenr_task_dependency link "
+                      + "JOIN axenr_task predecessor ON predecessor.id = link.predecessor "
+                      + "WHERE link.project = ? AND link.predecessor_project <> link.project "
+                      + "AND predecessor.start_date IS NOT NULL "
+                      + "AND predecessor.end_date IS NOT NULL")) {
+            statement.setLong(1, graph.getProjectId());
+            try (ResultSet rows = statement.executeQuery()) {
+              while (rows.next()) {
+                int task = graph.indexOf(rows.getLong(1));
+                if (task < 0) {
+                  continue;
+                }
+                BigDecimal lag = rows.getBigDecimal(3);
+                constraints.waitFor(
+                    task,
+                    externalStart(
+                        graph,
+                        task,
+                        rows.getInt(2),
+                        lag != null ? ProjectGraph.toUnits(lag, unitsPerDay) : graph.delay[task],
+                        graph.dayStart(rows.getDate(4).toLocalDate()),
+                        graph.dayEnd(rows.getDate(5).toLocalDate())));
+              }
+            }
+          }
+        });
+    return constraints;
+  }
+
+  /** Earliest start of a node after a predecessor with fixed dates, by type of link */
+  private static int externalStart(
+      ProjectGraph graph, int node, int type, int lag, int predecessorStart, int predecessorEnd) {
+    switch (type) {
+      case TaskDependencyRepository.TYPE_START_START:
+        return predecessorStart + lag;
+      case TaskDependencyRepository.TYPE_FINISH_FINISH:
+        return predecessorEnd + lag - graph.duration[node];
+      case TaskDependencyRepository.TYPE_START_FINISH:
+        return predecessorStart + lag - graph.duration[node];
+      default:
+        return predecessorEnd + lag;
+    }
+  }
+
+  /** Dates and float currently stored for the tasks of the graph */
+  public PlanSchedule loadSchedule(ProjectGraph graph) {
+    List<Object[]> rows =
+        JPA.em()
+            .createQuery(
+                "SELECT self.id, self.startDate, self.endDate, self.totalFloat FROM Task self "
+                    + "WHERE self.project.id = :projectId",
+                Object[].class)
+            .setParameter("projectId", graph.getProjectId())
+            .getResultList();
+
+    PlanSchedule schedule = new PlanSchedule(graph.size(), graph.getUnitsPerDay());
+    for (Object[] row : rows) {
+      int index = graph.indexOf((Long) row[0]);
+      if (index >= 0) {
+        schedule.setDates(index, (LocalDate) row[1], (LocalDate) row[2]);
+        schedule.setTotalFloat(index, (BigDecimal) row[3]);
+      }
+    }
+    return schedule;
+  }
+
+  /**
+   * Write the tasks whose dates or float differ from the stored ones.
+   *
+   * <p>The duration of a summary task is derived from its sub-tasks, it is written along with its
+   * dates.
+   *
+   * <p>Dates are derived data: the record version is left alone so that a form opened on a task
+   * does not fail with a concurrent update error after a recompute.
+   *
+   * @return number of tasks updated
+   */
+  public int writeSchedule(ProjectGraph graph, PlanSchedule stored, PlanSchedule computed) {
+    int[] updated = {0};
+    JPA.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "UPDATE axenr_task SET start_date = ?, end_date = ?, total_float = ?, "
+                      + "duration = COALESCE(?, duration) WHERE id = ? AND project = ?")) {
+            int pending = 0;
+            for (int i = 0; i < graph.size(); i++) {
+              if (computed.sameAs(i, stored)) {
+                continue;
+              }
+              statement.setDate(1, toSqlDate(computed.getStartDate(i)));
+              statement.setDate(2, toSqlDate(computed.getEndDate(i)));
+              statement.setBigDecimal(3, computed.getTotalFloat(i));
+              if (graph.isSummary(i)) {
+                statement.setBigDecimal(4, computed.getDuration(i));
+              } else {
+                statement.setNull(4, Types.NUMERIC);
+              }
+              statement.setLong(5, graph.getTaskId(i));
+              statement.setLong(6, graph.getProjectId());
+              statement.addBatch();
+              updated[0]++;
+              if (++pending == WRITE_BATCH_SIZE) {
+                statement.executeBatch();
+                pending = 0;
+              }
+            }
+            if (pending > 0) {
+              statement.executeBatch();
+            }
+          }
+        });
+    return updated[0];
+  }
+
+  /**
+   * Write the project dates, leaving its version alone like task dates, and increase its plan
+   * version so that anything derived from the plan can tell it changed.
+   *
+   * @return the new plan version
+   */
+  public long writeProjectDates(Long projectId, LocalDate startDate, LocalDate endDate) {
+    long[] planVersion = {0};
+    JPA.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "UPDATE axenr_project SET start_date = ?, end_date = ?, "
+                      + "plan_version = COALESCE(plan_version, 0) + 1 WHERE id = ? "
+                      + "RETURNING plan_version")) {
+            statement.setDate(1, toSqlDate(startDate));
+            statement.setDate(2, toSqlDate(endDate));
+            statement.setLong(3, projectId);
+            try (ResultSet rows = statement.executeQuery()) {
+              if (rows.next()) {
+                planVersion[0] = rows.getLong(1);
+              }
+            }
+          }
+        });
+    return planVersion[0];
+  }
+
+  /**
+   * Whether a task of the project has a date constraint or a predecessor in another project:
+   * its dates then depend on more than the project start date
+   */
+  public boolean hasDateBounds(Long projectId) {
+    boolean[] bounded = {false};
+    JPA.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "SELECT EXISTS (SELECT 1 FROM axenr_task WHERE project = ? "
+                      + "AND (start_no_earlier_than IS NOT NULL OR must_start_on IS NOT NULL "
+                      + "OR finish_no_later_than IS NOT NULL)) "
+                      + "OR EXISTS (SELECT 1 FROM axenr_task_dependency WHERE project = ? "
+                      + "AND predecessor_project <> project)")) {
+            statement.setLong(1, projectId);
+            statement.setLong(2, projectId);
+            try (ResultSet rows = statement.executeQuery()) {
+              bounded[0] = rows.next() && rows.getBoolean(1);
+            }
+          }
+        });
+    return bounded[0];
+  }
+
+  /**
+   * Store the constraints the plan of the project misses, as JSON, {@code null} when all are met
+   */
+  public void writeConstraintViolations(Long projectId, String violations) {
+    JPA.jdbcWork(
+        connection -> {
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "UPDATE axenr_project SET constraint_violations = ? WHERE id = ? "
+                      + "AND constraint_violations IS DISTINCT FROM ?")) {
+            statement.setString(1, violations);
+            statement.setLong(2, projectId);
+            statement.setString(3, violations);
+            statement.executeUpdate();
+          }
+        });
+  }
+
+  /** Names of the given tasks of the project */
+  public Map<Long, String> loadTaskNames(Long projectId, Collection<Long> taskIds) {
+    Map<Long, String> names = new HashMap<>();
+    JPA.jdbcWork(
+        connection -> {
+          Array ids = connection.createArrayOf("bigint", taskIds.toArray());
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "SELECT id, name FROM axenr_task WHERE project = ? AND id = ANY (?)")) {
+            statement.setLong(1, projectId);
+            statement.setArray(2, ids);
+            try (ResultSet rows = statement.executeQuery()) {
+              while (rows.next()) {
+                names.put(rows.getLong(1), rows.getString(2));
+              }
+            }
+          } finally {
+            ids.free();
+          }
+        });
+    return names;
+  }
+
+  /** Current plan version of the project */
+  public long loadPlanVersion(Long projectId) {
+    List<Long> versions =
+        JPA.em()
+            .createQuery(
+                "SELECT self.planVersion FROM Project self WHERE self.id = :projectId", Long.class)
+            .setParameter("projectId", projectId)
+            .getResultList();
+    return versions.isEmpty() || versions.get(0) == null ? 0 : versions.get(0);
+  }
+
+  /**
+   * Version stamps of the projects, as stored in {@link PlanSnapshot}s: the plan version, then
+   * the number, the summed record versions and the highest id of the tasks, then the number and
+   * the summed record versions and ids of the links. Task dates are written without increasing
+   * the record versions, so only edits of the tasks and links change the last five values.
+   */
+  public Map<Long, long[]> loadStamps(Collection<Long> projectIds) {
+    Map<Long, long[]> stamps = new HashMap<>();
+    if (projectIds.isEmpty()) {
+      return stamps;
+    }
+    JPA.jdbcWork(
+        connection -> {
+          Array ids = connection.createArrayOf("bigint", projectIds.toArray());
+          try (PreparedStatement statement =
+              connection.prepareStatement(
+                  "SELECT project.id, COALESCE(project.plan_version, 0), "
+                      + "COALESCE(task.n, 0), COALESCE(task.v, 0), COALESCE(task.m, 0), "
+                      + "COALESCE(link.n, 0), COALESCE(link.v, 0) "
+                      + "FROM axenr_project project "
+                      + "LEFT JOIN (SELECT project, COUNT(*) n, SUM(version) v, MAX(id) m "
+                      + "FROM axenr_task WHERE project = ANY (?) GROUP BY project) task "
+                      + "ON task.project = project.id "
+                      + "LEFT JOIN (SELECT project, COUNT(*) n, SUM(version + id) v "
+                      + "FROM axenr_task_dependency "
+                      + "WHERE project = ANY (?) GROUP BY project) link "
+                      + "ON link.project = project.id "
+                      + "WHERE project.id = ANY (?)")) {
+            statement.setArray(1, ids);
+            statement.setArray(2, ids);
+            statement.setArray(3, ids);
+            try (ResultSet rows = statement.executeQuery()) {
+              while (rows.next()) {
+                long[] stamp = new long[PlanSnapshot.STAMP_SIZE];
+                for (int k = 0; k < stamp.length; k++) {
+                  stamp[k] = rows.getLong(k + 2);
+                }
+                stamps.put(rows.getLong(1), stamp);
+              }
+            }
+          } finally {
+            ids.free();
+          }
+        });
+    return stamps;
+  }
+
+  private static Date toSqlDate(LocalDate date) {
+    return date == null ? null : Date.valueOf(date);
+  }
+}
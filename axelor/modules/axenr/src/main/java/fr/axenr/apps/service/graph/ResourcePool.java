@@ -0,0 +1,115 @@
+package fr.axenr.apps.service.graph;
+
+import java.util.Arrays;
+
+/**
+ * Resources used by the tasks of a {@link ProjectGraph}, with their load.
+ *
+ * <p>Assignments are stored in compressed rows like the links of the graph: the assignments of
+ * task {@code i} are {@code resource[offset[i]]} to {@code resource[offset[i + 1] - 1]}, each
+ * asking for {@code units[k]} units of its resource.
+ */
+public class ResourcePool {
+
+  private final long[] resourceIds;
+  private final ResourceProfile[] profiles;
+  private final int[] offset;
+  private final int[] resource;
+  private final int[] units;
+
+  private ResourcePool(
+      long[] resourceIds, ResourceProfile[] profiles, int[] offset, int[] resource, int[] units) {
+    this.resourceIds = resourceIds;
+    this.profiles = profiles;
+    this.offset = offset;
+    this.resource = resource;
+    this.units = units;
+  }
+
+  /**
+   * Build the pool from its resources and the assignments of the tasks.
+   *
+   * @param resourceIds resource ids, sorted in ascending order
+   * @param capacity units available at the same time for each resource
+   * @param nodeCount number of nodes of the graph, gates included
+   * @param assignTask task index of each assignment
+   * @param assignResource resource index of each assignment
+   * @param assignUnits units asked by each assignment
+   * @param assignCount number of assignments actually used in the arrays
+   */
+  public static ResourcePool compile(
+      long[] resourceIds,
+      int[] capacity,
+      int nodeCount,
+      int[] assignTask,
+      int[] assignResource,
+      int[] assignUnits,
+      int assignCount) {
+    ResourceProfile[] profiles = new ResourceProfile[resourceIds.length];
+    for (int r = 0; r < profiles.length; r++) {
+      profiles[r] = new ResourceProfile(capacity[r]);
+    }
+
+    int[] offset = new int[nodeCount + 1];
+    for (int k = 0; k < assignCount; k++) {
+      offset[assignTask[k] + 1]++;
+    }
+    for (int i = 0; i < nodeCount; i++) {
+      offset[i + 1] += offset[i];
+    }
+    int[] resource = new int[assignCount];
+    int[] units = new int[assignCount];
+    int[] fill = Arrays.copyOf(offset, nodeCount);
+    for (int k = 0; k < assignCount; k++) {
+      int slot = fill[assignTask[k]]++;
+      resource[slot] = assignResource[k];
+      units[slot] = assignUnits[k];
+    }
+    return new ResourcePool(resourceIds, profiles, offset, resource, units);
+  }
+
+  public int size() {
+    return resourceIds.length;
+  }
+
+  /** Index of the resource, or a negative value if it is not part of the pool */
+  public int indexOf(long resourceId) {
+    return Arrays.binarySearch(resourceIds, resourceId);
+  }
+
+  /** Record load already booked on a resource, by the tasks of other projects for instance */
+  public void book(int resourceIndex, int start, int duration, int units) {
+    profiles[resourceIndex].reserve(start, duration, units);
+  }
+
+  /** First start, not before {@code from}, where the node fits on all its resources */
+  int fit(int node, int from, int duration) {
+    int first = offset[node];
+    int last = offset[node + 1];
+    if (first == last) {
+      return from;
+    }
+
+    // Moving to a later slot on one resource may break another one: repeat until all agree
+    int start = from;
+    boolean moved = true;
+    while (moved) {
+      moved = false;
+      for (int k = first; k < last; k++) {
+        int fit = profiles[resource[k]].fit(start, duration, units[k]);
+        if (fit != start) {
+          start = fit;
+          moved = true;
+        }
+      }
+    }
+    return start;
+  }
+
+  /** Book the resources of the node from its start */
+  void reserve(int node, int start, int duration) {
+    for (int k = offset[node]; k < offset[node + 1]; k++) {
+      profiles[resource[k]].reserve(start, duration, units[k]);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package fr.axenr.apps.service.graph;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Load of one resource over time, kept as a skyline: a step function giving the units in use from
+ * each change point until the next one.
+ *
+ * <p>Only change points are stored, so looking for the first slot where a task fits skips whole
+ * busy segments at a time instead of walking the timeline unit by unit. A task asking for more
+ * units than the capacity takes the whole resource.
+ */
+public class ResourceProfile {
+
+  private final int capacity;
+
+  /** Units in use from each key until the next key, 0 before the first key */
+  private final NavigableMap<Integer, Integer> steps = new TreeMap<>();
+
+  public ResourceProfile(int capacity) {
+    this.capacity = Math.max(1, capacity);
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * First start, not before {@code from}, where {@code units} more units stay within capacity for
+   * the whole duration.
+   */
+  public int fit(int from, int duration, int units) {
+    if (duration <= 0 || units <= 0) {
+      return from;
+    }
+    units = Math.min(units, capacity);
+
+    int start = from;
+    search:
+    while (true) {
+      if (usageAt(start) + units > capacity) {
+        start = steps.higherKey(start);
+        continue;
+      }
+      for (Map.Entry<Integer, Integer> step :
+          steps.subMap(start, false, start + duration, false).entrySet()) {
+        if (step.getValue() + units > capacity) {
+          start = step.getKey();
+          continue search;
+        }
+      }
+      return start;
+    }
+  }
+
+  /** Book {@code units} units from {@code start} for {@code duration} */
+  public void reserve(int start, int duration, int units) {
+    if (duration <= 0 || units <= 0) {
+      return;
+    }
+    units = Math.min(units, capacity);
+
+    int end = start + duration;
+    steps.putIfAbsent(end, usageAt(end));
+    steps.putIfAbsent(start, usageAt(start));
+    for (Map.Entry<Integer, Integer> step : steps.subMap(start, true, end, false).entrySet()) {
+      step.setValue(step.getValue() + units);
+    }
+  }
+
+  private int usageAt(int time) {
+    Map.Entry<Integer, Integer> step = steps.floorEntry(time);
+    return step == null ? 0 : step.getValue();
+  }
+}
@@ -0,0 +1,50 @@
+package fr.axenr.apps.web;
+
+import com.google.inject.Inject;
+import fr.axenr.apps.service.ActiveTaskService;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/** Tasks in progress on a day or during a period, across all projects, served as JSON */
+@Path("/axenr/active-tasks")
+public class ActiveTaskRest {
+
+  private final ActiveTaskService activeTaskService;
+
+  @Inject
+  public ActiveTaskRest(ActiveTaskService activeTaskService) {
+    this.activeTaskService = activeTaskService;
+  }
+
+  /**
+   * Tasks whose dates overlap {@code from} to {@code to} (ISO dates, both included), in start
+   * order. Without {@code to}, the tasks in progress on {@code from}; without either, today.
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response getActiveTasks(
+      @QueryParam("from") String from,
+      @QueryParam("to") String to,
+      @QueryParam("offset") @DefaultValue("0") int offset,
+      @QueryParam("limit") @DefaultValue("100") int limit) {
+    if (offset < 0 || limit < 1 || limit > 1000) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("Invalid parameters").build();
+    }
+    try {
+      LocalDate first = from == null ? LocalDate.now() : LocalDate.parse(from);
+      LocalDate last = to == null ? first : LocalDate.parse(to);
+      return Response.ok(activeTaskService.findActive(first, last, offset, limit)).build();
+    } catch (DateTimeParseException e) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("Invalid date").build();
+    } catch (IllegalArgumentException e) {
+      return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package fr.axenr.apps.web;
+
+import com.google.inject.Inject;
+import fr.axenr.apps.service.ReadReplicaService;
+import java.util.Map;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+/** Connections of the primary and replica pools, with the replica lag, served as JSON */
+@Path("/axenr/db-pools")
+public class DatabasePoolRest {
+
+  private final ReadReplicaService readReplicaService;
+
+  @Inject
+  public DatabasePoolRest(ReadReplicaService readReplicaService) {
+    this.readReplicaService = readReplicaService;
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> getStats() {
+    return readReplicaService.getStats();
+  }
+}
@@ -0,0 +1,55 @@
+package fr.axenr.apps.web;
+
+import com.google.inject.Inject;
+import fr.axenr.apps.service.GanttService;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/** Windows of the Gantt chart of a project, served as JSON to {@code axenr/gantt.html} */
+@Path("/axenr/projects/{id}/gantt")
+public class GanttRest {
+
+  private final GanttService ganttService;
+
+  @Inject
+  public GanttRest(GanttService ganttService) {
+    this.ganttService = ganttService;
+  }
+
+  /**
+   * Rows {@code rowFrom} to {@code rowFrom + rows} of the outline shown down to {@code level},
+   * with the links between them, dated over {@code from} to {@code to} (ISO dates, both included).
+   * Without dates, the first month of the project.
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response getWindow(
+      @PathParam("id") Long projectId,
+      @QueryParam("rowFrom") @DefaultValue("0") int rowFrom,
+      @QueryParam("rows") @DefaultValue("100") int rows,
+      @QueryParam("from") String from,
+      @QueryParam("to") String to,
+      @QueryParam("level") @DefaultValue("2147483647") int level) {
+    if (projectId == null) {
+      return Response.status(Response.Status.NOT_FOUND).build();
+    }
+    try {
+      LocalDate first = from == null ? null : LocalDate.parse(from);
+      LocalDate last = to == null ? null : LocalDate.parse(to);
+      return Response.ok(ganttService.getWindow(projectId, rowFrom, rows, first, last, level))
+          .build();
+    } catch (DateTimeParseException e) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("Invalid date").build();
+    } catch (IllegalArgumentException e) {
+      return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package fr.axenr.apps.web;
+
+import com.google.inject.Inject;
+import fr.axenr.apps.service.PlanExportService;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Plan of a project, streamed as CSV ({@code format=csv}) or MS Project XML ({@code format=xml})
+ * and compressed on the fly for clients accepting gzip.
+ */
+@Path("/axenr/projects/{id}/export")
+public class PlanExportRest {
+
+  /** Size of the compression buffer */
+  private static final int GZIP_BUFFER = 8192;
+
+  private final PlanExportService planExportService;
+
+  @Inject
+  public PlanExportRest(PlanExportService planExportService) {
+    this.planExportService = planExportService;
+  }
+
+  @GET
+  public Response export(
+      @PathParam("id") Long projectId,
+      @QueryParam("format") @DefaultValue("csv") String format,
+      @HeaderParam("Accept-Encoding") String acceptEncoding) {
+    boolean xml = "xml".equals(format);
+    if (!xml && !"csv".equals(format)) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("Unknown format").build();
+    }
+    if (projectId == null || !planExportService.exists(projectId)) {
+      return Response.status(Response.Status.NOT_FOUND).build();
+    }
+
+    boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+    StreamingOutput body =
+        output -> {
+          // Flushing the header sends the first bytes before the tasks are read
+          OutputStream stream = gzip ? new GZIPOutputStream(output, GZIP_BUFFER, true) : output;
+          if (xml) {
+            planExportService.writeProject(projectId, stream);
+          } else {
+            planExportService.writeCsv(projectId, stream);
+          }
+          if (stream instanceof GZIPOutputStream) {
+            ((GZIPOutputStream) stream).finish();
+          }
+          stream.flush();
+        };
+
+    Response.ResponseBuilder response =
+        Response.ok(body, xml ? "application/xml; charset=UTF-8" : "text/csv; charset=UTF-8")
+            .header(
+                "Content-Disposition",
+                "attachment; filename=\"plan-" + projectId + (xml ? ".xml" : ".csv") + "\"")
+            .header("Vary", "Accept-Encoding");
+    if (gzip) {
+      response.header("Content-Encoding", "gzip");
+    }
+    return response.build();
+  }
+}
@@ -0,0 +1,28 @@
+package fr.axenr.apps.web;
+
+import com.google.inject.Inject;
+import fr.axenr.apps.service.ProjectSummaryService;
+import java.util.List;
+import java.util.Map;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+/** Project summaries, served as JSON to the portfolio dashboard (axenr/portfolio.html) */
+@Path("/axenr/portfolio")
+public class PortfolioRest {
+
+  private final ProjectSummaryService projectSummaryService;
+
+  @Inject
+  public PortfolioRest(ProjectSummaryService projectSummaryService) {
+    this.projectSummaryService = projectSummaryService;
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  public List<Map<String, Object>> getPortfolio() {
+    return projectSummaryService.getPortfolio();
+  }
+}
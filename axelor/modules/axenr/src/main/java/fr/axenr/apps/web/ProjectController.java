@@ -1,24 +1,64 @@
 package fr.axenr.apps.web;
 
+import com.axelor.db.JPA;
+import com.axelor.i18n.I18n;
+import com.axelor.meta.MetaFiles;
+import com.axelor.meta.db.MetaFile;
+import com.axelor.meta.schema.actions.ActionView;
 import com.axelor.rpc.ActionRequest;
 import com.axelor.rpc.ActionResponse;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import fr.axenr.apps.db.Project;
+import fr.axenr.apps.db.Task;
 import fr.axenr.apps.db.repo.ProjectRepository;
+import fr.axenr.apps.service.PlanBaselineService;
+import fr.axenr.apps.service.PlanDiff;
+import fr.axenr.apps.service.PlanViolations;
+import fr.axenr.apps.service.PlanningRecomputeQueue;
+import fr.axenr.apps.service.ProjectSummaryService;
+import fr.axenr.apps.service.RecomputeQueueStats;
+import fr.axenr.apps.service.RecomputeStatus;
+import fr.axenr.apps.service.TaskBulkService;
+import fr.axenr.apps.service.TaskImportProgress;
+import fr.axenr.apps.service.TaskImportService;
 import fr.axenr.apps.service.TaskPlanningService;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 @Singleton
 public class ProjectController {
 
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
   private final ProjectRepository projectRepository;
   private final TaskPlanningService taskPlanningService;
+  private final PlanningRecomputeQueue planningRecomputeQueue;
+  private final TaskBulkService taskBulkService;
+  private final PlanBaselineService planBaselineService;
+  private final TaskImportService taskImportService;
+  private final ProjectSummaryService projectSummaryService;
 
   @Inject
   public ProjectController(
-      ProjectRepository projectRepository, TaskPlanningService taskPlanningService) {
+      ProjectRepository projectRepository,
+      TaskPlanningService taskPlanningService,
+      PlanningRecomputeQueue planningRecomputeQueue,
+      TaskBulkService taskBulkService,
+      PlanBaselineService planBaselineService,
+      TaskImportService taskImportService,
+      ProjectSummaryService projectSummaryService) {
     this.projectRepository = projectRepository;
     this.taskPlanningService = taskPlanningService;
+    this.planningRecomputeQueue = planningRecomputeQueue;
+    this.taskBulkService = taskBulkService;
+    this.planBaselineService = planBaselineService;
+    this.taskImportService = taskImportService;
+    this.projectSummaryService = projectSummaryService;
   }
 
   /**
@@ -45,11 +85,8 @@ public class ProjectController {
         return;
       }
 
-      // Force initialization of task list
-      project.getTaskList().size();
-
-      // Validate project has tasks
-      if (project.getTaskList() == null || project.getTaskList().isEmpty()) {
+      // Validate project has tasks, without loading them
+      if (!hasTasks(project)) {
         response.setError("Le projet ne contient aucune tâche à calculer");
         return;
       }
@@ -60,11 +97,14 @@ public class ProjectController {
         return;
       }
 
-      // Compute dates
-      taskPlanningService.computeDates(project);
+      // Compute dates now, the recompute queued by the save is no longer needed
+      planningRecomputeQueue.cancel(project.getId());
+      PlanDiff diff = taskPlanningService.computeDates(project);
+      // Projects waiting on the tasks that moved follow in the background
+      planningRecomputeQueue.propagate(project.getId(), diff.getTaskIds());
 
-      // Reload the view to show updated dates
-      response.setReload(true);
+      // Show the updated dates, and the page of tasks again if some moved
+      setPlanValues(response, diff);
 
       // Show success message
       response.setNotify("Les dates des tâches ont été calculées avec succès");
@@ -108,8 +148,8 @@ public class ProjectController {
         return;
       }
 
-      // Validate project has tasks
-      if (project.getTaskList() == null || project.getTaskList().isEmpty()) {
+      // Validate project has tasks, without loading them
+      if (!hasTasks(project)) {
         response.setError("Le projet ne contient aucune tâche à calculer");
         return;
       }
@@ -121,10 +161,12 @@ public class ProjectController {
       }
 
       // Compute dates backward
-      taskPlanningService.computeDatesBackward(project);
+      planningRecomputeQueue.cancel(project.getId());
+      PlanDiff diff = taskPlanningService.computeDatesBackward(project);
+      planningRecomputeQueue.propagate(project.getId(), diff.getTaskIds());
 
-      // Reload the view to show updated dates
-      response.setReload(true);
+      // Show the updated dates, and the page of tasks again if some moved
+      setPlanValues(response, diff);
 
       // Show success message
       response.setNotify("Rétroplanning calculé avec succès");
@@ -143,4 +185,385 @@ public class ProjectController {
       e.printStackTrace(); // Log the error for debugging
     }
   }
+
+  /** Show the task counts of the project, kept up to date each time it is planned */
+  public void showSummary(ActionRequest request, ActionResponse response) {
+    Long projectId = (Long) request.getContext().get("id");
+    if (projectId != null) {
+      setSummaryValues(response, projectId);
+    }
+    response.setValue(
+        "$constraintViolationsText",
+        describeViolations((String) request.getContext().get("constraintViolations")));
+  }
+
+  /** Show the status of the background recompute of the project, with the queue load */
+  public void showPlanningStatus(ActionRequest request, ActionResponse response) {
+    Long projectId = (Long) request.getContext().get("id");
+    RecomputeStatus status = projectId != null ? planningRecomputeQueue.getStatus(projectId) : null;
+    if (status == null) {
+      response.setValue("$planningStatus", null);
+      return;
+    }
+
+    String text;
+    switch (status) {
+      case QUEUED:
+        text = "Recalcul programmé";
+        break;
+      case DEFERRED:
+        text = "Recalcul différé, serveur occupé";
+        break;
+      case REJECTED:
+        text = "Recalcul refusé, file d'attente pleine";
+        break;
+      case RUNNING:
+        text = "Recalcul en cours";
+        break;
+      case FAILED:
+        text = "Échec du recalcul : " + planningRecomputeQueue.getFailure(projectId);
+        break;
+      default:
+        text = "Planning à jour";
+    }
+
+    RecomputeQueueStats stats = planningRecomputeQueue.getStats();
+    text +=
+        String.format(
+            " (file : %d, attente moyenne : %.1f s)",
+            stats.getDepth(), stats.getAverageWaitMs() / 1000.0);
+    response.setValue("$planningStatus", text);
+  }
+
+  /** Move the project and all its task dates by the number of days entered */
+  public void shiftProject(ActionRequest request, ActionResponse response) {
+    try {
+      Project project = findProject(request, response);
+      BigDecimal days = getDecimal(request, "$shiftDays");
+      if (project == null) {
+        return;
+      }
+      if (days == null || days.signum() == 0) {
+        response.setError("Veuillez saisir un nombre de jours");
+        return;
+      }
+
+      int shift;
+      try {
+        shift = days.intValueExact();
+      } catch (ArithmeticException e) {
+        response.setError(I18n.get("The number of days must be a whole number"));
+        return;
+      }
+
+      int moved = taskBulkService.shiftProject(project, shift);
+      planningRecomputeQueue.propagate(project.getId(), null);
+      response.setValue("$shiftDays", null);
+      response.setReload(true);
+      response.setNotify(String.format("Projet décalé, %d tâche(s) déplacée(s)", moved));
+
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      response.setError(e.getMessage());
+    }
+  }
+
+  /** Scale the duration of the selected tasks by the percentage entered */
+  public void scaleDurations(ActionRequest request, ActionResponse response) {
+    try {
+      Project project = findProject(request, response);
+      if (project == null) {
+        return;
+      }
+
+      planningRecomputeQueue.cancel(project.getId());
+      int updated =
+          taskBulkService.scaleDurations(
+              project, getSelectedTaskIds(request), getDecimal(request, "$durationPercent"));
+      if (updated > 0) {
+        planningRecomputeQueue.propagate(project.getId(), null);
+      }
+      response.setReload(true);
+      response.setNotify(String.format("Durée modifiée sur %d tâche(s)", updated));
+
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      response.setError(e.getMessage());
+    }
+  }
+
+  /** Set the delay to start of the selected tasks */
+  public void setDelayToStart(ActionRequest request, ActionResponse response) {
+    try {
+      Project project = findProject(request, response);
+      if (project == null) {
+        return;
+      }
+
+      planningRecomputeQueue.cancel(project.getId());
+      int updated =
+          taskBulkService.setDelayToStart(
+              project, getSelectedTaskIds(request), getDecimal(request, "$bulkDelay"));
+      if (updated > 0) {
+        planningRecomputeQueue.propagate(project.getId(), null);
+      }
+      response.setReload(true);
+      response.setNotify(String.format("Délai modifié sur %d tâche(s)", updated));
+
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      response.setError(e.getMessage());
+    }
+  }
+
+  /** Freeze the current task dates into a new baseline, used as reference from now on */
+  public void takeBaseline(ActionRequest request, ActionResponse response) {
+    try {
+      Project project = findProject(request, response);
+      if (project == null) {
+        return;
+      }
+
+      String name = (String) request.getContext().get("$baselineName");
+      if (name == null || name.isBlank()) {
+        name = "Référence du " + LocalDate.now().format(DATE_FORMAT);
+      }
+      planBaselineService.takeBaseline(project, name);
+      response.setValue("$baselineName", null);
+      response.setReload(true);
+      response.setNotify("Référence enregistrée : " + name);
+
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      response.setError(e.getMessage());
+    }
+  }
+
+  /** Compare the tasks with the reference baseline just selected */
+  public void refreshVariance(ActionRequest request, ActionResponse response) {
+    try {
+      Project project = findProject(request, response);
+      if (project == null) {
+        return;
+      }
+
+      planBaselineService.refreshVariance(project.getId());
+      response.setReload(true);
+
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      response.setError(e.getMessage());
+    }
+  }
+
+  /** Import the tasks of the CSV or MS Project file uploaded, in the background */
+  @SuppressWarnings("unchecked")
+  public void importTasks(ActionRequest request, ActionResponse response) {
+    try {
+      Project project = findProject(request, response);
+      if (project == null) {
+        return;
+      }
+
+      Map<String, Object> file = (Map<String, Object>) request.getContext().get("$importFile");
+      MetaFile metaFile =
+          file != null && file.get("id") != null
+              ? JPA.find(MetaFile.class, ((Number) file.get("id")).longValue())
+              : null;
+      if (metaFile == null) {
+        response.setError("Veuillez choisir un fichier à importer");
+        return;
+      }
+
+      taskImportService.start(
+          project.getId(), MetaFiles.getPath(metaFile), metaFile.getFileName());
+      response.setValue("$importFile", null);
+      response.setNotify("Import lancé, suivez son avancement dans le panneau Import");
+      showImportStatus(request, response);
+
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      response.setError(e.getMessage());
+    }
+  }
+
+  /** Show the progress of the last import of tasks into the project */
+  public void showImportStatus(ActionRequest request, ActionResponse response) {
+    Long projectId = (Long) request.getContext().get("id");
+    TaskImportProgress progress =
+        projectId != null ? taskImportService.getProgress(projectId) : null;
+    if (progress == null) {
+      response.setValue("$importStatus", null);
+      return;
+    }
+
+    String text;
+    switch (progress.getPhase()) {
+      case QUEUED:
+        text = "Import en attente";
+        break;
+      case READING:
+        text =
+            String.format(
+                "Lecture du fichier : %d %%, %d tâche(s)",
+                progress.getPercentRead(), progress.getTaskCount());
+        break;
+      case LINKING:
+        text = String.format("Liaison de %d tâche(s)", progress.getTaskCount());
+        break;
+      case CHECKING:
+        text = "Recherche de dépendances circulaires";
+        break;
+      case PLANNING:
+        text = "Calcul des dates";
+        break;
+      case FAILED:
+        text = "Échec de l'import, aucune tâche importée : " + progress.getFailure();
+        break;
+      default:
+        text =
+            String.format(
+                "Import terminé : %d tâche(s), %d dépendance(s)",
+                progress.getTaskCount(), progress.getLinkCount());
+    }
+    response.setValue("$importStatus", progress.getFileName() + " - " + text);
+  }
+
+  /** Download the plan as CSV, streamed by the export endpoint */
+  public void exportPlanCsv(ActionRequest request, ActionResponse response) {
+    openExport(request, response, "csv");
+  }
+
+  /** Download the plan as MS Project XML, streamed by the export endpoint */
+  public void exportPlanXml(ActionRequest request, ActionResponse response) {
+    openExport(request, response, "xml");
+  }
+
+  /** Open the Gantt chart of the project, loaded by windows as it is scrolled */
+  public void showGantt(ActionRequest request, ActionResponse response) {
+    Long projectId = (Long) request.getContext().get("id");
+    if (projectId == null) {
+      response.setError("Veuillez sauvegarder le projet avant d'afficher son Gantt");
+      return;
+    }
+    response.setView(
+        ActionView.define("Gantt").add("html", "axenr/gantt.html?project=" + projectId).map());
+  }
+
+  private void openExport(ActionRequest request, ActionResponse response, String format) {
+    Long projectId = (Long) request.getContext().get("id");
+    if (projectId == null) {
+      response.setError("Veuillez sauvegarder le projet avant de l'exporter");
+      return;
+    }
+    response.setView(
+        ActionView.define("Export du planning")
+            .add("html", "ws/axenr/projects/" + projectId + "/export?format=" + format)
+            .param("target", "_blank")
+            .map());
+  }
+
+  /**
+   * Push the new plan to the form instead of reloading the project: its dates and summary, and
+   * the page of tasks shown, fetched again only when some task moved
+   */
+  private void setPlanValues(ActionResponse response, PlanDiff diff) {
+    response.setValue("startDate", diff.getStartDate());
+    response.setValue("endDate", diff.getEndDate());
+    PlanViolations violations = diff.getConstraintViolations();
+    response.setValue("constraintViolations", violations != null ? violations.toJson() : null);
+    response.setValue("$constraintViolationsText", describeViolations(violations));
+    setSummaryValues(response, diff.getProjectId());
+    if (violations != null) {
+      response.setAlert(
+          I18n.get("The plan does not meet all the date constraints:")
+              + "<br/>"
+              + describeViolations(violations).replace("\n", "<br/>"));
+    }
+    if (diff.size() > 0) {
+      response.setAttr("taskDashlet", "refresh", true);
+    }
+  }
+
+  /** The constraints stored on the project, as shown to the user */
+  private static String describeViolations(String stored) {
+    PlanViolations violations = PlanViolations.fromJson(stored);
+    // Stored as text by an earlier version, until the project is planned again
+    return violations != null ? describeViolations(violations) : stored;
+  }
+
+  /**
+   * The constraints missed by the plan, one per line with the chain of tasks causing it, {@code
+   * null} when all are met
+   */
+  private static String describeViolations(PlanViolations violations) {
+    if (violations == null) {
+      return null;
+    }
+    StringBuilder text = new StringBuilder();
+    for (PlanViolations.Violation violation : violations.getViolations()) {
+      String missed;
+      switch (violation.getType()) {
+        case DEADLINE:
+          missed = I18n.get("%s ends %d day(s) after its finish no later than");
+          break;
+        case MUST_START_ON:
+          missed =
+              violations.isForward()
+                  ? I18n.get("%s starts %d day(s) after its must start on")
+                  : I18n.get("%s starts %d day(s) before its must start on");
+          break;
+        default:
+          missed =
+              I18n.get("%s starts %d day(s) before its start no earlier than or its predecessors");
+      }
+      String chain =
+          violations.isForward() ? I18n.get("%s, driven by: %s") : I18n.get("%s, held by: %s");
+      text.append(
+              String.format(
+                  chain,
+                  String.format(missed, violation.getTaskName(), violation.getDays()),
+                  String.join(" > ", violation.getPath())))
+          .append('\n');
+    }
+    if (violations.getOmittedCount() > 0) {
+      text.append(String.format(I18n.get("and %d more"), violations.getOmittedCount()));
+    }
+    return text.toString().trim();
+  }
+
+  private void setSummaryValues(ActionResponse response, Long projectId) {
+    projectSummaryService
+        .getCounts(projectId)
+        .forEach((name, count) -> response.setValue("$" + name, count));
+  }
+
+  private boolean hasTasks(Project project) {
+    return JPA.all(Task.class).filter("self.project = ?", project).count() > 0;
+  }
+
+  private Project findProject(ActionRequest request, ActionResponse response) {
+    Long projectId = (Long) request.getContext().get("id");
+    Project project = projectId != null ? projectRepository.find(projectId) : null;
+    if (project == null) {
+      response.setError("Veuillez sauvegarder le projet avant de modifier ses tâches");
+    }
+    return project;
+  }
+
+  private BigDecimal getDecimal(ActionRequest request, String name) {
+    Object value = request.getContext().get(name);
+    return value != null ? new BigDecimal(value.toString()) : null;
+  }
+
+  /** Ids of the tasks picked for bulk editing */
+  @SuppressWarnings("unchecked")
+  private List<Long> getSelectedTaskIds(ActionRequest request) {
+    List<Long> ids = new ArrayList<>();
+    List<Map<String, Object>> tasks =
+        (List<Map<String, Object>>) request.getContext().get("$bulkTasks");
+    if (tasks == null) {
+      return ids;
+    }
+    for (Map<String, Object> task : tasks) {
+      if (task.get("id") != null) {
+        ids.add(((Number) task.get("id")).longValue());
+      }
+    }
+    return ids;
+  }
 }
@@ -0,0 +1,65 @@
+package fr.axenr.apps.web;
+
+import com.google.inject.Inject;
+import fr.axenr.apps.service.ResourceLoad;
+import fr.axenr.apps.service.ResourceLoadService;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/** Daily resource load, served as JSON to the load chart (axenr/resource-load.html) */
+@Path("/axenr/resource-load")
+public class ResourceLoadRest {
+
+  private final ResourceLoadService resourceLoadService;
+
+  @Inject
+  public ResourceLoadRest(ResourceLoadService resourceLoadService) {
+    this.resourceLoadService = resourceLoadService;
+  }
+
+  /**
+   * Load of every resource per day.
+   *
+   * @param from first day, ISO format, defaults to today
+   * @param to last day, ISO format, defaults to 90 days after the first one
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response getLoad(@QueryParam("from") String from, @QueryParam("to") String to) {
+    ResourceLoad load;
+    try {
+      LocalDate first = from == null || from.isEmpty() ? LocalDate.now() : LocalDate.parse(from);
+      LocalDate last = to == null || to.isEmpty() ? first.plusDays(90) : LocalDate.parse(to);
+      load = resourceLoadService.getLoad(first, last);
+    } catch (DateTimeParseException | IllegalArgumentException e) {
+      return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+    }
+
+    List<Map<String, Object>> resources = new ArrayList<>();
+    for (int r = 0; r < load.getResourceCount(); r++) {
+      Map<String, Object> resource = new HashMap<>();
+      resource.put("id", load.getResourceId(r));
+      resource.put("name", load.getResourceName(r));
+      resource.put("capacity", load.getCapacity(r));
+      resource.put("load", load.getLoad(r));
+      resources.add(resource);
+    }
+
+    Map<String, Object> body = new HashMap<>();
+    body.put("planVersion", load.getPlanVersion());
+    body.put("from", load.getFrom().toString());
+    body.put("to", load.getTo().toString());
+    body.put("resources", resources);
+    return Response.ok(body).build();
+  }
+}
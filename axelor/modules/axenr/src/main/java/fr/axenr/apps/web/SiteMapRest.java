@@ -0,0 +1,64 @@
+package fr.axenr.apps.web;
+
+import com.google.inject.Inject;
+import fr.axenr.apps.service.SiteMapService;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/** Sites and crews, served as JSON to the site map (axenr/site-map.html) */
+@Path("/axenr/sites")
+public class SiteMapRest {
+
+  private final SiteMapService siteMapService;
+
+  @Inject
+  public SiteMapRest(SiteMapService siteMapService) {
+    this.siteMapService = siteMapService;
+  }
+
+  /**
+   * Sites within the visible part of the map, clustered for its zoom level. Longitudes are
+   * clamped to the world, the map not wrapping around the antimeridian.
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response getSites(
+      @QueryParam("south") @DefaultValue("-90") double south,
+      @QueryParam("west") @DefaultValue("-180") double west,
+      @QueryParam("north") @DefaultValue("90") double north,
+      @QueryParam("east") @DefaultValue("180") double east,
+      @QueryParam("zoom") @DefaultValue("0") int zoom) {
+    if (south > north || west > east) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("Invalid bounds").build();
+    }
+    return Response.ok(
+            siteMapService.getSites(
+                Math.max(-90, south),
+                Math.max(-180, west),
+                Math.min(90, north),
+                Math.min(180, east),
+                zoom))
+        .build();
+  }
+
+  /** Crews nearest to the site of a task and free during the whole task */
+  @GET
+  @Path("/nearest-crews")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response getNearestCrews(
+      @QueryParam("task") Long taskId, @QueryParam("limit") @DefaultValue("5") int limit) {
+    if (taskId == null || limit < 1 || limit > 100) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("Invalid parameters").build();
+    }
+    try {
+      return Response.ok(siteMapService.findNearestCrews(taskId, limit)).build();
+    } catch (IllegalArgumentException e) {
+      return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+    }
+  }
+}
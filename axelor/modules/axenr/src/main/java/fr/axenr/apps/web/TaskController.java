@@ -0,0 +1,95 @@
+package fr.axenr.apps.web;
+
+import com.axelor.meta.schema.actions.ActionView;
+import com.axelor.rpc.ActionRequest;
+import com.axelor.rpc.ActionResponse;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import fr.axenr.apps.db.Task;
+import fr.axenr.apps.service.ActiveTaskService;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Singleton
+public class TaskController {
+
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+  /** Most tasks listed by the grid of the tasks in progress */
+  private static final int MAX_ACTIVE_TASKS = 5000;
+
+  private final ActiveTaskService activeTaskService;
+
+  @Inject
+  public TaskController(ActiveTaskService activeTaskService) {
+    this.activeTaskService = activeTaskService;
+  }
+
+  /** Open the site map on the site of the task, with the nearest crews free during the task */
+  public void showNearestCrews(ActionRequest request, ActionResponse response) {
+    Task task = request.getContext().asType(Task.class);
+    if (task.getId() == null) {
+      response.setError("Veuillez sauvegarder la tâche avant de chercher une équipe");
+      return;
+    }
+    response.setView(
+        ActionView.define("Équipes les plus proches")
+            .add("html", "axenr/site-map.html?task=" + task.getId())
+            .map());
+  }
+
+  /**
+   * Open the grid of the tasks in progress during the period entered, found through the interval
+   * index rather than by filtering the dates of every task
+   */
+  public void showActiveTasks(ActionRequest request, ActionResponse response) {
+    LocalDate from = getDate(request, "$activeFrom");
+    LocalDate to = getDate(request, "$activeTo");
+    if (from == null) {
+      response.setError("Veuillez saisir une date");
+      return;
+    }
+    to = to == null ? from : to;
+    if (to.isBefore(from)) {
+      response.setError("La date de fin doit suivre la date de début");
+      return;
+    }
+
+    long[] ids = activeTaskService.findActiveIds(from, to);
+    if (ids.length == 0) {
+      response.setNotify("Aucune tâche en cours sur cette période");
+      return;
+    }
+    List<Long> shown =
+        Arrays.stream(ids).limit(MAX_ACTIVE_TASKS).boxed().collect(Collectors.toList());
+    String title =
+        from.equals(to)
+            ? "Tâches en cours le " + from.format(DATE_FORMAT)
+            : "Tâches en cours du " + from.format(DATE_FORMAT) + " au " + to.format(DATE_FORMAT);
+    response.setView(
+        ActionView.define(title)
+            .model(Task.class.getName())
+            .add("grid", "task-active-grid")
+            .add("form", "task-form")
+            .domain("self.id IN (:_activeTaskIds)")
+            .context("_activeTaskIds", shown)
+            .map());
+    if (ids.length > MAX_ACTIVE_TASKS) {
+      response.setNotify(
+          String.format(
+              "%d tâches en cours, seules les %d premières sont affichées",
+              ids.length, MAX_ACTIVE_TASKS));
+    }
+  }
+
+  private LocalDate getDate(ActionRequest request, String name) {
+    Object value = request.getContext().get(name);
+    if (value instanceof LocalDate) {
+      return (LocalDate) value;
+    }
+    return value != null ? LocalDate.parse(value.toString().substring(0, 10)) : null;
+  }
+}
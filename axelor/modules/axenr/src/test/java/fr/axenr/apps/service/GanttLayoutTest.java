@@ -0,0 +1,104 @@
+package fr.axenr.apps.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class GanttLayoutTest {
+
+  private static final int NO_DATE = GanttLayout.NO_DATE;
+
+  /**
+   * Task 1 holds 2 and 7, 2 holds 4; 5 and 6 are each other's parent, and the parent of 8 belongs
+   * to another project.
+   */
+  private static GanttLayout layout() {
+    return new GanttLayout(
+        new long[] {1},
+        new long[] {1, 2, 3, 4, 5, 6, 7, 8},
+        new Long[] {null, 1L, null, 2L, 6L, 5L, 1L, 99L},
+        new String[] {"Lot 1", "Gros œuvre", "Lot 2", "Fondations", "A", "B", "Finitions", "C"},
+        new int[] {100, 100, 120, 100, NO_DATE, 90, 110, NO_DATE},
+        new int[] {115, 105, 130, 104, NO_DATE, 95, 115, NO_DATE});
+  }
+
+  @Test
+  void listsEachParentBeforeItsSubTasks() {
+    GanttLayout layout = layout();
+
+    assertArrayEquals(new long[] {1, 2, 4, 7, 3, 8, 5, 6}, layout.ids);
+    assertArrayEquals(new int[] {1, 2, 3, 2, 1, 1, 1, 2}, layout.level);
+    assertEquals("Fondations", layout.names[2]);
+    assertEquals(3, layout.maxLevel);
+  }
+
+  @Test
+  void marksTheTasksHavingSubTasks() {
+    GanttLayout layout = layout();
+
+    assertTrue(layout.summary[layout.rowOf(1)]);
+    assertTrue(layout.summary[layout.rowOf(2)]);
+    assertFalse(layout.summary[layout.rowOf(4)]);
+    assertFalse(layout.summary[layout.rowOf(8)]);
+  }
+
+  @Test
+  void findsTheRowOfATask() {
+    GanttLayout layout = layout();
+
+    assertEquals(3, layout.rowOf(7));
+    assertEquals(7, layout.rowOf(6));
+    assertEquals(-1, layout.rowOf(99));
+  }
+
+  @Test
+  void spansTheDatesOfThePlannedTasks() {
+    GanttLayout layout = layout();
+
+    assertEquals(90, layout.firstDay);
+    assertEquals(130, layout.lastDay);
+    assertTrue(layout.overlaps(layout.rowOf(3), 130, 140));
+    assertFalse(layout.overlaps(layout.rowOf(3), 131, 140));
+    assertFalse(layout.overlaps(layout.rowOf(5), 0, Integer.MAX_VALUE));
+  }
+
+  @Test
+  void hasNoDatesWithoutPlannedTasks() {
+    GanttLayout layout =
+        new GanttLayout(
+            new long[] {1},
+            new long[] {1},
+            new Long[] {null},
+            new String[] {"Lot 1"},
+            new int[] {NO_DATE},
+            new int[] {NO_DATE});
+
+    assertEquals(NO_DATE, layout.firstDay);
+    assertEquals(NO_DATE, layout.lastDay);
+  }
+
+  @Test
+  void hidesTheRowsBelowTheLevelShown() {
+    GanttLayout layout = layout();
+
+    GanttLayout.LevelView view = layout.view(2);
+
+    assertArrayEquals(new int[] {0, 1, 3, 4, 5, 6, 7}, view.rows);
+    assertEquals(-1, view.position[2]);
+    assertEquals(2, view.position[3]);
+    assertSame(view, layout.view(2));
+  }
+
+  @Test
+  void bringsTheLevelShownWithinTheOutline() {
+    GanttLayout layout = layout();
+
+    assertEquals(4, layout.view(0).size());
+    assertSame(layout.view(3), layout.view(9));
+    assertEquals(layout.size(), layout.view(9).size());
+  }
+}
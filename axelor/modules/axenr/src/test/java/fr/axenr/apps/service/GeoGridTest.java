@@ -0,0 +1,141 @@
+package fr.axenr.apps.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class GeoGridTest {
+
+  private static final int POINTS = 2000;
+
+  /** Points spread over France, a few far away */
+  private static GeoGrid grid(double cellSize) {
+    Random random = new Random(42);
+    long[] ids = new long[POINTS];
+    double[] latitude = new double[POINTS];
+    double[] longitude = new double[POINTS];
+    for (int i = 0; i < POINTS; i++) {
+      ids[i] = 1000 + i;
+      boolean far = i % 100 == 0;
+      latitude[i] = far ? random.nextDouble() * 160 - 80 : 42 + random.nextDouble() * 9;
+      longitude[i] = far ? random.nextDouble() * 340 - 170 : -4 + random.nextDouble() * 12;
+    }
+    return new GeoGrid(ids, latitude, longitude, cellSize);
+  }
+
+  @Test
+  void findsTheSameNearestPointsAsAScan() {
+    GeoGrid grid = grid(0.5);
+
+    assertNearest(grid, 45.76, 4.84, 5, k -> true);
+    assertNearest(grid, 48.85, 2.35, 50, k -> true);
+    // Far from the points, the rings grow until the scan takes over
+    assertNearest(grid, -60, 120, 3, k -> true);
+  }
+
+  @Test
+  void skipsPointsNotAccepted() {
+    GeoGrid grid = grid(0.5);
+    IntPredicate even = k -> grid.getId(k) % 2 == 0;
+
+    assertNearest(grid, 45.76, 4.84, 10, even);
+    for (int k : grid.nearest(45.76, 4.84, 10, even)) {
+      assertEquals(0, grid.getId(k) % 2);
+    }
+  }
+
+  @Test
+  void returnsFewerPointsThanAskedWhenThereAreNotEnough() {
+    GeoGrid grid = grid(0.5);
+
+    assertEquals(POINTS, grid.nearest(45, 2, POINTS + 10, k -> true).length);
+    assertEquals(0, grid.nearest(45, 2, 0, k -> true).length);
+  }
+
+  @Test
+  void clustersEveryPointOfTheRectangleOnce() {
+    GeoGrid grid = grid(0.5);
+
+    for (double clusterSize : new double[] {0, 0.1, 1, 5}) {
+      List<GeoGrid.Cluster> clusters = grid.cluster(43.2, -1.3, 49.7, 7.1, clusterSize);
+
+      int total = clusters.stream().mapToInt(GeoGrid.Cluster::getCount).sum();
+      assertEquals(countInside(grid, 43.2, -1.3, 49.7, 7.1), total, "size " + clusterSize);
+    }
+  }
+
+  @Test
+  void leavesEveryPointAloneWithoutClusterSize() {
+    GeoGrid grid = grid(0.5);
+
+    List<GeoGrid.Cluster> clusters = grid.cluster(45, 2, 46, 3, 0);
+
+    for (GeoGrid.Cluster cluster : clusters) {
+      assertEquals(1, cluster.getCount());
+      assertEquals(grid.getLatitude(cluster.getIndex()), cluster.getLatitude());
+    }
+  }
+
+  @Test
+  void placesClustersOnTheMeanOfTheirPoints() {
+    GeoGrid grid =
+        new GeoGrid(new long[] {1, 2, 3}, new double[] {45, 45.2, 48}, new double[] {2, 2.4, 6}, 1);
+
+    List<GeoGrid.Cluster> clusters = grid.cluster(40, 0, 50, 10, 1);
+    clusters.sort(Comparator.comparingDouble(GeoGrid.Cluster::getLatitude));
+
+    assertEquals(2, clusters.size());
+    assertEquals(2, clusters.get(0).getCount());
+    assertEquals(45.1, clusters.get(0).getLatitude(), 1e-9);
+    assertEquals(2.2, clusters.get(0).getLongitude(), 1e-9);
+    assertEquals(-1, clusters.get(0).getIndex());
+    assertEquals(3, grid.getId(clusters.get(1).getIndex()));
+  }
+
+  @Test
+  void measuresGreatCircleDistances() {
+    // Paris to Lyon
+    assertEquals(392, GeoGrid.distance(48.8566, 2.3522, 45.764, 4.8357), 1);
+    assertEquals(0.0, GeoGrid.distance(45, 2, 45, 2));
+  }
+
+  private static void assertNearest(
+      GeoGrid grid, double lat, double lon, int limit, IntPredicate accept) {
+    double[] expected =
+        IntStream.range(0, grid.size())
+            .filter(accept)
+            .mapToDouble(k -> distanceTo(grid, k, lat, lon))
+            .sorted()
+            .limit(limit)
+            .toArray();
+    double[] found =
+        Arrays.stream(grid.nearest(lat, lon, limit, accept))
+            .mapToDouble(k -> distanceTo(grid, k, lat, lon))
+            .toArray();
+
+    assertArrayEquals(expected, found, 1e-9);
+  }
+
+  private static double distanceTo(GeoGrid grid, int k, double lat, double lon) {
+    return GeoGrid.distance(lat, lon, grid.getLatitude(k), grid.getLongitude(k));
+  }
+
+  private static long countInside(
+      GeoGrid grid, double south, double west, double north, double east) {
+    return IntStream.range(0, grid.size())
+        .filter(
+            k ->
+                grid.getLatitude(k) >= south
+                    && grid.getLatitude(k) <= north
+                    && grid.getLongitude(k) >= west
+                    && grid.getLongitude(k) <= east)
+        .count();
+  }
+}
@@ -0,0 +1,42 @@
+package fr.axenr.apps.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import fr.axenr.apps.service.graph.ConstraintViolation;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class PlanViolationsTest {
+
+  @Test
+  void readsBackTheViolationsItStores() {
+    PlanViolations violations =
+        new PlanViolations(
+            false,
+            List.of(
+                new PlanViolations.Violation(
+                    ConstraintViolation.Type.EARLIEST_START,
+                    "Pose \"rapide\"",
+                    3,
+                    List.of("Pose \"rapide\"", "Réception"))),
+            2);
+
+    PlanViolations read = PlanViolations.fromJson(violations.toJson());
+
+    assertFalse(read.isForward());
+    assertEquals(2, read.getOmittedCount());
+    PlanViolations.Violation violation = read.getViolations().get(0);
+    assertEquals(ConstraintViolation.Type.EARLIEST_START, violation.getType());
+    assertEquals("Pose \"rapide\"", violation.getTaskName());
+    assertEquals(3, violation.getDays());
+    assertEquals(List.of("Pose \"rapide\"", "Réception"), violation.getPath());
+  }
+
+  @Test
+  void leavesTextStoredByEarlierVersionsToTheCaller() {
+    assertNull(PlanViolations.fromJson(null));
+    assertNull(PlanViolations.fromJson("Pose starts 2 day(s) after its must start on"));
+  }
+}
@@ -0,0 +1,180 @@
+package fr.axenr.apps.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import fr.axenr.apps.service.graph.ProjectGraph;
+import fr.axenr.apps.service.graph.ProjectGraphStore;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Two nodes sharing one PostgreSQL database, skipped unless {@code AXENR_TEST_DB_URL} is set, along
+ * with {@code AXENR_TEST_DB_USER} and {@code AXENR_TEST_DB_PASSWORD}. Only advisory locks and
+ * notifications are used, no table is needed.
+ */
+class PlanningClusterServiceTest {
+
+  private static final String URL = System.getenv("AXENR_TEST_DB_URL");
+  private static final String USER = System.getenv("AXENR_TEST_DB_USER");
+  private static final String PASSWORD = System.getenv("AXENR_TEST_DB_PASSWORD");
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  private final List<PlanningClusterService> nodes = new ArrayList<>();
+  private final List<Connection> connections = new ArrayList<>();
+
+  @BeforeEach
+  void requireDatabase() {
+    assumeTrue(URL != null, "AXENR_TEST_DB_URL is not set");
+  }
+
+  @AfterEach
+  void close() throws SQLException {
+    nodes.forEach(node -> node.onShutdown(null));
+    for (Connection connection : connections) {
+      connection.rollback();
+      connection.close();
+    }
+  }
+
+  @Test
+  void letsOneNodePlanAProjectAtATime() throws Exception {
+    PlanningClusterService first = node("first");
+    PlanningClusterService second = node("second");
+    Connection holder = transaction();
+    first.lockProject(holder, 42L);
+
+    Connection waiter = transaction();
+    CompletableFuture<Void> locked = CompletableFuture.runAsync(() -> lock(second, waiter, 42L));
+    assertThrows(TimeoutException.class, () -> locked.get(300, TimeUnit.MILLISECONDS));
+
+    // Other projects are not held up
+    Connection other = transaction();
+    assertTimeoutPreemptively(TIMEOUT, () -> second.lockProject(other, 43L));
+
+    holder.commit();
+    locked.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  void dropsTheGraphCachedByTheOtherNodeOnCommit() throws Exception {
+    PlanningClusterService first = node("first");
+    PlanningClusterService second = node("second");
+    ProjectGraphRegistry registry = new ProjectGraphRegistry(new ProjectGraphStore(), second);
+    second.onStartup(null);
+
+    awaitListening(first, registry);
+
+    registry.restore(graph(42L), null, 0);
+    publishAndCommit(first, 42L);
+    await(() -> registry.size() == 0);
+  }
+
+  @Test
+  void keepsTheGraphOnRollbackAndOnItsOwnEvents() throws Exception {
+    PlanningClusterService first = node("first");
+    PlanningClusterService second = node("second");
+    ProjectGraphRegistry registry = new ProjectGraphRegistry(new ProjectGraphStore(), second);
+    second.onStartup(null);
+    awaitListening(first, registry);
+
+    registry.restore(graph(42L), null, 0);
+    Connection rolledBack = transaction();
+    first.publishPlanUpdated(rolledBack, 42L);
+    rolledBack.rollback();
+    publishAndCommit(second, 42L);
+    Thread.sleep(1500);
+
+    assertEquals(1, registry.size());
+  }
+
+  /**
+   * Publish until the listener of the other node is connected, then let the events already sent
+   * arrive
+   */
+  private void awaitListening(PlanningClusterService publisher, ProjectGraphRegistry registry)
+      throws InterruptedException {
+    await(
+        () -> {
+          registry.restore(graph(42L), null, 0);
+          publishAndCommit(publisher, 42L);
+          return registry.size() == 0;
+        });
+    Thread.sleep(1500);
+  }
+
+  private PlanningClusterService node(String nodeId) {
+    PlanningClusterService node = new PlanningClusterService(true, nodeId, URL, USER, PASSWORD);
+    nodes.add(node);
+    return node;
+  }
+
+  private Connection transaction() throws SQLException {
+    Connection connection = DriverManager.getConnection(URL, USER, PASSWORD);
+    connection.setAutoCommit(false);
+    connections.add(connection);
+    return connection;
+  }
+
+  private void publishAndCommit(PlanningClusterService node, Long projectId) {
+    try (Connection connection = DriverManager.getConnection(URL, USER, PASSWORD)) {
+      connection.setAutoCommit(false);
+      node.publishPlanUpdated(connection, projectId);
+      connection.commit();
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void lock(PlanningClusterService node, Connection connection, Long projectId) {
+    try {
+      node.lockProject(connection, projectId);
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static ProjectGraph graph(Long projectId) {
+    return ProjectGraph.compile(
+        projectId,
+        new long[] {1},
+        2,
+        new int[] {2},
+        new int[] {0},
+        new int[] {-1},
+        new int[0],
+        new int[0],
+        new int[0],
+        new int[0],
+        0);
+  }
+
+  private static void await(BooleanSupplier condition) {
+    long deadline = System.nanoTime() + TIMEOUT.toNanos();
+    while (!condition.getAsBoolean()) {
+      if (System.nanoTime() > deadline) {
+        throw new AssertionError("Condition not met in time");
+      }
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new AssertionError(e);
+      }
+    }
+  }
+}
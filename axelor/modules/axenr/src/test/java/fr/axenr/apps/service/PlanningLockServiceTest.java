@@ -0,0 +1,201 @@
+package fr.axenr.apps.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+class PlanningLockServiceTest {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  private final PlanningLockService service = new PlanningLockService();
+
+  @Test
+  void joinsTheIdenticalComputationInFlight() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger runs = new AtomicInteger();
+    Object result = new Object();
+
+    CompletableFuture<Object> first =
+        runExclusive(1L, "forward", blockedUntil(release, runs, result));
+    awaitInFlight(1);
+    Thread second = start(() -> service.runExclusive(1L, "forward", counting(runs)));
+    awaitParked(second);
+    release.countDown();
+
+    assertSame(result, first.get());
+    second.join(TIMEOUT.toMillis());
+    assertEquals(1, runs.get());
+    assertEquals(0, service.getInFlightCount());
+  }
+
+  @Test
+  void sharesTheFailureOfTheComputationInFlight() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    IllegalStateException failure = new IllegalStateException("cycle");
+    CompletableFuture<Object> first =
+        runExclusive(
+            1L,
+            "forward",
+            () -> {
+              await(release);
+              throw failure;
+            });
+    awaitInFlight(1);
+    CompletableFuture<Object> second = runExclusive(1L, "forward", () -> "computed again");
+    Thread.sleep(50);
+    release.countDown();
+
+    assertSame(failure, thrownBy(first));
+    assertSame(failure, thrownBy(second));
+    assertEquals(0, service.getInFlightCount());
+  }
+
+  @Test
+  void computesAgainOnceTheFlightLanded() {
+    AtomicInteger runs = new AtomicInteger();
+
+    service.runExclusive(1L, "forward", counting(runs));
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            service.runExclusive(
+                1L,
+                "forward",
+                () -> {
+                  throw new IllegalStateException("cycle");
+                }));
+    service.runExclusive(1L, "forward", counting(runs));
+
+    assertEquals(2, runs.get());
+    assertEquals(0, service.getInFlightCount());
+  }
+
+  @Test
+  void serializesOtherOperationsOnTheSameProject() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    List<String> events = new CopyOnWriteArrayList<>();
+    CompletableFuture<Object> forward =
+        runExclusive(
+            1L,
+            "forward",
+            () -> {
+              events.add("forward started");
+              await(release);
+              events.add("forward done");
+              return null;
+            });
+    awaitInFlight(1);
+    Thread backward =
+        start(() -> service.runExclusive(1L, "backward", () -> events.add("backward")));
+    awaitParked(backward);
+    release.countDown();
+
+    forward.get();
+    backward.join(TIMEOUT.toMillis());
+    assertEquals(List.of("forward started", "forward done", "backward"), events);
+  }
+
+  @Test
+  void doesNotCoalesceLockedWork() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger runs = new AtomicInteger();
+    Thread first = start(() -> service.runLocked(1L, blockedUntil(release, runs, null)));
+    awaitParked(first);
+    Thread second = start(() -> service.runLocked(1L, counting(runs)));
+    awaitParked(second);
+    release.countDown();
+
+    first.join(TIMEOUT.toMillis());
+    second.join(TIMEOUT.toMillis());
+    assertEquals(2, runs.get());
+  }
+
+  @Test
+  void letsTheHolderOfTheLockPlanAgain() {
+    Object result =
+        assertTimeoutPreemptively(
+            TIMEOUT,
+            () ->
+                service.runExclusive(
+                    1L, "bulk", () -> service.runLocked(1L, () -> "planned under the lock")));
+
+    assertEquals("planned under the lock", result);
+  }
+
+  @Test
+  void rejectsProjectsNotSavedYet() {
+    assertThrows(
+        IllegalArgumentException.class, () -> service.runExclusive(null, "forward", () -> null));
+    assertThrows(IllegalArgumentException.class, () -> service.runLocked(null, () -> null));
+  }
+
+  private CompletableFuture<Object> runExclusive(
+      Long projectId, String operation, Supplier<Object> work) {
+    return CompletableFuture.supplyAsync(() -> service.runExclusive(projectId, operation, work));
+  }
+
+  private void awaitInFlight(int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TIMEOUT.toNanos();
+    while (service.getInFlightCount() != count) {
+      if (System.nanoTime() > deadline) {
+        throw new AssertionError("No computation in flight");
+      }
+      Thread.sleep(1);
+    }
+  }
+
+  /** Wait until the thread blocks, on the lock or on the computation it joined */
+  private static void awaitParked(Thread thread) throws InterruptedException {
+    long deadline = System.nanoTime() + TIMEOUT.toNanos();
+    while (thread.getState() != Thread.State.WAITING) {
+      if (System.nanoTime() > deadline) {
+        throw new AssertionError("Thread never blocked");
+      }
+      Thread.sleep(1);
+    }
+  }
+
+  private static Thread start(Runnable work) {
+    Thread thread = new Thread(work);
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  private static Supplier<Object> blockedUntil(
+      CountDownLatch release, AtomicInteger runs, Object result) {
+    return () -> {
+      runs.incrementAndGet();
+      await(release);
+      return result;
+    };
+  }
+
+  private static Supplier<Object> counting(AtomicInteger runs) {
+    return () -> runs.incrementAndGet();
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static Throwable thrownBy(CompletableFuture<Object> future) {
+    return assertThrows(Exception.class, future::get).getCause();
+  }
+}
@@ -0,0 +1,160 @@
+package fr.axenr.apps.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class PlanningRecomputeQueueTest {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  /** Projects recomputed, in order, with the time of each run */
+  private final List<Long> runs = new CopyOnWriteArrayList<>();
+
+  private final List<Long> runTimes = new CopyOnWriteArrayList<>();
+
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  private volatile Long blockedProject;
+
+  private volatile RuntimeException failure;
+
+  private PlanningRecomputeQueue queue;
+
+  @AfterEach
+  void shutdown() {
+    release.countDown();
+    if (queue != null) {
+      queue.onShutdown(null);
+    }
+  }
+
+  @Test
+  void recomputesOnceWhenTheBurstIsOver() throws InterruptedException {
+    queue = queue(100, 10000, 10, 1, 1);
+
+    long lastRequest = 0;
+    for (int i = 0; i < 3; i++) {
+      assertEquals(RecomputeStatus.QUEUED, queue.request(1L));
+      lastRequest = System.currentTimeMillis();
+      Thread.sleep(30);
+    }
+    awaitStatus(1L, RecomputeStatus.DONE);
+    Thread.sleep(200);
+
+    assertEquals(List.of(1L), runs);
+    assertTrue(runTimes.get(0) >= lastRequest + 100);
+  }
+
+  @Test
+  void doesNotDelayAProjectPastTheMaximumDelay() throws InterruptedException {
+    queue = queue(200, 400, 10, 1, 1);
+
+    long firstRequest = System.currentTimeMillis();
+    while (System.currentTimeMillis() - firstRequest < 1000) {
+      queue.request(1L);
+      Thread.sleep(50);
+    }
+    await(() -> !runs.isEmpty());
+
+    // Debounced alone, the first run would wait for the end of the edits plus a window
+    assertTrue(runTimes.get(0) - firstRequest < 800);
+    assertTrue(runs.size() >= 2);
+  }
+
+  @Test
+  void defersProjectsWhileTheWorkersAreSaturated() {
+    queue = queue(10, 10, 10, 1, 1);
+    blockedProject = 1L;
+
+    queue.request(1L);
+    awaitStatus(1L, RecomputeStatus.RUNNING);
+    queue.request(2L);
+    await(() -> queue.getStats().getQueuedCount() == 1);
+    queue.request(3L);
+    awaitStatus(3L, RecomputeStatus.DEFERRED);
+
+    release.countDown();
+    awaitStatus(3L, RecomputeStatus.DONE);
+    assertEquals(List.of(1L, 2L, 3L), runs);
+  }
+
+  @Test
+  void rejectsProjectsPastTheMaximumPending() {
+    queue = queue(10000, 10000, 2, 1, 1);
+
+    assertEquals(RecomputeStatus.QUEUED, queue.request(1L));
+    assertEquals(RecomputeStatus.QUEUED, queue.request(2L));
+    assertEquals(RecomputeStatus.REJECTED, queue.request(3L));
+    // A project already waiting only restarts its window
+    assertEquals(RecomputeStatus.QUEUED, queue.request(1L));
+
+    assertEquals(RecomputeStatus.REJECTED, queue.getStatus(3L));
+    assertEquals(1, queue.getStats().getRejectedCount());
+    assertEquals(2, queue.getStats().getPendingCount());
+  }
+
+  @Test
+  void keepsTheFailureUntilTheNextSuccessfulRun() {
+    queue = queue(10, 10, 10, 1, 1);
+
+    failure = new IllegalStateException("Circular dependency detected in task dependencies");
+    queue.request(1L);
+    awaitStatus(1L, RecomputeStatus.FAILED);
+    assertEquals(failure.getMessage(), queue.getFailure(1L));
+
+    failure = null;
+    queue.request(1L);
+    awaitStatus(1L, RecomputeStatus.DONE);
+    assertNull(queue.getFailure(1L));
+  }
+
+  private PlanningRecomputeQueue queue(
+      long debounceMs, long maxDelayMs, int maxPending, int workerCount, int queueCapacity) {
+    return new PlanningRecomputeQueue(
+        null, true, debounceMs, maxDelayMs, maxPending, workerCount, queueCapacity) {
+      @Override
+      void recompute(Long projectId, String tenantId) {
+        runs.add(projectId);
+        runTimes.add(System.currentTimeMillis());
+        if (projectId.equals(blockedProject)) {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        if (failure != null) {
+          throw failure;
+        }
+      }
+    };
+  }
+
+  private void awaitStatus(Long projectId, RecomputeStatus status) {
+    await(() -> queue.getStatus(projectId) == status);
+  }
+
+  private static void await(BooleanSupplier condition) {
+    long deadline = System.nanoTime() + TIMEOUT.toNanos();
+    while (!condition.getAsBoolean()) {
+      if (System.nanoTime() > deadline) {
+        throw new AssertionError("Condition not met in time");
+      }
+      try {
+        Thread.sleep(5);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new AssertionError(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package fr.axenr.apps.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import org.junit.jupiter.api.Test;
+
+class ResourceLoadServiceTest {
+
+  private static final LocalDate FROM = LocalDate.of(2026, 3, 2);
+
+  @Test
+  void sumsOverlappingBookingsDayByDay() {
+    int[] diff = new int[7 + 1];
+
+    ResourceLoadService.book(diff, FROM, day(1), day(3), 2);
+    ResourceLoadService.book(diff, FROM, day(3), day(5), 1);
+    ResourceLoadService.book(diff, FROM, day(6), day(6), 4);
+
+    assertArrayEquals(new int[] {0, 2, 2, 3, 1, 1, 4}, ResourceLoadService.dailyLoad(diff));
+  }
+
+  @Test
+  void clipsBookingsToTheRange() {
+    int[] diff = new int[5 + 1];
+
+    ResourceLoadService.book(diff, FROM, day(-3), day(1), 1);
+    ResourceLoadService.book(diff, FROM, day(3), day(20), 2);
+    ResourceLoadService.book(diff, FROM, day(-10), day(10), 4);
+
+    assertArrayEquals(new int[] {5, 5, 4, 6, 6}, ResourceLoadService.dailyLoad(diff));
+  }
+
+  @Test
+  void ignoresBookingsOutsideTheRange() {
+    int[] diff = new int[3 + 1];
+
+    ResourceLoadService.book(diff, FROM, day(-5), day(-1), 1);
+    ResourceLoadService.book(diff, FROM, day(3), day(4), 1);
+    ResourceLoadService.book(diff, FROM, day(2), day(1), 1);
+
+    assertArrayEquals(new int[] {0, 0, 0}, ResourceLoadService.dailyLoad(diff));
+  }
+
+  @Test
+  void servesTheLoadKeptOnlyForItsStampAndRange() {
+    long[] stamp = {3, 2, 7};
+    ResourceLoad load =
+        new ResourceLoad(
+            stamp,
+            FROM,
+            day(6),
+            new long[] {4, 9},
+            new String[] {"Grue", "Équipe"},
+            new int[] {1, 2},
+            new int[2][7]);
+
+    assertTrue(load.covers(new long[] {3, 2, 7}, FROM, day(6)));
+    assertFalse(load.covers(new long[] {4, 2, 7}, FROM, day(6)));
+    assertFalse(load.covers(stamp, FROM, day(5)));
+    assertTrue(load.indexOf(9) == 1 && load.indexOf(5) < 0);
+  }
+
+  private static LocalDate day(int offset) {
+    return FROM.plusDays(offset);
+  }
+}
@@ -0,0 +1,123 @@
+package fr.axenr.apps.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class TaskIntervalIndexTest {
+
+  private final TaskIntervalIndex index = new TaskIntervalIndex(new Random(7));
+
+  @Test
+  void findsTheRangesTouchingThePeriodInStartOrder() {
+    index.put(1, 10, 5, 9);
+    index.put(2, 10, 10, 12);
+    index.put(3, 10, 13, 20);
+    index.put(4, 10, 0, 4);
+    index.put(5, 10, 10, 10);
+
+    // Ends and starts on the bounds of the period are in progress
+    assertEquals(List.of(1L, 2L, 5L), search(9, 12));
+    assertEquals(List.of(3L), search(13, 13));
+    assertEquals(List.of(), search(21, 30));
+  }
+
+  @Test
+  void findsALongRangeHiddenBehindShortOnes() {
+    // The long range sits deep in the tree, only the latest end of its subtree reveals it
+    for (int t = 1; t <= 200; t++) {
+      index.put(t, 10, 2 * t, 2 * t);
+    }
+    index.put(1000, 10, 1, 1000);
+
+    assertEquals(List.of(1000L), search(601, 601));
+    assertEquals(List.of(1000L, 150L), search(299, 300));
+  }
+
+  @Test
+  void forgetsRemovedRanges() {
+    for (int t = 1; t <= 200; t++) {
+      index.put(t, 10, t, t + 5);
+    }
+    index.put(1000, 10, 0, 1000);
+
+    // Nodes in the middle of the tree have two children and are rotated down to be removed
+    for (int t = 20; t <= 180; t++) {
+      index.remove(t);
+    }
+    index.remove(1000);
+
+    assertEquals(List.of(), search(206, 1000));
+    assertEquals(List.of(15L, 16L, 17L, 18L, 19L), search(20, 60));
+    assertEquals(39, index.size());
+  }
+
+  @Test
+  void movesARangeWhenItsTaskIsPutAgain() {
+    index.put(1, 10, 0, 5);
+    index.put(1, 10, 50, 55);
+
+    assertEquals(List.of(), search(0, 5));
+    assertEquals(List.of(1L), search(52, 52));
+    assertEquals(1, index.size());
+  }
+
+  @Test
+  void keepsTheTasksMovedToAnotherProject() {
+    index.put(1, 10, 0, 5);
+    index.put(2, 10, 0, 5);
+    index.put(2, 20, 0, 5);
+    index.put(3, 20, 0, 5);
+
+    index.removeProject(10);
+
+    assertEquals(List.of(2L, 3L), search(0, 5));
+  }
+
+  @Test
+  void findsTheSameTasksAsAScan() {
+    Random random = new Random(11);
+    Map<Long, int[]> ranges = new HashMap<>();
+    for (int step = 0; step < 5000; step++) {
+      long taskId = random.nextInt(500);
+      if (random.nextInt(4) == 0) {
+        index.remove(taskId);
+        ranges.remove(taskId);
+      } else {
+        int start = random.nextInt(1000);
+        int end = start + random.nextInt(random.nextInt(10) == 0 ? 300 : 10);
+        index.put(taskId, 10, start, end);
+        ranges.put(taskId, new int[] {start, end});
+      }
+    }
+
+    for (int query = 0; query < 200; query++) {
+      int from = random.nextInt(1100);
+      int to = from + random.nextInt(30);
+      List<Long> expected = new ArrayList<>();
+      ranges.entrySet().stream()
+          .filter(range -> range.getValue()[1] >= from && range.getValue()[0] <= to)
+          .sorted(
+              (a, b) ->
+                  a.getValue()[0] != b.getValue()[0]
+                      ? Integer.compare(a.getValue()[0], b.getValue()[0])
+                      : Long.compare(a.getKey(), b.getKey()))
+          .forEach(range -> expected.add(range.getKey()));
+
+      assertEquals(expected, search(from, to), "from " + from + " to " + to);
+      assertEquals(expected.size(), index.count(from, to));
+    }
+    assertEquals(ranges.size(), index.size());
+  }
+
+  private List<Long> search(int from, int to) {
+    List<Long> found = new ArrayList<>();
+    index.search(from, to, found::add);
+    return found;
+  }
+}
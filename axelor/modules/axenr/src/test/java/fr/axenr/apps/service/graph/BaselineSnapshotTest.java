@@ -0,0 +1,79 @@
+package fr.axenr.apps.service.graph;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.DeflaterOutputStream;
+import org.junit.jupiter.api.Test;
+
+class BaselineSnapshotTest {
+
+  private static final int UNSET = PlanSchedule.UNSET;
+
+  private static final long[] IDS = {3, 4, 9, 1000};
+  private static final int[] START = {20500, 20502, UNSET, 20510};
+  private static final int[] END = {20501, 20502, UNSET, UNSET};
+
+  @Test
+  void decodesWhatItEncodes() {
+    byte[] blob = new BaselineSnapshot(IDS, START, END).encode();
+
+    BaselineSnapshot decoded = BaselineSnapshot.decode(blob);
+
+    assertEquals(IDS.length, decoded.size());
+    int[] startVariance = new int[IDS.length];
+    int[] finishVariance = new int[IDS.length];
+    decoded.variance(IDS, START, END, startVariance, finishVariance);
+    assertArrayEquals(new int[] {0, 0, UNSET, 0}, startVariance);
+    assertArrayEquals(new int[] {0, 0, UNSET, UNSET}, finishVariance);
+  }
+
+  @Test
+  void comparesCurrentDatesWithTheBaseline() {
+    BaselineSnapshot baseline = new BaselineSnapshot(IDS, START, END);
+    long[] currentIds = {2, 3, 4, 1000};
+    int[] currentStart = {20400, 20502, 20501, 20510};
+    int[] currentEnd = {20401, 20504, 20501, 20512};
+    int[] startVariance = new int[4];
+    int[] finishVariance = new int[4];
+
+    baseline.variance(currentIds, currentStart, currentEnd, startVariance, finishVariance);
+
+    // Task 2 is not in the baseline, task 1000 had no end there
+    assertArrayEquals(new int[] {UNSET, 2, -1, 0}, startVariance);
+    assertArrayEquals(new int[] {UNSET, 3, -1, UNSET}, finishVariance);
+  }
+
+  @Test
+  void staysSmallForLargeProjects() {
+    int size = 10000;
+    long[] ids = new long[size];
+    int[] start = new int[size];
+    int[] end = new int[size];
+    for (int i = 0; i < size; i++) {
+      ids[i] = 5000 + 3L * i;
+      start[i] = 20500 + i / 10;
+      end[i] = start[i] + 4;
+    }
+
+    byte[] blob = new BaselineSnapshot(ids, start, end).encode();
+
+    assertTrue(blob.length < size, "encoded in " + blob.length + " bytes");
+  }
+
+  @Test
+  void rejectsOtherFormats() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+      out.writeInt(2);
+      out.writeInt(0);
+    }
+
+    assertThrows(IllegalStateException.class, () -> BaselineSnapshot.decode(bytes.toByteArray()));
+  }
+}
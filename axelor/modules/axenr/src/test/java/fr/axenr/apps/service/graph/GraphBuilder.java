@@ -0,0 +1,67 @@
+package fr.axenr.apps.service.graph;
+
+import fr.axenr.apps.db.repo.TaskDependencyRepository;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Small project graphs for the tests, tasks being added in ascending id order */
+class GraphBuilder {
+
+  /** Half days, as configured by default */
+  static final int UNITS_PER_DAY = 2;
+
+  private final List<Long> taskIds = new ArrayList<>();
+  private final List<Integer> durations = new ArrayList<>();
+  private final List<Long> parentIds = new ArrayList<>();
+  private final List<long[]> links = new ArrayList<>();
+
+  /** Top level task lasting the given number of units */
+  GraphBuilder task(long id, int duration) {
+    return child(id, duration, null);
+  }
+
+  /** Sub-task of a task added before it */
+  GraphBuilder child(long id, int duration, Long parentId) {
+    if (!taskIds.isEmpty() && taskIds.get(taskIds.size() - 1) >= id) {
+      throw new IllegalArgumentException("Tasks must be added in ascending id order");
+    }
+    taskIds.add(id);
+    durations.add(duration);
+    parentIds.add(parentId);
+    return this;
+  }
+
+  GraphBuilder finishStart(long predecessorId, long successorId) {
+    return link(predecessorId, successorId, TaskDependencyRepository.TYPE_FINISH_START, 0);
+  }
+
+  /** Link of the given type, with a lag in units */
+  GraphBuilder link(long predecessorId, long successorId, int type, int lag) {
+    links.add(new long[] {predecessorId, successorId, type, lag});
+    return this;
+  }
+
+  ProjectGraph build() {
+    int size = taskIds.size();
+    long[] ids = taskIds.stream().mapToLong(Long::longValue).toArray();
+    int[] duration = durations.stream().mapToInt(Integer::intValue).toArray();
+    int[] parent = new int[size];
+    for (int i = 0; i < size; i++) {
+      parent[i] = parentIds.get(i) == null ? -1 : taskIds.indexOf(parentIds.get(i));
+    }
+    int count = links.size();
+    int[] from = new int[count];
+    int[] to = new int[count];
+    int[] type = new int[count];
+    int[] lag = new int[count];
+    for (int e = 0; e < count; e++) {
+      long[] link = links.get(e);
+      from[e] = taskIds.indexOf(link[0]);
+      to[e] = taskIds.indexOf(link[1]);
+      type[e] = (int) link[2];
+      lag[e] = (int) link[3];
+    }
+    return ProjectGraph.compile(
+        1L, ids, UNITS_PER_DAY, duration, new int[size], parent, from, to, type, lag, count);
+  }
+}
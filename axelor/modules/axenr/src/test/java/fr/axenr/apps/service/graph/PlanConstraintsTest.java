@@ -0,0 +1,170 @@
+package fr.axenr.apps.service.graph;
+
+import static fr.axenr.apps.service.graph.PlanningEngineTest.assertDates;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import org.junit.jupiter.api.Test;
+
+class PlanConstraintsTest {
+
+  private static final LocalDate MONDAY = LocalDate.of(2026, 3, 2);
+
+  /** 1 (two days) -> 2 (one day) -> 3 (one day) */
+  private final ProjectGraph chain =
+      new GraphBuilder()
+          .task(1, 4)
+          .task(2, 2)
+          .task(3, 2)
+          .finishStart(1, 2)
+          .finishStart(2, 3)
+          .build();
+
+  private final PlanConstraints constraints = new PlanConstraints(chain);
+
+  @Test
+  void startsNoEarlierThanTheConstraint() {
+    constraints.startNoEarlierThan(1, day(5));
+
+    PlanSchedule schedule = forward();
+
+    assertDates(schedule, 1, "2026-03-05", "2026-03-05");
+    assertDates(schedule, 2, "2026-03-06", "2026-03-06");
+    assertEquals(0, schedule.getViolationCount());
+  }
+
+  @Test
+  void waitsForPredecessorsInOtherProjects() {
+    constraints.waitFor(0, day(3));
+
+    assertDates(forward(), 0, "2026-03-03", "2026-03-04");
+  }
+
+  @Test
+  void reportsMissedDeadlinesWithTheChainDrivingThem() {
+    constraints.finishNoLaterThan(2, chain.dayEnd(march(4)));
+
+    PlanSchedule schedule = forward();
+
+    assertDates(schedule, 2, "2026-03-05", "2026-03-05");
+    assertEquals(1, schedule.getViolationCount());
+    ConstraintViolation violation = schedule.getViolations().get(0);
+    assertEquals(ConstraintViolation.Type.DEADLINE, violation.getType());
+    assertEquals(3, violation.getTaskId());
+    assertEquals(1, violation.getDays());
+    assertArrayEquals(new long[] {1, 2, 3}, violation.getPath());
+  }
+
+  @Test
+  void givesANegativeFloatAlongAMissedDeadline() {
+    constraints.finishNoLaterThan(2, chain.dayEnd(march(4)));
+
+    PlanSchedule schedule = forward();
+
+    assertEquals(new BigDecimal("-1.00"), schedule.getTotalFloat(0));
+    assertEquals(new BigDecimal("-1.00"), schedule.getTotalFloat(2));
+  }
+
+  @Test
+  void startsOnItsMustStartOnWhenPredecessorsAllow() {
+    constraints.mustStartOn(2, day(7));
+
+    PlanSchedule schedule = forward();
+
+    assertDates(schedule, 2, "2026-03-07", "2026-03-07");
+    assertEquals(0, schedule.getViolationCount());
+  }
+
+  @Test
+  void reportsAMustStartOnItsPredecessorsPushBack() {
+    constraints.mustStartOn(2, day(4));
+
+    PlanSchedule schedule = forward();
+
+    assertDates(schedule, 2, "2026-03-05", "2026-03-05");
+    ConstraintViolation violation = schedule.getViolations().get(0);
+    assertEquals(ConstraintViolation.Type.MUST_START_ON, violation.getType());
+    assertEquals(1, violation.getDays());
+    assertArrayEquals(new long[] {1, 2, 3}, violation.getPath());
+  }
+
+  @Test
+  void roundsUpPartDaysMissed() {
+    constraints.finishNoLaterThan(2, chain.dayEnd(march(4)) + 1);
+
+    assertEquals(1, forward().getViolations().get(0).getDays());
+  }
+
+  @Test
+  void reportsEarliestStartsMissedBackwardWithTheChainHoldingThem() {
+    constraints.startNoEarlierThan(0, day(4));
+
+    PlanSchedule schedule =
+        PlanningEngine.backward(chain, chain.dayEnd(march(6)), constraints);
+
+    assertDates(schedule, 0, "2026-03-03", "2026-03-04");
+    ConstraintViolation violation = schedule.getViolations().get(0);
+    assertEquals(ConstraintViolation.Type.EARLIEST_START, violation.getType());
+    assertEquals(1, violation.getTaskId());
+    assertEquals(1, violation.getDays());
+    assertArrayEquals(new long[] {1, 2, 3}, violation.getPath());
+  }
+
+  @Test
+  void boundsTheFinishGateOfSummaryTasks() {
+    ProjectGraph graph =
+        new GraphBuilder().task(1, 0).child(2, 4, 1L).child(3, 2, 1L).finishStart(2, 3).build();
+    PlanConstraints summary = new PlanConstraints(graph);
+    summary.finishNoLaterThan(0, graph.dayEnd(march(3)));
+
+    PlanSchedule schedule = PlanningEngine.forward(graph, graph.dayStart(MONDAY), summary);
+
+    ConstraintViolation violation = schedule.getViolations().get(0);
+    assertEquals(1, violation.getTaskId());
+    assertEquals(1, violation.getDays());
+    assertArrayEquals(new long[] {1, 2, 3}, violation.getPath());
+  }
+
+  @Test
+  void keepsTheFirstViolationsAndCountsThemAll() {
+    int size = PlanningEngine.MAX_VIOLATIONS + 5;
+    GraphBuilder builder = new GraphBuilder();
+    for (int i = 0; i < size; i++) {
+      builder.task(i + 1, 4);
+    }
+    ProjectGraph graph = builder.build();
+    PlanConstraints deadlines = new PlanConstraints(graph);
+    for (int i = 0; i < size; i++) {
+      deadlines.finishNoLaterThan(i, graph.dayEnd(MONDAY));
+    }
+
+    PlanSchedule schedule = PlanningEngine.forward(graph, graph.dayStart(MONDAY), deadlines);
+
+    assertEquals(size, schedule.getViolationCount());
+    assertEquals(PlanningEngine.MAX_VIOLATIONS, schedule.getViolations().size());
+  }
+
+  @Test
+  void tellsWhetherAnyTaskIsConstrained() {
+    assertTrue(constraints.isEmpty());
+    constraints.finishNoLaterThan(1, chain.dayEnd(march(9)));
+    assertFalse(constraints.isEmpty());
+  }
+
+  private PlanSchedule forward() {
+    return PlanningEngine.forward(chain, chain.dayStart(MONDAY), constraints);
+  }
+
+  /** First unit of the given day of March 2026 */
+  private int day(int dayOfMonth) {
+    return chain.dayStart(march(dayOfMonth));
+  }
+
+  private static LocalDate march(int dayOfMonth) {
+    return LocalDate.of(2026, 3, dayOfMonth);
+  }
+}
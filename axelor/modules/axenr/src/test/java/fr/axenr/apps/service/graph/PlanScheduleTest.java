@@ -0,0 +1,71 @@
+package fr.axenr.apps.service.graph;
+
+import static fr.axenr.apps.service.graph.PlanningEngineTest.assertDates;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import org.junit.jupiter.api.Test;
+
+class PlanScheduleTest {
+
+  @Test
+  void convertsDaysIntoUnitsToTheNearestUnit() {
+    assertEquals(3, ProjectGraph.toUnits(new BigDecimal("1.5"), 2));
+    assertEquals(3, ProjectGraph.toUnits(new BigDecimal("1.25"), 2));
+    assertEquals(2, ProjectGraph.toUnits(new BigDecimal("1.2"), 2));
+    assertEquals(-1, ProjectGraph.toUnits(new BigDecimal("-0.5"), 2));
+  }
+
+  @Test
+  void keepsInclusiveEndDatesOverExclusiveUnits() {
+    PlanSchedule schedule = new PlanSchedule(1, GraphBuilder.UNITS_PER_DAY);
+    schedule.setDates(0, LocalDate.of(2026, 3, 2), LocalDate.of(2026, 3, 4));
+
+    assertDates(schedule, 0, "2026-03-02", "2026-03-04");
+    assertEquals(new BigDecimal("3.00"), schedule.getDuration(0));
+  }
+
+  @Test
+  void endsMilestonesOnTheirStartDay() {
+    ProjectGraph graph = new GraphBuilder().task(1, 4).task(2, 0).finishStart(1, 2).build();
+
+    assertDates(PlanningEngineTest.forward(graph), 1, "2026-03-04", "2026-03-04");
+  }
+
+  @Test
+  void plansHalfDaysWithinTheSameDay() {
+    ProjectGraph graph =
+        new GraphBuilder()
+            .task(1, 1)
+            .task(2, 1)
+            .task(3, 1)
+            .finishStart(1, 2)
+            .finishStart(2, 3)
+            .build();
+
+    PlanSchedule schedule = PlanningEngineTest.forward(graph);
+
+    assertDates(schedule, 0, "2026-03-02", "2026-03-02");
+    assertDates(schedule, 1, "2026-03-02", "2026-03-02");
+    assertDates(schedule, 2, "2026-03-03", "2026-03-03");
+    assertEquals(new BigDecimal("0.50"), schedule.getDuration(1));
+  }
+
+  @Test
+  void comparesDatesAndFloat() {
+    PlanSchedule stored = new PlanSchedule(1, GraphBuilder.UNITS_PER_DAY);
+    PlanSchedule computed = new PlanSchedule(1, GraphBuilder.UNITS_PER_DAY);
+    stored.setDates(0, LocalDate.of(2026, 3, 2), LocalDate.of(2026, 3, 3));
+    computed.setDates(0, LocalDate.of(2026, 3, 2), LocalDate.of(2026, 3, 3));
+
+    assertNull(stored.getTotalFloat(0));
+    assertTrue(computed.sameAs(0, stored));
+    computed.setTotalFloat(0, new BigDecimal("1.50"));
+    assertFalse(computed.sameAs(0, stored));
+    assertEquals(new BigDecimal("1.50"), computed.getTotalFloat(0));
+  }
+}
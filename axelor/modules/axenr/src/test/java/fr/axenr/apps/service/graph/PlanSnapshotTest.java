@@ -0,0 +1,108 @@
+package fr.axenr.apps.service.graph;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PlanSnapshotTest {
+
+  private static final long[] STAMP = {7, 3, 12, 40, 2, 9};
+
+  @TempDir Path directory;
+
+  private static ProjectGraph graph() {
+    return new GraphBuilder()
+        .task(10, 2)
+        .task(20, 4)
+        .child(30, 2, 20L)
+        .child(40, 2, 20L)
+        .task(50, 2)
+        .finishStart(10, 20)
+        .finishStart(30, 40)
+        .finishStart(20, 50)
+        .build();
+  }
+
+  @Test
+  void readsBackTheGraphAndTheSchedule() throws IOException {
+    ProjectGraph graph = graph();
+    PlanSchedule schedule = PlanningEngineTest.forward(graph);
+    Path file = directory.resolve("1.snapshot");
+
+    new PlanSnapshot(STAMP, graph, schedule).write(file);
+    ByteBuffer buffer = map(file);
+
+    assertEquals(Long.valueOf(1), PlanSnapshot.readProjectId(buffer));
+    assertEquals(GraphBuilder.UNITS_PER_DAY, PlanSnapshot.readUnitsPerDay(buffer));
+    assertArrayEquals(STAMP, PlanSnapshot.readStamp(buffer));
+    PlanSnapshot read = PlanSnapshot.read(buffer);
+    assertEquals(7, read.getPlanVersion());
+    assertSameGraph(graph, read.getGraph());
+    for (int i = 0; i < graph.size(); i++) {
+      assertTrue(schedule.sameAs(i, read.getSchedule()));
+    }
+  }
+
+  @Test
+  void plansTheGraphReadBackLikeTheOriginal() throws IOException {
+    ProjectGraph graph = graph();
+    Path file = directory.resolve("1.snapshot");
+    new PlanSnapshot(STAMP, graph, null).write(file);
+
+    PlanSnapshot read = PlanSnapshot.read(map(file));
+
+    assertNull(read.getSchedule());
+    PlanSchedule expected = PlanningEngineTest.forward(graph);
+    PlanSchedule actual = PlanningEngineTest.forward(read.getGraph());
+    for (int i = 0; i < graph.size(); i++) {
+      assertTrue(expected.sameAs(i, actual));
+    }
+  }
+
+  @Test
+  void ignoresOtherFiles() throws IOException {
+    Path file = directory.resolve("other.snapshot");
+    Files.write(file, new byte[128]);
+
+    assertNull(PlanSnapshot.readProjectId(map(file)));
+    assertNull(PlanSnapshot.readProjectId(ByteBuffer.allocate(8)));
+  }
+
+  @Test
+  void comparesStampsWhateverThePlanVersion() {
+    assertTrue(PlanSnapshot.sameGraph(STAMP, new long[] {8, 3, 12, 40, 2, 9}));
+    assertFalse(PlanSnapshot.sameGraph(STAMP, new long[] {7, 3, 13, 40, 2, 9}));
+  }
+
+  private static ByteBuffer map(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  private static void assertSameGraph(ProjectGraph expected, ProjectGraph actual) {
+    assertEquals(expected.getProjectId(), actual.getProjectId());
+    assertArrayEquals(expected.taskIds, actual.taskIds);
+    assertArrayEquals(expected.delay, actual.delay);
+    assertArrayEquals(expected.parent, actual.parent);
+    assertArrayEquals(expected.finishGate, actual.finishGate);
+    assertArrayEquals(expected.duration, actual.duration);
+    assertArrayEquals(expected.predOffset, actual.predOffset);
+    assertArrayEquals(expected.predTarget, actual.predTarget);
+    assertArrayEquals(expected.predDelta, actual.predDelta);
+    assertArrayEquals(expected.succOffset, actual.succOffset);
+    assertArrayEquals(expected.succTarget, actual.succTarget);
+    assertArrayEquals(expected.succDelta, actual.succDelta);
+    assertArrayEquals(expected.order, actual.order);
+  }
+}
@@ -0,0 +1,133 @@
+package fr.axenr.apps.service.graph;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import fr.axenr.apps.db.repo.TaskDependencyRepository;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Times the forward and backward passes over a generated project, once with finish-start links
+ * only and once with the same links of every type and signed lags. Skipped unless {@code
+ * AXENR_BENCHMARK} is set, as timings depend on the machine; the graphs are generated from a fixed
+ * seed so that runs can be compared.
+ */
+class PlanningEngineBenchmarkTest {
+
+  private static final long SEED = 20260302L;
+  private static final int TASKS = 20000;
+  private static final int LINKS_PER_TASK = 3;
+  /** Predecessors are picked among the tasks just before, as in a real schedule */
+  private static final int WINDOW = 50;
+
+  /** Shorter warmups leave one of the graphs on code compiled for the other */
+  private static final int WARMUP_ROUNDS = 300;
+
+  private static final int ROUNDS = 100;
+  /** Allowed slowdown of typed links over finish-start links, for the noise of the machine */
+  private static final double MAX_RATIO = 1.25;
+
+  private static final int[] TYPES = {
+    TaskDependencyRepository.TYPE_FINISH_START,
+    TaskDependencyRepository.TYPE_START_START,
+    TaskDependencyRepository.TYPE_FINISH_FINISH,
+    TaskDependencyRepository.TYPE_START_FINISH
+  };
+
+  private static final LocalDate MONDAY = LocalDate.of(2026, 3, 2);
+
+  @Test
+  void plansTypedLinksAsFastAsFinishStartLinks() {
+    assumeTrue(System.getenv("AXENR_BENCHMARK") != null, "AXENR_BENCHMARK is not set");
+
+    ProjectGraph finishStart = generate(false);
+    ProjectGraph typed = generate(true);
+    int projectStart = finishStart.dayStart(MONDAY);
+    int projectEnd = finishStart.dayEnd(MONDAY.plusYears(2));
+
+    for (int round = 0; round < WARMUP_ROUNDS; round++) {
+      plan(finishStart, projectStart, projectEnd);
+      plan(typed, projectStart, projectEnd);
+    }
+    // Interleaved, so that both graphs see the same state of the machine
+    long[] finishStartTimes = new long[ROUNDS];
+    long[] typedTimes = new long[ROUNDS];
+    for (int round = 0; round < ROUNDS; round++) {
+      finishStartTimes[round] = plan(finishStart, projectStart, projectEnd);
+      typedTimes[round] = plan(typed, projectStart, projectEnd);
+    }
+
+    long finishStartMedian = median(finishStartTimes);
+    long typedMedian = median(typedTimes);
+    System.out.printf(
+        "%d tasks: finish-start %.2f ms, typed %.2f ms (median of %d)%n",
+        TASKS,
+        finishStartMedian / 1e6,
+        typedMedian / 1e6,
+        ROUNDS);
+    assertTrue(
+        typedMedian <= finishStartMedian * MAX_RATIO,
+        "Typed links take " + typedMedian + " ns against " + finishStartMedian + " ns");
+  }
+
+  /** Nanoseconds taken by a forward then a backward plan */
+  private static long plan(ProjectGraph graph, int projectStart, int projectEnd) {
+    long start = System.nanoTime();
+    PlanningEngine.forward(graph, projectStart, new PlanConstraints(graph));
+    PlanningEngine.backward(graph, projectEnd, new PlanConstraints(graph));
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * Flat project whose tasks only follow earlier tasks. Both variants draw the same durations and
+   * links, only the types and lags differ.
+   */
+  private static ProjectGraph generate(boolean typed) {
+    Random random = new Random(SEED);
+    long[] ids = new long[TASKS];
+    int[] duration = new int[TASKS];
+    int[] parent = new int[TASKS];
+    int capacity = TASKS * LINKS_PER_TASK;
+    int[] from = new int[capacity];
+    int[] to = new int[capacity];
+    int[] type = new int[capacity];
+    int[] lag = new int[capacity];
+    int count = 0;
+    for (int task = 0; task < TASKS; task++) {
+      ids[task] = task + 1;
+      duration[task] = 1 + random.nextInt(20);
+      parent[task] = -1;
+      int links = Math.min(task, random.nextInt(LINKS_PER_TASK + 1));
+      for (int link = 0; link < links; link++) {
+        from[count] = task - 1 - random.nextInt(Math.min(task, WINDOW));
+        to[count] = task;
+        int drawnType = TYPES[random.nextInt(TYPES.length)];
+        int drawnLag = random.nextInt(9) - 4;
+        type[count] = typed ? drawnType : TaskDependencyRepository.TYPE_FINISH_START;
+        lag[count] = typed ? drawnLag : 0;
+        count++;
+      }
+    }
+    return ProjectGraph.compile(
+        1L,
+        ids,
+        GraphBuilder.UNITS_PER_DAY,
+        duration,
+        new int[TASKS],
+        parent,
+        from,
+        to,
+        type,
+        lag,
+        count);
+  }
+
+  private static long median(long[] times) {
+    long[] sorted = times.clone();
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+}
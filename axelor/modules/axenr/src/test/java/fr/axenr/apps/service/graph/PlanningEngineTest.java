@@ -0,0 +1,101 @@
+package fr.axenr.apps.service.graph;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import fr.axenr.apps.db.repo.TaskDependencyRepository;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import org.junit.jupiter.api.Test;
+
+class PlanningEngineTest {
+
+  private static final LocalDate MONDAY = LocalDate.of(2026, 3, 2);
+
+  @Test
+  void startsSuccessorsAfterTheirPredecessorsFinish() {
+    ProjectGraph graph =
+        new GraphBuilder().task(1, 4).task(2, 2).task(3, 2).finishStart(1, 2).build();
+
+    PlanSchedule schedule = forward(graph);
+
+    assertDates(schedule, 0, "2026-03-02", "2026-03-03");
+    assertDates(schedule, 1, "2026-03-04", "2026-03-04");
+    assertEquals(LocalDate.parse("2026-03-04"), schedule.getMaxEndDate());
+  }
+
+  @Test
+  void givesTheTotalFloatAgainstTheProjectEnd() {
+    ProjectGraph graph =
+        new GraphBuilder().task(1, 4).task(2, 2).task(3, 2).finishStart(1, 2).build();
+
+    PlanSchedule schedule = forward(graph);
+
+    assertEquals(new BigDecimal("0.00"), schedule.getTotalFloat(0));
+    assertEquals(new BigDecimal("0.00"), schedule.getTotalFloat(1));
+    assertEquals(new BigDecimal("2.00"), schedule.getTotalFloat(2));
+  }
+
+  @Test
+  void startsAfterTheLatestOfSeveralPredecessors() {
+    ProjectGraph graph =
+        new GraphBuilder()
+            .task(1, 2)
+            .task(2, 6)
+            .task(3, 2)
+            .finishStart(1, 3)
+            .finishStart(2, 3)
+            .build();
+
+    assertDates(forward(graph), 2, "2026-03-05", "2026-03-05");
+  }
+
+  @Test
+  void plansEveryLinkType() {
+    // Predecessor of two days, successor of one day
+    assertDates(linked(TaskDependencyRepository.TYPE_FINISH_START, 0), "2026-03-04", "2026-03-04");
+    assertDates(linked(TaskDependencyRepository.TYPE_START_START, 2), "2026-03-03", "2026-03-03");
+    assertDates(linked(TaskDependencyRepository.TYPE_FINISH_FINISH, 0), "2026-03-03", "2026-03-03");
+    assertDates(linked(TaskDependencyRepository.TYPE_START_FINISH, 4), "2026-03-03", "2026-03-03");
+  }
+
+  @Test
+  void startsEarlierOnANegativeLag() {
+    assertDates(
+        linked(TaskDependencyRepository.TYPE_FINISH_START, -2), "2026-03-03", "2026-03-03");
+  }
+
+  @Test
+  void endsTasksWithoutSuccessorOnTheProjectEndBackward() {
+    ProjectGraph graph =
+        new GraphBuilder().task(1, 4).task(2, 2).task(3, 2).finishStart(1, 2).build();
+
+    PlanSchedule schedule =
+        PlanningEngine.backward(
+            graph, graph.dayEnd(LocalDate.of(2026, 3, 10)), new PlanConstraints(graph));
+
+    assertDates(schedule, 0, "2026-03-08", "2026-03-09");
+    assertDates(schedule, 1, "2026-03-10", "2026-03-10");
+    assertDates(schedule, 2, "2026-03-10", "2026-03-10");
+    assertEquals(LocalDate.parse("2026-03-08"), schedule.getMinStartDate());
+    assertEquals(new BigDecimal("2.00"), schedule.getTotalFloat(2));
+  }
+
+  /** Dates of a one day task linked to a two day task */
+  private static PlanSchedule linked(int type, int lag) {
+    ProjectGraph graph = new GraphBuilder().task(1, 4).task(2, 2).link(1, 2, type, lag).build();
+    return forward(graph);
+  }
+
+  static PlanSchedule forward(ProjectGraph graph) {
+    return PlanningEngine.forward(graph, graph.dayStart(MONDAY), new PlanConstraints(graph));
+  }
+
+  private static void assertDates(PlanSchedule schedule, String start, String end) {
+    assertDates(schedule, 1, start, end);
+  }
+
+  static void assertDates(PlanSchedule schedule, int index, String start, String end) {
+    assertEquals(LocalDate.parse(start), schedule.getStartDate(index), "start of " + index);
+    assertEquals(LocalDate.parse(end), schedule.getEndDate(index), "end of " + index);
+  }
+}
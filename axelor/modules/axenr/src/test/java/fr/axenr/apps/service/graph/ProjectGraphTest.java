@@ -0,0 +1,107 @@
+package fr.axenr.apps.service.graph;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fr.axenr.apps.db.repo.TaskDependencyRepository;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class ProjectGraphTest {
+
+  /** 10 -> 20, 10 -> 30, 20 -> 40, 30 -> 40 */
+  private static ProjectGraph diamond() {
+    return new GraphBuilder()
+        .task(10, 2)
+        .task(20, 2)
+        .task(30, 2)
+        .task(40, 2)
+        .finishStart(10, 20)
+        .finishStart(10, 30)
+        .finishStart(20, 40)
+        .finishStart(30, 40)
+        .build();
+  }
+
+  @Test
+  void indexesTasksById() {
+    ProjectGraph graph = diamond();
+
+    assertEquals(4, graph.size());
+    assertEquals(1, graph.indexOf(20));
+    assertEquals(40, graph.getTaskId(3));
+    assertTrue(graph.indexOf(25) < 0);
+  }
+
+  @Test
+  void storesLinksInBothDirections() {
+    ProjectGraph graph = diamond();
+
+    assertArrayEquals(new int[] {1, 2}, sorted(successors(graph, 0)));
+    assertArrayEquals(new int[] {1, 2}, sorted(predecessors(graph, 3)));
+    assertArrayEquals(new int[] {0}, predecessors(graph, 1));
+    assertArrayEquals(new int[0], predecessors(graph, 0));
+    assertArrayEquals(new int[0], successors(graph, 3));
+    assertEquals(4, graph.getLinkCount());
+  }
+
+  @Test
+  void ordersEachTaskAfterItsPredecessors() {
+    ProjectGraph graph = diamond();
+    int[] position = new int[graph.nodeCount()];
+    for (int k = 0; k < graph.order.length; k++) {
+      position[graph.order[k]] = k;
+    }
+
+    for (int node = 0; node < graph.nodeCount(); node++) {
+      for (int predecessor : predecessors(graph, node)) {
+        assertTrue(position[predecessor] < position[node]);
+      }
+    }
+  }
+
+  @Test
+  void compilesEveryLinkTypeIntoAStartDelta() {
+    // Predecessor of 4 units, successor of 2 units, lag of 1 unit
+    assertEquals(5, linkDelta(TaskDependencyRepository.TYPE_FINISH_START));
+    assertEquals(1, linkDelta(TaskDependencyRepository.TYPE_START_START));
+    assertEquals(3, linkDelta(TaskDependencyRepository.TYPE_FINISH_FINISH));
+    assertEquals(-1, linkDelta(TaskDependencyRepository.TYPE_START_FINISH));
+  }
+
+  @Test
+  void rejectsCircularDependencies() {
+    GraphBuilder builder =
+        new GraphBuilder()
+            .task(1, 2)
+            .task(2, 2)
+            .task(3, 2)
+            .finishStart(1, 2)
+            .finishStart(2, 3)
+            .finishStart(3, 1);
+
+    assertThrows(IllegalStateException.class, builder::build);
+  }
+
+  private static int linkDelta(int type) {
+    ProjectGraph graph = new GraphBuilder().task(1, 4).task(2, 2).link(1, 2, type, 1).build();
+    assertArrayEquals(graph.predDelta, graph.succDelta);
+    return graph.predDelta[0];
+  }
+
+  static int[] predecessors(ProjectGraph graph, int node) {
+    return Arrays.copyOfRange(graph.predTarget, graph.predOffset[node], graph.predOffset[node + 1]);
+  }
+
+  static int[] successors(ProjectGraph graph, int node) {
+    return Arrays.copyOfRange(graph.succTarget, graph.succOffset[node], graph.succOffset[node + 1]);
+  }
+
+  private static int[] sorted(int[] values) {
+    int[] copy = values.clone();
+    Arrays.sort(copy);
+    return copy;
+  }
+}
@@ -0,0 +1,100 @@
+package fr.axenr.apps.service.graph;
+
+import static fr.axenr.apps.service.graph.PlanningEngineTest.assertDates;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import org.junit.jupiter.api.Test;
+
+class ResourceProfileTest {
+
+  @Test
+  void fitsAnywhereOnAFreeResource() {
+    ResourceProfile profile = new ResourceProfile(1);
+
+    assertEquals(7, profile.fit(7, 4, 1));
+  }
+
+  @Test
+  void fitsAfterTheBookingsInTheWay() {
+    ResourceProfile profile = new ResourceProfile(1);
+    profile.reserve(0, 4, 1);
+    profile.reserve(6, 2, 1);
+
+    assertEquals(4, profile.fit(0, 2, 1));
+    assertEquals(8, profile.fit(0, 3, 1));
+    assertEquals(8, profile.fit(5, 2, 1));
+  }
+
+  @Test
+  void sharesTheCapacityBetweenBookings() {
+    ResourceProfile profile = new ResourceProfile(2);
+    profile.reserve(0, 4, 1);
+    profile.reserve(2, 4, 1);
+
+    // Two units in use from 2 to 4, one around
+    assertEquals(0, profile.fit(0, 2, 1));
+    assertEquals(4, profile.fit(1, 2, 1));
+    assertEquals(6, profile.fit(0, 2, 2));
+  }
+
+  @Test
+  void givesTheWholeResourceToTasksAskingForMore() {
+    ResourceProfile profile = new ResourceProfile(2);
+    profile.reserve(0, 2, 5);
+
+    assertEquals(0, new ResourceProfile(2).fit(0, 2, 5));
+    assertEquals(2, profile.fit(0, 1, 1));
+  }
+
+  @Test
+  void levelsTasksSharingAResource() {
+    ProjectGraph graph = new GraphBuilder().task(1, 4).task(2, 2).task(3, 2).build();
+    // Tasks 1 and 2 on the only crew, task 3 on nothing
+    ResourcePool pool =
+        ResourcePool.compile(
+            new long[] {100},
+            new int[] {1},
+            graph.nodeCount(),
+            new int[] {0, 1},
+            new int[] {0, 0},
+            new int[] {1, 1},
+            2);
+
+    PlanSchedule schedule = level(graph, pool);
+
+    assertDates(schedule, 0, "2026-03-02", "2026-03-03");
+    assertDates(schedule, 1, "2026-03-04", "2026-03-04");
+    assertDates(schedule, 2, "2026-03-02", "2026-03-02");
+  }
+
+  @Test
+  void levelsAroundTheBookingsOfOtherProjects() {
+    ProjectGraph graph = new GraphBuilder().task(1, 2).task(2, 2).finishStart(1, 2).build();
+    ResourcePool pool =
+        ResourcePool.compile(
+            new long[] {100},
+            new int[] {1},
+            graph.nodeCount(),
+            new int[] {1},
+            new int[] {0},
+            new int[] {1},
+            1);
+    // The crew is busy elsewhere on the second and third days
+    int monday = graph.dayStart(LocalDate.of(2026, 3, 2));
+    pool.book(pool.indexOf(100), monday + 2, 4, 1);
+
+    PlanSchedule schedule = level(graph, pool);
+
+    assertDates(schedule, 0, "2026-03-02", "2026-03-02");
+    assertDates(schedule, 1, "2026-03-05", "2026-03-05");
+    // Float is computed without resources, against the leveled project end
+    assertEquals(new BigDecimal("2.00"), schedule.getTotalFloat(0));
+  }
+
+  private static PlanSchedule level(ProjectGraph graph, ResourcePool pool) {
+    return PlanningEngine.level(
+        graph, graph.dayStart(LocalDate.of(2026, 3, 2)), pool, new PlanConstraints(graph));
+  }
+}
@@ -0,0 +1,134 @@
+package fr.axenr.apps.service.graph;
+
+import static fr.axenr.apps.service.graph.PlanningEngineTest.assertDates;
+import static fr.axenr.apps.service.graph.ProjectGraphTest.predecessors;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fr.axenr.apps.db.repo.TaskDependencyRepository;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import org.junit.jupiter.api.Test;
+
+class SummaryTaskTest {
+
+  /**
+   * Task 1 comes before summary task 2, made of 3 then 4; task 5 follows the summary task and
+   * task 6 starts with it.
+   */
+  private static ProjectGraph project() {
+    return new GraphBuilder()
+        .task(1, 2)
+        .task(2, 10)
+        .child(3, 4, 2L)
+        .child(4, 2, 2L)
+        .task(5, 2)
+        .task(6, 2)
+        .finishStart(1, 2)
+        .finishStart(3, 4)
+        .finishStart(2, 5)
+        .link(2, 6, TaskDependencyRepository.TYPE_START_START, 0)
+        .build();
+  }
+
+  @Test
+  void splitsSummaryTasksIntoAStartAndAFinishGate() {
+    ProjectGraph graph = project();
+
+    assertTrue(graph.isSummary(1));
+    assertFalse(graph.isSummary(2));
+    assertEquals(6, graph.size());
+    assertEquals(7, graph.nodeCount());
+    assertEquals(6, graph.finishGate[1]);
+    // Gates are milestones whatever the duration entered
+    assertEquals(0, graph.getDuration(1));
+  }
+
+  @Test
+  void tiesSubTasksToTheGatesOfTheirParent() {
+    ProjectGraph graph = project();
+
+    assertArrayEquals(new int[] {0}, predecessors(graph, 1));
+    assertArrayEquals(new int[] {1}, predecessors(graph, 2));
+    assertArrayEquals(new int[] {2, 3}, predecessors(graph, 6));
+  }
+
+  @Test
+  void leavesSummaryTasksFromTheGateOfTheLinkType() {
+    ProjectGraph graph = project();
+
+    assertArrayEquals(new int[] {6}, predecessors(graph, 4));
+    assertArrayEquals(new int[] {1}, predecessors(graph, 5));
+  }
+
+  /** The project, with task 7 finishing before summary task 2 finishes */
+  private static ProjectGraph finishingIntoSummary() {
+    return new GraphBuilder()
+        .task(1, 2)
+        .task(2, 10)
+        .child(3, 4, 2L)
+        .child(4, 2, 2L)
+        .task(5, 2)
+        .task(6, 2)
+        .task(7, 10)
+        .finishStart(1, 2)
+        .finishStart(3, 4)
+        .finishStart(2, 5)
+        .link(2, 6, TaskDependencyRepository.TYPE_START_START, 0)
+        .link(7, 2, TaskDependencyRepository.TYPE_FINISH_FINISH, 0)
+        .build();
+  }
+
+  @Test
+  void entersSummaryTasksAtTheGateOfTheLinkType() {
+    ProjectGraph graph = finishingIntoSummary();
+
+    assertEquals(7, graph.finishGate[1]);
+    assertArrayEquals(new int[] {0}, predecessors(graph, 1));
+    assertArrayEquals(new int[] {6, 2, 3}, predecessors(graph, 7));
+  }
+
+  @Test
+  void finishesSummaryTasksAfterTheirFinishFinishPredecessors() {
+    PlanSchedule schedule = PlanningEngineTest.forward(finishingIntoSummary());
+
+    assertDates(schedule, 6, "2026-03-02", "2026-03-06");
+    // The start is still rolled up from the sub-tasks alone
+    assertDates(schedule, 1, "2026-03-03", "2026-03-06");
+    assertDates(schedule, 4, "2026-03-07", "2026-03-07");
+  }
+
+  @Test
+  void rollsUpTheDatesOfSubTasks() {
+    PlanSchedule schedule = PlanningEngineTest.forward(project());
+
+    assertDates(schedule, 2, "2026-03-03", "2026-03-04");
+    assertDates(schedule, 3, "2026-03-05", "2026-03-05");
+    assertDates(schedule, 1, "2026-03-03", "2026-03-05");
+    assertDates(schedule, 4, "2026-03-06", "2026-03-06");
+    assertDates(schedule, 5, "2026-03-03", "2026-03-03");
+  }
+
+  @Test
+  void givesSummaryTasksTheLeastFloatOfTheirSubTasks() {
+    PlanSchedule schedule = PlanningEngineTest.forward(project());
+
+    assertEquals(new BigDecimal("0.00"), schedule.getTotalFloat(1));
+    assertEquals(new BigDecimal("3.00"), schedule.getTotalFloat(5));
+  }
+
+  @Test
+  void rollsUpTheDatesOfSubTasksBackward() {
+    ProjectGraph graph = project();
+
+    PlanSchedule schedule =
+        PlanningEngine.backward(
+            graph, graph.dayEnd(LocalDate.of(2026, 3, 6)), new PlanConstraints(graph));
+
+    assertDates(schedule, 0, "2026-03-02", "2026-03-02");
+    assertDates(schedule, 1, "2026-03-03", "2026-03-05");
+    assertEquals(new BigDecimal("0.00"), schedule.getTotalFloat(1));
+  }
+}